@@ -0,0 +1,30 @@
+package com.comphenix.blockpatcher.benchmark;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the conversion cache benchmarks with an increasing number of threads.
+ * <p>
+ * Any arguments are passed on to JMH, so the usual options such as <code>-p</code> and <code>-prof</code> still apply.
+ */
+public class ContentionRunner {
+	private static final int[] THREAD_COUNTS = { 2, 4, 8, 16, 32 };
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		Options parent = new CommandLineOptions(args);
+
+		for (int threads : THREAD_COUNTS) {
+			Options options = new OptionsBuilder().
+					parent(parent).
+					include(ConversionCacheBenchmark.class.getSimpleName()).
+					threads(threads).
+					build();
+			new Runner(options).run();
+		}
+	}
+}
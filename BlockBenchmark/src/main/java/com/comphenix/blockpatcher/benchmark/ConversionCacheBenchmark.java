@@ -0,0 +1,162 @@
+package com.comphenix.blockpatcher.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.comphenix.blockpatcher.ConversionCache;
+import com.comphenix.blockpatcher.PatcherAPI;
+import com.comphenix.blockpatcher.lookup.ChunkLookup;
+import com.comphenix.blockpatcher.lookup.ChunkSegmentLookup;
+import com.comphenix.blockpatcher.lookup.CompiledLookup;
+import com.comphenix.blockpatcher.lookup.SegmentLookup;
+import com.comphenix.blockpatcher.rules.ConversionRule;
+
+/**
+ * Measures the conversion cache and the conversion rules, as used by every chunk and block change packet.
+ * <p>
+ * Each thread reads and writes the view of its own player, unless <code>sharedPlayer</code> is set, in which case every
+ * thread uses the cache of the same player. Use {@link ContentionRunner} or <code>-t</code> to run with several threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionCacheBenchmark {
+	// The chunks sent to each player
+	private static final int VIEW_DISTANCE = 10;
+	private static final int VIEW_SIDE = 2 * VIEW_DISTANCE + 1;
+	private static final int VIEW_CHUNKS = VIEW_SIDE * VIEW_SIDE;
+
+	// Enough for every thread to have its own player
+	private static final int PLAYER_COUNT = 64;
+
+	/**
+	 * The chunk position and lookup tables of a single thread.
+	 */
+	@State(Scope.Thread)
+	public static class ThreadState {
+		private Player player;
+		private SegmentLookup[] copies;
+		private int chunk;
+
+		@Setup
+		public void setup(ConversionCacheBenchmark benchmark, ThreadParams params) {
+			player = benchmark.players[benchmark.sharedPlayer ? 0 : params.getThreadIndex() % PLAYER_COUNT];
+			copies = new SegmentLookup[benchmark.lookups.length];
+
+			// Every chunk packet saves a new, but usually equal, lookup table
+			for (int i = 0; i < copies.length; i++) {
+				copies[i] = (SegmentLookup) benchmark.lookups[i].deepClone();
+			}
+		}
+
+		private int nextChunk() {
+			return chunk = (chunk + 1) % VIEW_CHUNKS;
+		}
+	}
+
+	/**
+	 * Whether or not every thread uses the same player.
+	 */
+	@Param({ "false", "true" })
+	public boolean sharedPlayer;
+
+	/**
+	 * The number of distinct lookup tables in the view of each player, besides the default lookup table.
+	 */
+	@Param({ "4" })
+	public int distinctLookups;
+
+	private PatcherAPI api;
+	private ConversionCache cache;
+	private World world;
+	private Player[] players;
+	private SegmentLookup[] lookups;
+
+	@Setup
+	public void setup() {
+		api = new PatcherAPI();
+		api.setBlockLookup(1, 3);
+		cache = new ConversionCache(api);
+		world = FakeServer.createWorld("world");
+		players = new Player[PLAYER_COUNT];
+		lookups = new SegmentLookup[distinctLookups];
+
+		for (int i = 0; i < distinctLookups; i++) {
+			ChunkSegmentLookup lookup = new ChunkSegmentLookup(new ChunkLookup());
+			lookup.setBlockLookup(14, 1);
+			lookup.setBlockLookup(56, 1, i % lookup.getSegmentCount());
+			lookups[i] = lookup;
+
+			// A strip of chunks along the x axis
+			int minChunkX = -VIEW_DISTANCE + i * VIEW_SIDE / distinctLookups;
+			api.getRules().register(new ConversionRule(world.getName(),
+					minChunkX, -VIEW_DISTANCE, minChunkX + VIEW_SIDE / distinctLookups - 1, VIEW_DISTANCE).setBlockLookup(15, 1));
+		}
+
+		for (int i = 0; i < PLAYER_COUNT; i++) {
+			players[i] = FakeServer.createPlayer("player" + i, world);
+
+			for (int chunk = 0; chunk < VIEW_CHUNKS; chunk++) {
+				cache.saveCache(players[i], getChunkX(chunk), getChunkZ(chunk), getLookup(lookups, chunk));
+			}
+		}
+	}
+
+	private static int getChunkX(int chunk) {
+		return chunk % VIEW_SIDE - VIEW_DISTANCE;
+	}
+
+	private static int getChunkZ(int chunk) {
+		return chunk / VIEW_SIDE - VIEW_DISTANCE;
+	}
+
+	/**
+	 * Retrieve the lookup table of the given chunk, or NULL if it uses the default lookup table.
+	 */
+	private static SegmentLookup getLookup(SegmentLookup[] lookups, int chunk) {
+		int index = (chunk * 31) % (lookups.length + 1);
+		return index < lookups.length ? lookups[index] : null;
+	}
+
+	@Benchmark
+	public SegmentLookup loadCacheOrDefault(ThreadState state) {
+		int chunk = state.nextChunk();
+		return cache.loadCacheOrDefault(state.player, getChunkX(chunk), getChunkZ(chunk));
+	}
+
+	@Benchmark
+	public CompiledLookup loadCompiledCacheOrDefault(ThreadState state) {
+		int chunk = state.nextChunk();
+		return cache.loadCompiledCacheOrDefault(state.player, getChunkX(chunk), getChunkZ(chunk));
+	}
+
+	@Benchmark
+	public ConversionCache saveCache(ThreadState state) {
+		int chunk = state.nextChunk();
+		cache.saveCache(state.player, getChunkX(chunk), getChunkZ(chunk), getLookup(state.copies, chunk));
+		return cache;
+	}
+
+	@Benchmark
+	public SegmentLookup rulesLookup(ThreadState state) {
+		int chunk = state.nextChunk();
+		return api.getRules().getLookup(world, getChunkX(chunk), getChunkZ(chunk));
+	}
+}
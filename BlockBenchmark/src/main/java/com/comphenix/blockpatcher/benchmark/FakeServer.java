@@ -0,0 +1,72 @@
+package com.comphenix.blockpatcher.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+/**
+ * Creates worlds and players without a server.
+ * <p>
+ * They only support the few methods used by the conversion cache and the conversion rules, and compare by identity like
+ * the actual server objects. Every other method throws an UnsupportedOperationException.
+ */
+public class FakeServer {
+	private static final AtomicInteger nextEntityId = new AtomicInteger();
+
+	/**
+	 * Create a world with a random unique ID.
+	 *
+	 * @param name - the world name.
+	 * @return The world.
+	 */
+	public static World createWorld(String name) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("getName", name);
+		values.put("getUID", UUID.randomUUID());
+		return create(World.class, name, values);
+	}
+
+	/**
+	 * Create a player in the given world.
+	 *
+	 * @param name - the player name.
+	 * @param world - the world of the player.
+	 * @return The player.
+	 */
+	public static Player createPlayer(String name, World world) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("getName", name);
+		values.put("getUniqueId", UUID.randomUUID());
+		values.put("getWorld", world);
+		values.put("getEntityId", nextEntityId.incrementAndGet());
+		values.put("isOnline", true);
+		return create(Player.class, name, values);
+	}
+
+	private static <T> T create(Class<T> type, final String name, final Map<String, Object> values) {
+		Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String methodName = method.getName();
+
+				if (methodName.equals("hashCode") && args == null)
+					return System.identityHashCode(proxy);
+				if (methodName.equals("equals") && args != null && args.length == 1)
+					return proxy == args[0];
+				if (methodName.equals("toString") && args == null)
+					return name;
+				if (values.containsKey(methodName) && args == null)
+					return values.get(methodName);
+				throw new UnsupportedOperationException(methodName + " is not supported without a server.");
+			}
+		});
+		return type.cast(proxy);
+	}
+}
@@ -0,0 +1,118 @@
+package com.comphenix.blockpatcher.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.comphenix.blockpatcher.lookup.ChunkLookup;
+import com.comphenix.blockpatcher.lookup.ChunkSegmentLookup;
+import com.comphenix.blockpatcher.lookup.ConversionLookup;
+import com.comphenix.blockpatcher.lookup.LazyCopyLookup;
+
+/**
+ * Measures the lookup table operations performed for every chunk sent to a player.
+ * <p>
+ * Every chunk packet clones the lookup table of the chunk before it is handed to the conversion event, and the first
+ * write to a clone copies the underlying table. The conversion cache then compares the resulting table against every
+ * other cached table with the same hash code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+	private static final int SEGMENT_COUNT = 16;
+
+	/**
+	 * The number of segments with their own lookup table.
+	 */
+	@Param({ "0", "1", "16" })
+	public int modifiedSegments;
+
+	private ChunkLookup chunk;
+	private ChunkLookup chunkCopy;
+
+	private ChunkSegmentLookup segmented;
+	private ChunkSegmentLookup segmentedCopy;
+
+	@Setup
+	public void setup() {
+		chunk = createChunkLookup();
+		chunkCopy = createChunkLookup();
+		segmented = createSegmentLookup(modifiedSegments);
+		segmentedCopy = createSegmentLookup(modifiedSegments);
+	}
+
+	private static ChunkLookup createChunkLookup() {
+		ChunkLookup lookup = new ChunkLookup();
+		lookup.setBlockLookup(1, 3);
+		lookup.setBlockLookup(14, 1);
+		lookup.setBlockLookup(56, 1);
+		lookup.setDataLookup(35, 4, 14);
+		return lookup;
+	}
+
+	private static ChunkSegmentLookup createSegmentLookup(int modifiedSegments) {
+		ChunkSegmentLookup lookup = new ChunkSegmentLookup(createChunkLookup(), SEGMENT_COUNT);
+
+		for (int y = 0; y < modifiedSegments; y++) {
+			lookup.setBlockLookup(15, 1, y);
+		}
+		return lookup;
+	}
+
+	@Benchmark
+	public ConversionLookup segmentDeepClone() {
+		return segmented.deepClone();
+	}
+
+	@Benchmark
+	public ConversionLookup segmentDeepCloneAndModify() {
+		ChunkSegmentLookup clone = (ChunkSegmentLookup) segmented.deepClone();
+
+		// Copies the base table and every segment table
+		clone.setBlockLookup(16, 1);
+		return clone;
+	}
+
+	@Benchmark
+	public ConversionLookup lazyCopyFirstWrite() {
+		LazyCopyLookup copy = new LazyCopyLookup(chunk);
+
+		// Clones the delegate in checkModifications()
+		copy.setBlockLookup(16, 1);
+		return copy;
+	}
+
+	@Benchmark
+	public boolean chunkEquals() {
+		return chunk.equals(chunkCopy);
+	}
+
+	@Benchmark
+	public int chunkHashCode() {
+		return chunk.hashCode();
+	}
+
+	@Benchmark
+	public boolean segmentEquals() {
+		return segmented.equals(segmentedCopy);
+	}
+
+	@Benchmark
+	public int segmentHashCode() {
+		return segmented.hashCode();
+	}
+}
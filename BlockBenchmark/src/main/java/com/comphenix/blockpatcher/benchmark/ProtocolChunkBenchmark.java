@@ -0,0 +1,98 @@
+package com.comphenix.blockpatcher.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.comphenix.blockpatcher.ProtocolChunk;
+
+/**
+ * Measures the throughput of parsing, modifying and serializing a 1.9 chunk.
+ * <p>
+ * The translate benchmark performs the same steps as translating a chunk packet: it parses the chunk, replaces every
+ * block converted by the lookup table and serializes the result. Run with <code>-prof gc</code> to measure the
+ * allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolChunkBenchmark {
+	/**
+	 * A parsed chunk that is modified by every invocation, and thus parsed again before each one.
+	 */
+	@State(Scope.Thread)
+	public static class ModifiedChunk {
+		private ProtocolChunk chunk;
+
+		@Setup(Level.Invocation)
+		public void setup(ProtocolChunkBenchmark benchmark) {
+			chunk = benchmark.parse();
+		}
+	}
+
+	@Param({ "16" })
+	public int sectionCount;
+
+	@Param({ "4", "8", "13" })
+	public int bitsPerBlock;
+
+	@Param({ "4", "16" })
+	public int diversity;
+
+	@Param({ "1", "8" })
+	public int remappedIds;
+
+	private SyntheticChunk chunk;
+	private byte[] blockLookup;
+
+	// Parsed chunk that is never modified
+	private ProtocolChunk parsed;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		chunk = new SyntheticChunk(sectionCount, bitsPerBlock, diversity, 42);
+		blockLookup = chunk.createLookup(remappedIds).getBlockLookup();
+		parsed = parse();
+	}
+
+	private ProtocolChunk parse() {
+		return new ProtocolChunk(chunk.getData(), true, chunk.getChunkMask()).read();
+	}
+
+	@Benchmark
+	public ProtocolChunk read() {
+		return parse();
+	}
+
+	@Benchmark
+	public byte[] write() {
+		return parsed.write();
+	}
+
+	@Benchmark
+	public ProtocolChunk replaceAll(ModifiedChunk modified) {
+		modified.chunk.replaceAll(blockLookup);
+		return modified.chunk;
+	}
+
+	@Benchmark
+	public byte[] translate() {
+		ProtocolChunk translated = parse();
+		translated.replaceAll(blockLookup);
+		return translated.write();
+	}
+}
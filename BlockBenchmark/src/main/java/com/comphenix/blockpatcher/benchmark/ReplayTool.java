@@ -0,0 +1,269 @@
+package com.comphenix.blockpatcher.benchmark;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import com.comphenix.blockpatcher.ConversionCache;
+import com.comphenix.blockpatcher.PatcherAPI;
+import com.comphenix.blockpatcher.ProtocolChunk;
+import com.comphenix.blockpatcher.capture.CaptureReader;
+import com.comphenix.blockpatcher.capture.CapturedPacket;
+import com.comphenix.blockpatcher.lookup.CompiledLookup;
+import com.comphenix.blockpatcher.rules.ConversionRules;
+
+/**
+ * Replays a packet capture through the translation, without a server.
+ * <p>
+ * Every packet is translated the same way as on a Minecraft 1.9 server without any event handlers. The lookup table of
+ * each chunk is cached for the receiving player, and the chunk is parsed, converted with the compiled lookup table of
+ * each section and serialized again. Block changes are converted with the compiled lookup table cached for their chunk. Every player in the capture
+ * is replaced by a stand-in player in a single world.
+ * <p>
+ * The tool reports the throughput and latency percentiles of each packet type, along with a CRC32 checksum of the
+ * translated packets that can be compared between builds.
+ */
+public class ReplayTool {
+	private static final String USAGE = "Usage: ReplayTool <capture file> [-n iterations] [-w warmup iterations] [-b blockID:newBlockID]...";
+
+	private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p99.9" };
+
+	/**
+	 * The measurements of a single packet type.
+	 */
+	private static class Statistics {
+		private long[] latencies = new long[256];
+		private int count;
+		private long bytesIn;
+		private long bytesOut;
+		private final CRC32 checksum = new CRC32();
+
+		public void add(long latency) {
+			if (count == latencies.length)
+				latencies = Arrays.copyOf(latencies, count * 2);
+			latencies[count++] = latency;
+		}
+
+		public long getPercentile(long[] sorted, double percentile) {
+			int index = (int) Math.ceil(percentile * count) - 1;
+			return sorted[Math.max(0, Math.min(count - 1, index))];
+		}
+
+		public long getTotal() {
+			long total = 0;
+
+			for (int i = 0; i < count; i++) {
+				total += latencies[i];
+			}
+			return total;
+		}
+	}
+
+	private final PatcherAPI api = new PatcherAPI();
+	private final ConversionCache cache = new ConversionCache(api);
+	private final ConversionRules rules = api.getRules();
+	private final World world = FakeServer.createWorld("world");
+	private final Map<Integer, Player> players = new HashMap<Integer, Player>();
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		ReplayTool tool = new ReplayTool();
+		int iterations = 5;
+		int warmup = 2;
+
+		try {
+			for (int i = 1; i < args.length; i++) {
+				if (args[i].equals("-n") && i + 1 < args.length) {
+					iterations = Math.max(1, Integer.parseInt(args[++i]));
+				} else if (args[i].equals("-w") && i + 1 < args.length) {
+					warmup = Math.max(0, Integer.parseInt(args[++i]));
+				} else if (args[i].equals("-b") && i + 1 < args.length) {
+					String[] conversion = args[++i].split(":");
+
+					if (conversion.length != 2)
+						throw new IllegalArgumentException("Expected blockID:newBlockID, but got " + args[i]);
+					tool.api.setBlockLookup(Integer.parseInt(conversion[0]), Integer.parseInt(conversion[1]));
+				} else {
+					throw new IllegalArgumentException("Unknown argument " + args[i]);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+
+		List<CapturedPacket> packets = readCapture(args[0]);
+		System.out.println("Replaying " + packets.size() + " packets from " + args[0] + ", " + iterations + " iterations after " +
+				warmup + " warmup iterations");
+
+		for (int i = 0; i < warmup; i++) {
+			tool.replay(packets);
+		}
+		Map<CapturedPacket.Type, Statistics> statistics = null;
+		long start = System.nanoTime();
+
+		for (int i = 0; i < iterations; i++) {
+			Map<CapturedPacket.Type, Statistics> current = tool.replay(packets);
+
+			// The translation must be deterministic
+			if (statistics != null && getChecksum(statistics) != getChecksum(current))
+				System.out.println("Warning: Iteration " + (i + 1) + " has a different checksum.");
+			statistics = current;
+		}
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println(String.format("Total: %.1f packets/s, checksum %08x",
+				packets.size() * (double) iterations / elapsed * TimeUnit.SECONDS.toNanos(1), getChecksum(statistics)));
+		print(statistics);
+	}
+
+	private static List<CapturedPacket> readCapture(String file) throws IOException {
+		List<CapturedPacket> packets = new ArrayList<CapturedPacket>();
+		CaptureReader reader = new CaptureReader(new FileInputStream(file));
+
+		try {
+			CapturedPacket packet;
+
+			while ((packet = reader.read()) != null) {
+				packets.add(packet);
+			}
+		} finally {
+			reader.close();
+		}
+		return packets;
+	}
+
+	/**
+	 * Translate every packet once, starting with an empty cache.
+	 *
+	 * @param packets - the packets.
+	 * @return The measurements of the translated packets.
+	 */
+	private Map<CapturedPacket.Type, Statistics> replay(List<CapturedPacket> packets) {
+		Map<CapturedPacket.Type, Statistics> statistics = new EnumMap<CapturedPacket.Type, Statistics>(CapturedPacket.Type.class);
+
+		for (CapturedPacket.Type type : CapturedPacket.Type.values()) {
+			statistics.put(type, new Statistics());
+		}
+		for (Player player : players.values()) {
+			cache.clearCache(player);
+		}
+
+		for (CapturedPacket packet : packets) {
+			Player player = getPlayer(packet.getPlayerID());
+			Statistics current = statistics.get(packet.getType());
+			long start = System.nanoTime();
+
+			if (packet.getType() == CapturedPacket.Type.MAP_CHUNK) {
+				byte[] translated = translateMapChunk(packet, player);
+				current.add(System.nanoTime() - start);
+				current.bytesIn += packet.getData().length;
+				current.bytesOut += translated.length;
+				current.checksum.update(translated, 0, translated.length);
+			} else {
+				int[] translated = translateBlockChanges(packet, player);
+				current.add(System.nanoTime() - start);
+
+				for (int i = 0; i < translated.length; i++) {
+					current.checksum.update(translated[i] >> 8);
+					current.checksum.update(translated[i]);
+				}
+			}
+		}
+		return statistics;
+	}
+
+	private Player getPlayer(int playerID) {
+		Player player = players.get(playerID);
+
+		if (player == null) {
+			players.put(playerID, player = FakeServer.createPlayer("player" + playerID, world));
+		}
+		return player;
+	}
+
+	private byte[] translateMapChunk(CapturedPacket packet, Player player) {
+		int chunkX = packet.getChunkX();
+		int chunkZ = packet.getChunkZ();
+
+		// Captures are only made on 1.9, where a chunk without sections is an empty chunk rather than an unload
+		cache.saveCache(player, chunkX, chunkZ, rules.getLookup(world, chunkX, chunkZ));
+
+		ProtocolChunk chunk = new ProtocolChunk(packet.getData(), packet.hasSkylight(), packet.getChunkMask()).read();
+		chunk.replaceAll(cache.loadCompiledCacheOrDefault(player, chunkX, chunkZ));
+		return chunk.write();
+	}
+
+	private int[] translateBlockChanges(CapturedPacket packet, Player player) {
+		CompiledLookup lookup = cache.loadCompiledCacheOrDefault(player, packet.getChunkX(), packet.getChunkZ());
+		int[] states = packet.getStates();
+		int[] translated = states.clone();
+
+		if (lookup.isIdentity())
+			return translated;
+
+		for (int i = 0; i < states.length; i++) {
+			int chunkY = (packet.getLocations()[i] & 0xFF) >> 4;
+
+			if (states[i] >= 0 && !lookup.isIdentity(chunkY))
+				translated[i] = lookup.translate(states[i], chunkY);
+		}
+		return translated;
+	}
+
+	private static long getChecksum(Map<CapturedPacket.Type, Statistics> statistics) {
+		CRC32 checksum = new CRC32();
+
+		for (Statistics current : statistics.values()) {
+			long value = current.checksum.getValue();
+
+			for (int shift = 24; shift >= 0; shift -= 8) {
+				checksum.update((int) (value >> shift));
+			}
+		}
+		return checksum.getValue();
+	}
+
+	private static void print(Map<CapturedPacket.Type, Statistics> statistics) {
+		for (Map.Entry<CapturedPacket.Type, Statistics> entry : statistics.entrySet()) {
+			Statistics current = entry.getValue();
+
+			if (current.count == 0)
+				continue;
+			long[] sorted = Arrays.copyOf(current.latencies, current.count);
+			StringBuilder percentiles = new StringBuilder();
+
+			Arrays.sort(sorted);
+
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				percentiles.append(String.format(", %s %.1f", PERCENTILE_NAMES[i], toMicroseconds(current.getPercentile(sorted, PERCENTILES[i]))));
+			}
+			System.out.println(String.format("%s: %d packets, %.1f packets/s, latency (us) min %.1f%s, max %.1f, checksum %08x",
+					entry.getKey(), current.count, current.count / (double) current.getTotal() * TimeUnit.SECONDS.toNanos(1),
+					toMicroseconds(sorted[0]), percentiles, toMicroseconds(sorted[current.count - 1]), current.checksum.getValue()));
+
+			if (current.bytesIn > 0) {
+				System.out.println(String.format("  %.1f MB in, %.1f MB out", current.bytesIn / (1024.0 * 1024.0), current.bytesOut / (1024.0 * 1024.0)));
+			}
+		}
+	}
+
+	private static double toMicroseconds(long nanoseconds) {
+		return nanoseconds / 1000.0;
+	}
+}
@@ -0,0 +1,200 @@
+package com.comphenix.blockpatcher.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+import com.comphenix.blockpatcher.lookup.ChunkLookup;
+
+/**
+ * Generates the data of a chunk packet in the Minecraft 1.9 format, without a server.
+ * <p>
+ * Every section uses the same number of bits per block. Sections with eight bits or less use a palette, while the
+ * remaining sections store protocol block IDs directly. The blocks of every section are picked at random from a fixed
+ * set of distinct block IDs, so the same parameters and seed always produce the same chunk.
+ */
+public class SyntheticChunk {
+	private static final int SECTION_BLOCKS = 4096;
+	private static final int LIGHT_DATA = 2048;
+	private static final int BIOME_DATA = 256;
+	private static final int MAX_PALETTE_BITS = 8;
+
+	private final byte[] data;
+	private final int chunkMask;
+	private final int[] states;
+
+	/**
+	 * Generate a chunk with skylight.
+	 *
+	 * @param sectionCount - the number of sections, from 1 to 16.
+	 * @param bitsPerBlock - the number of bits per block, from 4 to 13.
+	 * @param diversity - the number of distinct block IDs. This is limited by the number of bits per block.
+	 * @param seed - the random seed.
+	 */
+	public SyntheticChunk(int sectionCount, int bitsPerBlock, int diversity, long seed) {
+		if (sectionCount < 1 || sectionCount > 16)
+			throw new IllegalArgumentException("sectionCount must be between 1 and 16");
+		if (bitsPerBlock < 4 || bitsPerBlock > 13)
+			throw new IllegalArgumentException("bitsPerBlock must be between 4 and 13");
+		if (diversity < 1)
+			throw new IllegalArgumentException("diversity must be at least 1");
+
+		Random random = new Random(seed);
+
+		this.states = createStates(random, bitsPerBlock, diversity);
+		this.chunkMask = (1 << sectionCount) - 1;
+
+		try {
+			this.data = createData(random, sectionCount, bitsPerBlock);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot write to memory.", e);
+		}
+	}
+
+	private static int[] createStates(Random random, int bitsPerBlock, int diversity) {
+		// Global palette values must fit in the given number of bits
+		int maxBlockId = bitsPerBlock > MAX_PALETTE_BITS ? Math.min(256, 1 << (bitsPerBlock - 4)) : 256;
+		int count = Math.min(diversity, maxBlockId - 1);
+		Set<Integer> states = new LinkedHashSet<Integer>();
+
+		if (bitsPerBlock <= MAX_PALETTE_BITS)
+			count = Math.min(count, 1 << bitsPerBlock);
+
+		// Never use air, and only use the default data value so every state is a distinct block ID
+		while (states.size() < count) {
+			states.add((1 + random.nextInt(maxBlockId - 1)) << 4);
+		}
+		int[] result = new int[count];
+		int index = 0;
+
+		for (Integer state : states) {
+			result[index++] = state;
+		}
+		return result;
+	}
+
+	private byte[] createData(Random random, int sectionCount, int bitsPerBlock) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(buffer);
+		boolean palette = bitsPerBlock <= MAX_PALETTE_BITS;
+		byte[] light = new byte[LIGHT_DATA];
+
+		Arrays.fill(light, (byte) 0xFF);
+
+		for (int section = 0; section < sectionCount; section++) {
+			long[] bits = new long[SECTION_BLOCKS * bitsPerBlock / 64];
+
+			for (int index = 0; index < SECTION_BLOCKS; index++) {
+				int paletteIndex = random.nextInt(states.length);
+				setBits(bits, bitsPerBlock, index, palette ? paletteIndex : states[paletteIndex]);
+			}
+
+			output.writeByte(bitsPerBlock);
+
+			// The global palette is sent as an empty palette
+			writeVarInt(output, palette ? states.length : 0);
+
+			if (palette) {
+				for (int state : states) {
+					writeVarInt(output, state);
+				}
+			}
+			writeVarInt(output, bits.length);
+
+			for (long value : bits) {
+				output.writeLong(value);
+			}
+			// Block light and skylight
+			output.write(light);
+			output.write(light);
+		}
+
+		byte[] biomes = new byte[BIOME_DATA];
+		Arrays.fill(biomes, (byte) 1);
+		output.write(biomes);
+		output.flush();
+		return buffer.toByteArray();
+	}
+
+	private static void setBits(long[] bits, int bitsPerBlock, int index, int value) {
+		int start = index * bitsPerBlock;
+		int startLong = start / 64;
+		int endLong = ((index + 1) * bitsPerBlock - 1) / 64;
+		int offset = start % 64;
+
+		bits[startLong] |= (long) value << offset;
+
+		// The value spans two longs
+		if (startLong != endLong) {
+			bits[endLong] |= (long) value >>> (64 - offset);
+		}
+	}
+
+	private static void writeVarInt(DataOutputStream output, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			output.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte(value);
+	}
+
+	/**
+	 * Create a lookup table that converts the given number of block IDs in this chunk to a different block ID.
+	 *
+	 * @param remappedIds - the number of block IDs to convert. This is limited by the number of block IDs in the chunk.
+	 * @return The lookup table.
+	 */
+	public ChunkLookup createLookup(int remappedIds) {
+		ChunkLookup lookup = new ChunkLookup();
+		int[] blockIds = getBlockIds();
+
+		// Convert each block into the next one, so every conversion changes the chunk
+		for (int i = 0; i < Math.min(remappedIds, blockIds.length); i++) {
+			int newBlockId = blockIds.length > 1 ? blockIds[(i + 1) % blockIds.length] : (blockIds[i] % 255) + 1;
+			lookup.setBlockLookup(blockIds[i], newBlockId);
+		}
+		return lookup;
+	}
+
+	/**
+	 * Retrieve the chunk data, as sent in a chunk packet with every section.
+	 *
+	 * @return The chunk data.
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * Retrieve the bit mask of the sections in this chunk.
+	 *
+	 * @return The section mask.
+	 */
+	public int getChunkMask() {
+		return chunkMask;
+	}
+
+	/**
+	 * Retrieve every distinct block ID in this chunk, without the data value.
+	 *
+	 * @return The block IDs.
+	 */
+	public int[] getBlockIds() {
+		Set<Integer> blockIds = new LinkedHashSet<Integer>();
+
+		for (int state : states) {
+			blockIds.add(state >> 4);
+		}
+		int[] result = new int[blockIds.size()];
+		int index = 0;
+
+		for (Integer blockId : blockIds) {
+			result[index++] = blockId;
+		}
+		return result;
+	}
+}
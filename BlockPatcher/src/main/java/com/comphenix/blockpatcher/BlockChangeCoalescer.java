@@ -0,0 +1,387 @@
+package com.comphenix.blockpatcher;
+
+import static com.comphenix.protocol.PacketType.Play.Server.BLOCK_CHANGE;
+import static com.comphenix.protocol.PacketType.Play.Server.MAP_CHUNK;
+import static com.comphenix.protocol.PacketType.Play.Server.MULTI_BLOCK_CHANGE;
+import static com.comphenix.protocol.PacketType.Play.Server.RESPAWN;
+import static com.comphenix.protocol.PacketType.Play.Server.TILE_ENTITY_DATA;
+import static com.comphenix.protocol.PacketType.Play.Server.UNLOAD_CHUNK;
+import static com.comphenix.protocol.PacketType.Play.Server.UPDATE_SIGN;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.comphenix.blockpatcher.lookup.ChunkCoordinateMap;
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.events.ListenerPriority;
+import com.comphenix.protocol.events.PacketAdapter;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.events.PacketEvent;
+import com.comphenix.protocol.reflect.StructureModifier;
+import com.comphenix.protocol.utility.MinecraftReflection;
+import com.comphenix.protocol.wrappers.BlockPosition;
+import com.comphenix.protocol.wrappers.ChunkCoordIntPair;
+import com.comphenix.protocol.wrappers.MultiBlockChangeInfo;
+import com.comphenix.protocol.wrappers.WrappedBlockData;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Gathers the block changes sent to each player during a tick, and sends them as one packet per chunk.
+ * <p>
+ * The first change of a chunk in a tick is sent immediately and untouched, so a lone change is never delayed. Only
+ * the following changes of that chunk are gathered until the start of the next tick. A single gathered change is still
+ * sent as a block change packet. More changes are sent as a multi block change packet, and more changes than the
+ * resend threshold are sent as the modified sections instead. The resulting packets are translated like any other
+ * packet.
+ * <p>
+ * Once a chunk has gathered changes, every later block change, multi block change, partial chunk and tile entity packet
+ * of that chunk is held back as well, and sent after the gathered changes in its original order. The changes are
+ * discarded when the chunk is resent in full or unloaded, and when the player respawns or changes world.
+ * <p>
+ * Only the untranslated changes are gathered, so every block is translated once. This requires Minecraft 1.9 or later.
+ */
+class BlockChangeCoalescer {
+	/**
+	 * The gathered block changes of a single chunk, by their packed location within the chunk. This is empty until the
+	 * chunk receives a second change in the same tick.
+	 */
+	private static class ChunkChanges {
+		private final int chunkX;
+		private final int chunkZ;
+		private final Map<Short, Object> states = new LinkedHashMap<Short, Object>();
+
+		// Packets of this chunk that must be sent after the gathered changes
+		private final List<PacketContainer> deferred = new ArrayList<PacketContainer>();
+
+		public ChunkChanges(int chunkX, int chunkZ) {
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+		}
+	}
+
+	/**
+	 * The block changes of a single player during the current tick.
+	 */
+	private static class PlayerChanges {
+		private final Map<Long, ChunkChanges> chunks = new LinkedHashMap<Long, ChunkChanges>();
+
+		// The world the changes were gathered in
+		private World world;
+	}
+
+	private final Plugin plugin;
+	private final int resendThreshold;
+
+	// Block changes by player
+	private final ConcurrentMap<Player, PlayerChanges> pending = new MapMaker().weakKeys().makeMap();
+
+	// Packets sent by us, which must not be gathered again
+	private final Set<Object> sentPackets = Collections.newSetFromMap(new MapMaker().weakKeys().<Object, Boolean>makeMap());
+
+	private PacketAdapter listener;
+	private BukkitTask flushTask;
+
+	/**
+	 * Start gathering block changes.
+	 *
+	 * @param plugin - the owner plugin.
+	 * @param resendThreshold - the number of changes in a chunk above which the modified sections are resent.
+	 */
+	public BlockChangeCoalescer(Plugin plugin, int resendThreshold) {
+		if (!MinecraftReflection.isUsingNetty() || !UNLOAD_CHUNK.isSupported())
+			throw new IllegalStateException("Coalescing block changes requires Minecraft 1.9 or later.");
+
+		this.plugin = plugin;
+		this.resendThreshold = resendThreshold;
+		registerPacketListener();
+
+		// Block changes are sent at the end of every tick, and flushed at the start of the next
+		flushTask = plugin.getServer().getScheduler().runTaskTimer(plugin, new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, 1, 1);
+	}
+
+	private void registerPacketListener() {
+		List<PacketType> packets = Lists.newArrayList(BLOCK_CHANGE, MULTI_BLOCK_CHANGE, MAP_CHUNK, UNLOAD_CHUNK, TILE_ENTITY_DATA, RESPAWN);
+
+		// Removed in 1.9.4
+		if (UPDATE_SIGN.isSupported()) {
+			packets.add(UPDATE_SIGN);
+		}
+
+		ProtocolLibrary.getProtocolManager().addPacketListener(listener = new PacketAdapter(plugin, ListenerPriority.HIGHEST, packets) {
+			@Override
+			public void onPacketSending(PacketEvent event) {
+				PacketContainer packet = event.getPacket();
+				PacketType type = event.getPacketType();
+				Player player = event.getPlayer();
+
+				if (event.isCancelled() || sentPackets.remove(packet.getHandle()))
+					return;
+
+				if (type == BLOCK_CHANGE) {
+					if (gather(player, packet))
+						event.setCancelled(true);
+				} else if (type == RESPAWN) {
+					// The client discards every chunk
+					discardAll(player);
+				} else if (type == MULTI_BLOCK_CHANGE) {
+					ChunkCoordIntPair coord = packet.getChunkCoordIntPairs().read(0);
+
+					if (defer(player, packet, coord.getChunkX(), coord.getChunkZ()))
+						event.setCancelled(true);
+				} else if (type == TILE_ENTITY_DATA || type == UPDATE_SIGN) {
+					BlockPosition position = packet.getBlockPositionModifier().read(0);
+
+					if (defer(player, packet, position.getX() >> 4, position.getZ() >> 4))
+						event.setCancelled(true);
+				} else {
+					StructureModifier<Integer> ints = packet.getIntegers();
+
+					// The chunk data is newer than any gathered change, or the chunk is no longer visible
+					if (type == UNLOAD_CHUNK || packet.getBooleans().read(0)) {
+						discard(player, ints.read(0), ints.read(1));
+					} else if (defer(player, packet, ints.read(0), ints.read(1))) {
+						event.setCancelled(true);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gather the given block change, unless it is the first change of its chunk in this tick.
+	 * 
+	 * @param player - the receiving player.
+	 * @param packet - the block change packet.
+	 * @return TRUE if the change was gathered and the packet must be cancelled, FALSE if it should be sent now.
+	 */
+	private boolean gather(Player player, PacketContainer packet) {
+		BlockPosition position = packet.getBlockPositionModifier().read(0);
+		int chunkX = position.getX() >> 4;
+		int chunkZ = position.getZ() >> 4;
+
+		PlayerChanges changes = getChanges(player);
+
+		synchronized (changes) {
+			Long key = ChunkCoordinateMap.getKey(chunkX, chunkZ);
+			ChunkChanges chunk = getChunk(changes, player, key);
+
+			// Remember the chunk, but let the change through
+			if (chunk == null) {
+				changes.chunks.put(key, new ChunkChanges(chunkX, chunkZ));
+				return false;
+			}
+			// Must not pass a packet that is already held back
+			if (!chunk.deferred.isEmpty()) {
+				chunk.deferred.add(packet);
+				return true;
+			}
+			// Only the last change of each block is sent
+			short location = (short) ((position.getX() & 0xF) << 12 | (position.getZ() & 0xF) << 8 | (position.getY() & 0xFF));
+			chunk.states.remove(location);
+			chunk.states.put(location, getStates(packet).read(0));
+			return true;
+		}
+	}
+
+	/**
+	 * Hold back the given packet until the gathered changes of its chunk have been sent.
+	 * 
+	 * @param player - the receiving player.
+	 * @param packet - the packet.
+	 * @param chunkX - the x coordinate of the chunk of the packet.
+	 * @param chunkZ - the z coordinate of the chunk of the packet.
+	 * @return TRUE if the packet was held back and must be cancelled, FALSE if it should be sent now.
+	 */
+	private boolean defer(Player player, PacketContainer packet, int chunkX, int chunkZ) {
+		PlayerChanges changes = pending.get(player);
+
+		if (changes == null)
+			return false;
+
+		synchronized (changes) {
+			ChunkChanges chunk = getChunk(changes, player, ChunkCoordinateMap.getKey(chunkX, chunkZ));
+
+			// Nothing to wait for
+			if (chunk == null || (chunk.states.isEmpty() && chunk.deferred.isEmpty()))
+				return false;
+			chunk.deferred.add(packet);
+			return true;
+		}
+	}
+
+	/**
+	 * Retrieve the changes of the given chunk, after discarding every change gathered in a different world.
+	 * 
+	 * @param changes - the changes of the player, which must be locked.
+	 * @param player - the player.
+	 * @param key - the chunk key.
+	 * @return The changes of the chunk, or NULL if not found.
+	 */
+	private ChunkChanges getChunk(PlayerChanges changes, Player player, Long key) {
+		World world = player.getWorld();
+
+		if (changes.world != world) {
+			changes.chunks.clear();
+			changes.world = world;
+		}
+		return changes.chunks.get(key);
+	}
+
+	private void discardAll(Player player) {
+		PlayerChanges changes = pending.get(player);
+
+		if (changes != null) {
+			synchronized (changes) {
+				changes.chunks.clear();
+			}
+		}
+	}
+
+	private void discard(Player player, int chunkX, int chunkZ) {
+		PlayerChanges changes = pending.get(player);
+
+		if (changes != null) {
+			synchronized (changes) {
+				changes.chunks.remove(ChunkCoordinateMap.getKey(chunkX, chunkZ));
+			}
+		}
+	}
+
+	private PlayerChanges getChanges(Player player) {
+		PlayerChanges changes = pending.get(player);
+
+		if (changes == null) {
+			changes = new PlayerChanges();
+			PlayerChanges previous = pending.putIfAbsent(player, changes);
+
+			if (previous != null)
+				changes = previous;
+		}
+		return changes;
+	}
+
+	/**
+	 * Send every gathered block change. This must be called on the main thread.
+	 */
+	public void flush() {
+		for (Entry<Player, PlayerChanges> entry : pending.entrySet()) {
+			Player player = entry.getKey();
+			PlayerChanges changes = entry.getValue();
+			List<ChunkChanges> chunks;
+			World world;
+
+			synchronized (changes) {
+				if (changes.chunks.isEmpty())
+					continue;
+				chunks = new ArrayList<ChunkChanges>(changes.chunks.values());
+				world = changes.world;
+				changes.chunks.clear();
+			}
+
+			// The client has discarded the chunks of the previous world
+			if (!player.isOnline() || player.getWorld() != world)
+				continue;
+
+			for (ChunkChanges chunk : chunks) {
+				try {
+					send(player, world, chunk);
+				} catch (InvocationTargetException e) {
+					plugin.getLogger().log(Level.WARNING, "Cannot send block changes to " + player.getName(), e);
+				}
+			}
+		}
+	}
+
+	private void send(Player player, World world, ChunkChanges chunk) throws InvocationTargetException {
+		// The only change of this chunk may already have been sent
+		if (!chunk.states.isEmpty()) {
+			sendChanges(player, world, chunk);
+		}
+
+		for (PacketContainer packet : chunk.deferred) {
+			sentPackets.add(packet.getHandle());
+			ProtocolLibrary.getProtocolManager().sendServerPacket(player, packet);
+		}
+	}
+
+	private void sendChanges(Player player, World world, ChunkChanges chunk) throws InvocationTargetException {
+		int count = chunk.states.size();
+		PacketContainer packet;
+
+		if (count > resendThreshold) {
+			if (world.isChunkLoaded(chunk.chunkX, chunk.chunkZ)) {
+				ChunkUtility.resendSections(player, world.getChunkAt(chunk.chunkX, chunk.chunkZ), getSectionMask(chunk));
+				return;
+			}
+		}
+
+		if (count == 1) {
+			Entry<Short, Object> change = chunk.states.entrySet().iterator().next();
+			int location = change.getKey();
+
+			packet = new PacketContainer(BLOCK_CHANGE);
+			packet.getBlockPositionModifier().write(0, new BlockPosition(
+					(chunk.chunkX << 4) | (location >> 12 & 0xF), location & 0xFF, (chunk.chunkZ << 4) | (location >> 8 & 0xF)));
+			getStates(packet).write(0, change.getValue());
+		} else {
+			ChunkCoordIntPair coord = new ChunkCoordIntPair(chunk.chunkX, chunk.chunkZ);
+			MultiBlockChangeInfo[] records = new MultiBlockChangeInfo[count];
+			int index = 0;
+
+			for (Entry<Short, Object> change : chunk.states.entrySet()) {
+				records[index++] = new MultiBlockChangeInfo(change.getKey(), WrappedBlockData.fromHandle(change.getValue()), coord);
+			}
+			packet = new PacketContainer(MULTI_BLOCK_CHANGE);
+			packet.getChunkCoordIntPairs().write(0, coord);
+			packet.getMultiBlockChangeInfoArrays().write(0, records);
+		}
+
+		sentPackets.add(packet.getHandle());
+		ProtocolLibrary.getProtocolManager().sendServerPacket(player, packet);
+	}
+
+	private int getSectionMask(ChunkChanges chunk) {
+		int mask = 0;
+
+		for (Short location : chunk.states.keySet()) {
+			mask |= 1 << ((location & 0xFF) >> 4);
+		}
+		return mask;
+	}
+
+	private StructureModifier<Object> getStates(PacketContainer packet) {
+		return packet.getModifier().withType(MinecraftReflection.getIBlockDataClass());
+	}
+
+	/**
+	 * Stop gathering block changes, and send every gathered change.
+	 */
+	public void close() {
+		if (listener != null) {
+			ProtocolLibrary.getProtocolManager().removePacketListener(listener);
+			flushTask.cancel();
+			flush();
+			listener = null;
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package com.comphenix.blockpatcher;
 
+import java.util.Arrays;
+import java.util.Map.Entry;
 import java.util.logging.Logger;
 
 import org.bukkit.Material;
@@ -10,6 +12,9 @@ class BlockHeight {
 	private final ImmutableMap<Material, Double> lookup;
 	private static final int NONSTANDARD_BLOCKS = 21;
 
+	// Height by block ID
+	private final double[] heights = new double[256];
+
 	public BlockHeight(Logger logger) {
 		ImmutableMap.Builder<Material, Double> builder = ImmutableMap.builder();
 
@@ -23,6 +28,16 @@ class BlockHeight {
 			}
 		}
 		this.lookup = builder.build();
+
+		Arrays.fill(heights, 1.0);
+
+		for (Entry<Material, Double> entry : lookup.entrySet()) {
+			@SuppressWarnings("deprecation")
+			int blockID = entry.getKey().getId();
+
+			if (blockID < heights.length)
+				heights[blockID] = entry.getValue();
+		}
 	}
 
 	// On Error Resume Next
@@ -104,4 +119,14 @@ class BlockHeight {
 		Double value = lookup.get(material);
 		return value != null ? value : 1.0;
 	}
+
+	/**
+	 * Retrieve the height of a specific block ID.
+	 * 
+	 * @param blockID - the block ID, from 0 to 255.
+	 * @return The height of this block.
+	 */
+	public double getHeight(int blockID) {
+		return heights[blockID];
+	}
 }
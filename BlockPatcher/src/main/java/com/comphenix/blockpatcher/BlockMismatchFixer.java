@@ -1,37 +1,103 @@
 package com.comphenix.blockpatcher;
 
-import static com.comphenix.protocol.PacketType.Play.Client.FLYING;
 import static com.comphenix.protocol.PacketType.Play.Client.POSITION;
 import static com.comphenix.protocol.PacketType.Play.Client.POSITION_LOOK;
 
+import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentMap;
 
-import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Player;
-import org.bukkit.event.EventHandler;
-import org.bukkit.event.Listener;
-import org.bukkit.event.player.PlayerLoginEvent;
-import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
 
-import com.comphenix.blockpatcher.lookup.SegmentLookup;
+import com.comphenix.blockpatcher.lookup.CompiledLookup;
 import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.events.PacketAdapter;
 import com.comphenix.protocol.events.PacketEvent;
 import com.comphenix.protocol.reflect.StructureModifier;
+import com.comphenix.protocol.utility.MinecraftVersion;
 import com.google.common.collect.MapMaker;
 
+/**
+ * Corrects the height reported by clients standing on a block that has been translated to a block of a different height.
+ * <p>
+ * The position packets are corrected on the network threads, but the world is only read on the main thread. Every tick,
+ * the block underneath each player is copied to a snapshot, which the network threads compare with the current lookup
+ * table of the chunk.
+ */
 class BlockMismatchFixer {
+	// Pre-1.8 position packets also contain the stance
+	private static final boolean HAS_STANCE = !MinecraftVersion.getCurrentVersion().isAtLeast(MinecraftVersion.BOUNTIFUL_UPDATE);
+
+	/**
+	 * A block position reported by a client.
+	 */
+	private static class Position {
+		private final int blockX;
+		private final int blockY;
+		private final int blockZ;
+
+		public Position(int blockX, int blockY, int blockZ) {
+			this.blockX = blockX;
+			this.blockY = blockY;
+			this.blockZ = blockZ;
+		}
+
+		public boolean isAt(int x, int y, int z) {
+			return blockX == x && blockY == y && blockZ == z;
+		}
+	}
+
+	/**
+	 * The server block a player is standing on, as read on the main thread.
+	 */
+	private static class Snapshot {
+		private final World world;
+		private final Position position;
+		private final int typeId;
+		private final int data;
+		private final int blockY;
+
+		public Snapshot(World world, Position position, int typeId, int data, int blockY) {
+			this.world = world;
+			this.position = position;
+			this.typeId = typeId;
+			this.data = data;
+			this.blockY = blockY;
+		}
+
+		public boolean isSameBlock(Snapshot other) {
+			return other != null && world == other.world && position == other.position &&
+					typeId == other.typeId && data == other.data && blockY == other.blockY;
+		}
+	}
+
+	/**
+	 * The standing state of a player.
+	 */
+	private static class Standing {
+		// Written by the network thread of the player, and read on the main thread
+		private volatile Position position;
+
+		// Written on the main thread
+		private volatile Snapshot snapshot;
+
+		// The last correction, and what it was computed from. Only accessed by the network thread of the player.
+		private Snapshot deltaSnapshot;
+		private CompiledLookup deltaLookup;
+		private double delta;
+	}
+
 	private Plugin plugin;
 
-	// Last known block type
-	private ConcurrentMap<Player, Double> deltaY = new MapMaker().weakKeys().makeMap();
+	// Last known position by player
+	private ConcurrentMap<Player, Standing> standing = new MapMaker().weakKeys().makeMap();
 
 	private PacketAdapter packetListener;
-	private Listener bukkitListener;
+	private BukkitTask snapshotTask;
 
 	// For retrieving the cached conversion
 	private ConversionCache cache;
@@ -39,71 +105,136 @@ class BlockMismatchFixer {
 	// Looking up block height
 	private final BlockHeight heightLookup;
 
+	// Whether or not a block ID is solid
+	private final boolean[] solid = new boolean[256];
+
+	@SuppressWarnings("deprecation")
 	public BlockMismatchFixer(Plugin plugin, ConversionCache cache) {
 		this.plugin = plugin;
 		this.cache = cache;
 		this.heightLookup = new BlockHeight(plugin.getLogger());
-		registerBukkitListener();
+
+		for (int id = 0; id < solid.length; id++) {
+			Material material = Material.getMaterial(id);
+			solid[id] = material != null && material.isSolid();
+		}
 		registerPacketListener();
+
+		snapshotTask = plugin.getServer().getScheduler().runTaskTimer(plugin, new Runnable() {
+			@Override
+			public void run() {
+				updateSnapshots();
+			}
+		}, 1, 1);
 	}
 
 	private void registerPacketListener() {
 		// This is executed asynchronously
-		ProtocolLibrary.getProtocolManager().addPacketListener(packetListener = new PacketAdapter(plugin, FLYING, POSITION, POSITION_LOOK) {
+		ProtocolLibrary.getProtocolManager().addPacketListener(packetListener = new PacketAdapter(plugin, POSITION, POSITION_LOOK) {
 			@Override
 			public void onPacketReceiving(PacketEvent event) {
-				Double delta = deltaY.get(event.getPlayer());
+				StructureModifier<Double> doubles = event.getPacket().getDoubles();
+				double delta = getDelta(event.getPlayer(), doubles.read(0), doubles.read(1), doubles.read(2));
 
 				// Soul sand fix
-				if (delta != null && delta != 0) {
-					incrementDouble(event, 1, delta);
-					incrementDouble(event, 3, delta);
-				}
-			}
+				if (delta != 0) {
+					doubles.write(1, doubles.read(1) + delta);
 
-			private void incrementDouble(PacketEvent event, int index, Double delta) {
-				StructureModifier<Double> doubles = event.getPacket().getDoubles();
-				doubles.write(index, doubles.read(index) + delta);
+					if (HAS_STANCE)
+						doubles.write(3, doubles.read(3) + delta);
+				}
 			}
 		});
 	}
 
-	private void registerBukkitListener() {
-		plugin.getServer().getPluginManager().registerEvents(bukkitListener = new Listener() {
-			@EventHandler
-			public void onPlayerMove(PlayerMoveEvent e) {
-				updateLookupDelta(e.getTo(), e.getPlayer());
-			}
+	private double getDelta(Player player, double x, double y, double z) {
+		Standing state = standing.get(player);
+		int blockX = floor(x);
+		int blockY = floor(y);
+		int blockZ = floor(z);
 
-			@EventHandler
-			public void onPlayerLogin(PlayerLoginEvent e) {
-				updateLookupDelta(e.getPlayer().getLocation(), e.getPlayer());
-			}
-		}, plugin);
+		if (state == null) {
+			standing.put(player, state = new Standing());
+		}
+		Position position = state.position;
+
+		// Most packets are sent within the same block
+		if (position == null || !position.isAt(blockX, blockY, blockZ)) {
+			state.position = position = new Position(blockX, blockY, blockZ);
+		}
+		Snapshot snapshot = state.snapshot;
+
+		// Wait for the main thread to read the new block
+		if (snapshot == null || snapshot.position != position)
+			return 0;
+
+		CompiledLookup lookup = cache.loadCompiledCacheOrDefault(player, snapshot.world, blockX >> 4, blockZ >> 4);
+
+		// Recompute when the block or the lookup table of the chunk changes
+		if (snapshot != state.deltaSnapshot || lookup != state.deltaLookup) {
+			state.deltaSnapshot = snapshot;
+			state.deltaLookup = lookup;
+			state.delta = computeDelta(snapshot, lookup);
+		}
+		return state.delta;
+	}
+
+	private double computeDelta(Snapshot snapshot, CompiledLookup lookup) {
+		int serverID = snapshot.typeId;
+
+		if (serverID < 0 || serverID >= solid.length)
+			return 0;
+
+		int clientID = lookup.translate(serverID, snapshot.data, snapshot.blockY >> 4) >> 4;
+
+		if (serverID != clientID) {
+			return heightLookup.getHeight(serverID) - heightLookup.getHeight(clientID);
+		}
+		return 0;
 	}
 
-	private void updateLookupDelta(Location loc, Player player) {
-		final Block underneath = getStandingBlock(loc);
-		final SegmentLookup lookup = cache.loadCacheOrDefault(player, underneath.getX() >> 4, underneath.getY() >> 4);
+	/**
+	 * Read the block underneath every player. This must be called on the main thread.
+	 */
+	private void updateSnapshots() {
+		for (Entry<Player, Standing> entry : standing.entrySet()) {
+			Player player = entry.getKey();
+			Standing state = entry.getValue();
+			Position position = state.position;
+
+			if (position == null || !player.isOnline())
+				continue;
 
-		final Material serverMaterial = underneath.getType();
-		@SuppressWarnings("deprecation")
-		final Material clientMaterial = Material.getMaterial(lookup.getBlockLookup(serverMaterial.getId()));
+			Snapshot previous = state.snapshot;
+			Snapshot current = readSnapshot(player.getWorld(), position);
 
-		if (serverMaterial != clientMaterial) {
-			deltaY.put(player, heightLookup.getHeight(serverMaterial) - heightLookup.getHeight(clientMaterial));
-		} else {
-			deltaY.remove(player);
+			// Keep the previous snapshot, so the correction is not recomputed
+			if (!current.isSameBlock(previous)) {
+				state.snapshot = current;
+			}
 		}
 	}
 
-	private Block getStandingBlock(Location loc) {
-		Block foot = loc.getBlock();
+	@SuppressWarnings("deprecation")
+	private Snapshot readSnapshot(World world, Position position) {
+		int blockY = position.blockY;
+
+		// Never load chunks for this
+		if (blockY < 0 || blockY >= world.getMaxHeight() || !world.isChunkLoaded(position.blockX >> 4, position.blockZ >> 4))
+			return new Snapshot(world, position, -1, 0, blockY);
+
+		Block underneath = world.getBlockAt(position.blockX, blockY, position.blockZ);
 
 		// Usually because the block is shorter in height
-		if (foot.getType().isSolid())
-			return foot;
-		return foot.getRelative(BlockFace.DOWN);
+		if (!solid[underneath.getTypeId() & 0xFF] && blockY > 0) {
+			underneath = world.getBlockAt(position.blockX, blockY - 1, position.blockZ);
+		}
+		return new Snapshot(world, position, underneath.getTypeId(), underneath.getData() & 0xF, underneath.getY());
+	}
+
+	private static int floor(double coordinate) {
+		int value = (int) coordinate;
+		return coordinate < value ? value - 1 : value;
 	}
 
 	/**
@@ -112,7 +243,7 @@ class BlockMismatchFixer {
 	public void close() {
 		if (plugin != null) {
 			ProtocolLibrary.getProtocolManager().removePacketListener(packetListener);
-			PlayerMoveEvent.getHandlerList().unregister(bukkitListener);
+			snapshotTask.cancel();
 			plugin = null;
 		}
 	}
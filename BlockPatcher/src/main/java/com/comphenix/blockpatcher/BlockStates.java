@@ -0,0 +1,93 @@
+package com.comphenix.blockpatcher;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.comphenix.blockpatcher.lookup.CompiledLookup;
+import com.comphenix.protocol.reflect.accessors.Accessors;
+import com.comphenix.protocol.reflect.accessors.MethodAccessor;
+import com.comphenix.protocol.utility.MinecraftReflection;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Converts between Minecraft block states (IBlockData) and protocol block IDs, without going through the ProtocolLib
+ * wrappers.
+ * <p>
+ * Minecraft only creates a single instance of every block state, so the conversions are cached in both directions.
+ * Both caches are filled lazily and shared by every player. This is only supported in Minecraft 1.8 and later.
+ */
+class BlockStates {
+	/**
+	 * Returned for block states whose block ID cannot be stored in a protocol block ID.
+	 */
+	public static final int UNKNOWN_ID = -1;
+
+	// Block.getCombinedId(IBlockData) and Block.getByCombinedId(int). The former is written last.
+	private static volatile MethodAccessor getCombinedId;
+	private static MethodAccessor getByCombinedId;
+
+	// Block state by protocol ID
+	private static final AtomicReferenceArray<Object> states = new AtomicReferenceArray<Object>(CompiledLookup.TABLE_SIZE);
+
+	// Protocol ID by block state - the keys are compared by identity
+	private static final ConcurrentMap<Object, Integer> protocolIds = new MapMaker().weakKeys().makeMap();
+
+	private BlockStates() {
+		// Not constructable
+	}
+
+	private static void initialize() {
+		if (getCombinedId == null) {
+			try {
+				Class<?> blockClass = MinecraftReflection.getBlockClass();
+				Method combined = blockClass.getMethod("getCombinedId", MinecraftReflection.getIBlockDataClass());
+				Method byCombined = blockClass.getMethod("getByCombinedId", int.class);
+
+				getByCombinedId = Accessors.getMethodAccessor(byCombined);
+				getCombinedId = Accessors.getMethodAccessor(combined);
+			} catch (NoSuchMethodException e) {
+				throw new IllegalStateException("Cannot find block state methods.", e);
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the protocol block ID of the given block state.
+	 *
+	 * @param state - the block state.
+	 * @return The block ID shifted left by four, OR'ed with the data value, or {@link #UNKNOWN_ID}.
+	 */
+	public static int getProtocolId(Object state) {
+		Integer cached = protocolIds.get(state);
+
+		if (cached == null) {
+			initialize();
+
+			// The combined ID stores the data value in the upper four bits
+			int combined = (Integer) getCombinedId.invoke(null, state);
+			int blockID = combined & 0xFFF;
+
+			cached = blockID < CompiledLookup.TABLE_SIZE >> 4 ? (blockID << 4) | ((combined >> 12) & 0xF) : UNKNOWN_ID;
+			protocolIds.put(state, cached);
+		}
+		return cached;
+	}
+
+	/**
+	 * Retrieve the block state of the given protocol block ID.
+	 *
+	 * @param protocolID - the block ID shifted left by four, OR'ed with the data value.
+	 * @return The block state.
+	 */
+	public static Object getState(int protocolID) {
+		Object state = states.get(protocolID);
+
+		if (state == null) {
+			initialize();
+			state = getByCombinedId.invoke(null, (protocolID >> 4) | ((protocolID & 0xF) << 12));
+			states.set(protocolID, state);
+		}
+		return state;
+	}
+}
@@ -0,0 +1,85 @@
+package com.comphenix.blockpatcher;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.comphenix.blockpatcher.lookup.ChunkCoordinateMap;
+
+/**
+ * Periodically enforces the memory limit of the conversion cache.
+ * <p>
+ * The memory usage is computed asynchronously, while evicted chunks are resent on the main thread.
+ */
+class CacheEvictionTask implements Runnable {
+	private final Plugin plugin;
+	private final ConversionCache cache;
+	private BukkitTask task;
+
+	public CacheEvictionTask(Plugin plugin, ConversionCache cache, int interval) {
+		this.plugin = plugin;
+		this.cache = cache;
+		this.task = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this, interval, interval);
+	}
+
+	@Override
+	public void run() {
+		final Map<Player, long[]> evicted = cache.evictLeastRecentlySent();
+
+		if (evicted.isEmpty())
+			return;
+
+		int count = 0;
+
+		for (long[] chunks : evicted.values()) {
+			count += chunks.length;
+		}
+		plugin.getLogger().fine("Conversion cache exceeded " + cache.getMemoryLimit() + " bytes. Evicting " + count + " chunks.");
+
+		// The client must receive the chunk again before its current lookup is replaced
+		plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+			@Override
+			public void run() {
+				for (Entry<Player, long[]> entry : evicted.entrySet()) {
+					resendChunks(entry.getKey(), entry.getValue());
+				}
+			}
+		});
+	}
+
+	private void resendChunks(Player player, long[] chunks) {
+		if (!player.isOnline())
+			return;
+
+		for (long key : chunks) {
+			int chunkX = ChunkCoordinateMap.getChunkX(key);
+			int chunkZ = ChunkCoordinateMap.getChunkZ(key);
+
+			// The client may have unloaded the chunk in the meantime
+			if (!cache.isEvicted(player, chunkX, chunkZ))
+				continue;
+
+			try {
+				ChunkUtility.resendChunk(player, chunkX, chunkZ);
+			} catch (RuntimeException e) {
+				// Keep the cached lookup table instead
+				cache.consumeEviction(player, chunkX, chunkZ);
+				plugin.getLogger().log(Level.WARNING, "Cannot resend evicted chunk to " + player.getName(), e);
+			}
+		}
+	}
+
+	/**
+	 * Stop enforcing the memory limit.
+	 */
+	public void close() {
+		if (task != null) {
+			task.cancel();
+			task = null;
+		}
+	}
+}
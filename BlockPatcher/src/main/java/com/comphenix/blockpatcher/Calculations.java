@@ -19,29 +19,35 @@
  */
 package com.comphenix.blockpatcher;
 
+import java.lang.reflect.Field;
 import java.util.Arrays;
+import java.util.List;
 
-import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.World.Environment;
-import org.bukkit.entity.Entity;
-import org.bukkit.entity.Item;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 
+import com.comphenix.blockpatcher.events.ChunkPostProcessingEvent;
+import com.comphenix.blockpatcher.lookup.CompiledLookup;
 import com.comphenix.blockpatcher.lookup.ConversionLookup;
+import com.comphenix.blockpatcher.lookup.LazyCopySegmentLookup;
 import com.comphenix.blockpatcher.lookup.SegmentLookup;
+import com.comphenix.blockpatcher.metrics.TranslationMetrics;
+import com.comphenix.blockpatcher.metrics.TranslationMetrics.Stage;
+import com.comphenix.blockpatcher.rules.ConversionRules;
+import com.comphenix.protocol.PacketType;
 import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.reflect.FieldAccessException;
+import com.comphenix.protocol.reflect.FuzzyReflection;
 import com.comphenix.protocol.reflect.StructureModifier;
 import com.comphenix.protocol.utility.MinecraftReflection;
 import com.comphenix.protocol.utility.MinecraftVersion;
 import com.comphenix.protocol.wrappers.BlockPosition;
 import com.comphenix.protocol.wrappers.ChunkCoordIntPair;
-import com.comphenix.protocol.wrappers.MultiBlockChangeInfo;
-import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.comphenix.protocol.wrappers.WrappedDataWatcher;
+import com.comphenix.protocol.wrappers.WrappedWatchableObject;
 import com.mysql.fabric.xmlrpc.base.Array;
 
 /**
@@ -61,6 +67,7 @@ class Calculations {
 		public boolean hasContinous;
 		public byte[] data;
 		public Player player;
+		public World world;
 		public int startIndex;
 		public int size;
 		public int blockSize;
@@ -73,16 +80,27 @@ class Calculations {
 	private static final int CHUNK_SEGMENTS = 16;
 	private static final int NIBBLES_REQUIRED = 4;
 	private static final int BIOME_ARRAY_LENGTH = 256;
+	private static final int FALLING_OBJECT = 70;
+	private static final int DROPPED_ITEM = 2;
+	private static final int MAX_BLOCK_ID = CompiledLookup.TABLE_SIZE >> 4;
 	private static boolean atLeast18 = MinecraftVersion.getCurrentVersion().isAtLeast(MinecraftVersion.BOUNTIFUL_UPDATE);
 	private static boolean atLeast19 = MinecraftVersion.getCurrentVersion().isAtLeast(MinecraftVersion.COMBAT_UPDATE);
 
+	// Fields of the Minecraft multi block change record. The state is written last.
+	private static Field recordLocation;
+	private static volatile Field recordState;
+
 	// Used to get a chunk's specific lookup table
 	private EventScheduler scheduler;
 	private ConversionCache cache;
+	private ConversionRules rules;
+	private TranslationMetrics metrics;
 
-	public Calculations(ConversionCache cache, EventScheduler scheduler) {
+	public Calculations(ConversionCache cache, EventScheduler scheduler, ConversionRules rules, TranslationMetrics metrics) {
 		this.cache = cache;
 		this.scheduler = scheduler;
+		this.rules = rules;
+		this.metrics = metrics;
 	}
 
 	public boolean isImportantChunkBulk(PacketContainer packet, Player player) throws FieldAccessException {
@@ -98,17 +116,6 @@ class Calculations {
 		return false;
 	}
 
-	public boolean isImportantChunk(PacketContainer packet, Player player) throws FieldAccessException {
-		StructureModifier<Integer> ints = packet.getSpecificModifier(int.class);
-		int x = ints.read(0);
-		int y = ints.read(1);
-
-		if (Math.abs(x - (((int) player.getLocation().getX()) >> 4)) == 0 && Math.abs(y - (((int) player.getLocation().getZ())) >> 4) == 0) {
-			return true;
-		}
-		return false;
-	}
-
 	public void translateMapChunkBulk(PacketContainer packet, Player player) throws FieldAccessException {
 		StructureModifier<int[]> intArrays = packet.getSpecificModifier(int[].class);
 		StructureModifier<byte[]> byteArrays = packet.getSpecificModifier(byte[].class);
@@ -129,6 +136,7 @@ class Calculations {
 			ChunkInfo info = new ChunkInfo();
 			infos[chunkNum] = info;
 			info.player = player;
+			info.world = player.getWorld();
 			info.chunkX = x[chunkNum];
 			info.chunkZ = z[chunkNum];
 			info.hasContinous = true; // Always true
@@ -162,12 +170,13 @@ class Calculations {
 		return value != null ? value : defaultIfNull;
 	}
 
-	public void translateMapChunk(PacketContainer packet, Player player) throws FieldAccessException {
+	public void translateMapChunk(PacketContainer packet, Player player, World world) throws FieldAccessException {
 		StructureModifier<Integer> ints = packet.getSpecificModifier(int.class);
 		StructureModifier<byte[]> byteArray = packet.getSpecificModifier(byte[].class);
 
 		ChunkInfo info = new ChunkInfo();
 		info.byteArray = byteArray;
+		info.world = world;
 		
 		if (atLeast19) { // 1.9 apparently reverted some 1.8 changes
 			info.player = player;
@@ -206,38 +215,52 @@ class Calculations {
 			info.startIndex = 0;
 		}
 
+		// An empty chunk with every section means the chunk is unloaded before 1.9. From 1.9 onwards it is an empty
+		// chunk, and unloading is handled by UNLOAD_CHUNK instead.
+		if (!atLeast19 && info.hasContinous && info.chunkMask == 0) {
+			cache.removeCache(player, world, info.chunkX, info.chunkZ);
+			return;
+		}
+
 		if (info.data != null) {
 			translateChunkInfoAndObfuscate(info, info.data);
 		}
 	}
 
-	public void translateBlockChange(PacketContainer packet, Player player) throws FieldAccessException {
+	public void translateUnloadChunk(PacketContainer packet, Player player, World world) throws FieldAccessException {
 		StructureModifier<Integer> ints = packet.getSpecificModifier(int.class);
-		StructureModifier<BlockPosition> positions = packet.getBlockPositionModifier();
-		StructureModifier<WrappedBlockData> blockDataMod = packet.getBlockData();
 
-		int x, y, z;
+		// The client will forget this chunk, so we can too
+		cache.removeCache(player, world, ints.read(0), ints.read(1));
+	}
 
-		BlockPosition position = positions.readSafely(0);
-		if (position != null) {
-			x = position.getX();
-			y = position.getY();
-			z = position.getZ();
-		} else {
-			x = ints.read(0);
-			y = ints.read(1);
-			z = ints.read(2);
+	private BlockPosition getBlockChangePosition(PacketContainer packet) {
+		BlockPosition position = packet.getBlockPositionModifier().readSafely(0);
+
+		if (position == null) {
+			StructureModifier<Integer> ints = packet.getSpecificModifier(int.class);
+			position = new BlockPosition(ints.read(0), ints.read(1), ints.read(2));
+		}
+		return position;
+	}
+
+	public void translateBlockChange(PacketContainer packet, Player player, World world) throws FieldAccessException {
+		StructureModifier<Integer> ints = packet.getSpecificModifier(int.class);
+
+		BlockPosition position = getBlockChangePosition(packet);
+		int x = position.getX();
+		int y = position.getY();
+		int z = position.getZ();
+
+		if (atLeast18) {
+			translateBlockState(packet, player, world, x, y, z);
+			return;
 		}
 
 		Material type = null;
 		int data = 0;
 
-		WrappedBlockData blockData = blockDataMod.readSafely(0);
-
-		if (blockData != null) {
-			type = blockData.getType();
-			data = blockData.getData();
-		} else if (MinecraftReflection.isUsingNetty()) {
+		if (MinecraftReflection.isUsingNetty()) {
 			type = packet.getBlocks().read(0);
 			data = ints.read(3);
 		} else {
@@ -246,16 +269,14 @@ class Calculations {
 		}
 
 		// Get the correct table
-		ConversionLookup lookup = cache.loadCacheOrDefault(player, x >> 4, y >> 4, z >> 4);
+		ConversionLookup lookup = cache.loadCacheOrDefault(player, world, x >> 4, y >> 4, z >> 4);
 
 		// Convert using the tables
 		int newBlockID = lookup.getBlockLookup(type.getId()); // TODO Use Materials instead?
 		int newData = lookup.getDataLookup(type.getId(), data);
 
 		// Write the changes
-		if (blockData != null) {
-			blockDataMod.write(0, WrappedBlockData.createData(Material.getMaterial(newBlockID), newData));
-		} else if (MinecraftReflection.isUsingNetty()) {
+		if (MinecraftReflection.isUsingNetty()) {
 			packet.getBlocks().write(0, Material.getMaterial(newBlockID));
 			ints.write(3, newData);
 		} else {
@@ -264,28 +285,47 @@ class Calculations {
 		}
 	}
 
-	public void translateMultiBlockChange(PacketContainer packet, Player player) throws FieldAccessException {
+	/**
+	 * Translate the block state of a block change packet in Minecraft 1.8 and later.
+	 * <p>
+	 * The block state is read and written directly. Both conversions between block states and protocol IDs are cached,
+	 * so no block data is created or looked up through reflection.
+	 * 
+	 * @param packet - the packet.
+	 * @param player - the receiving player.
+	 * @param world - the world the packet was sent in.
+	 * @param x - the block x position.
+	 * @param y - the block y position.
+	 * @param z - the block z position.
+	 * @throws FieldAccessException If the block state could not be accessed.
+	 */
+	private void translateBlockState(PacketContainer packet, Player player, World world, int x, int y, int z) throws FieldAccessException {
+		if (y < 0 || y >= CHUNK_SEGMENTS << 4)
+			return;
+
+		StructureModifier<Object> states = packet.getModifier().withType(MinecraftReflection.getIBlockDataClass());
+		int protocolID = BlockStates.getProtocolId(states.read(0));
+
+		if (protocolID != BlockStates.UNKNOWN_ID) {
+			int translated = cache.loadCompiledCacheOrDefault(player, world, x >> 4, z >> 4).translate(protocolID, y >> 4);
+
+			if (translated != protocolID)
+				states.write(0, BlockStates.getState(translated));
+		}
+	}
+
+	public void translateMultiBlockChange(PacketContainer packet, Player player, World world) throws FieldAccessException {
 		ChunkCoordIntPair coord = getChunkCoordinate(packet);
 
 		// Get the correct table
-		SegmentLookup lookup = cache.loadCacheOrDefault(player, coord.getChunkX(), coord.getChunkZ());
-
-		StructureModifier<MultiBlockChangeInfo[]> infoArrays = packet.getMultiBlockChangeInfoArrays();
-		MultiBlockChangeInfo[] array = infoArrays.readSafely(0);
-		if (array != null) {
-			for (MultiBlockChangeInfo info : array) {
-				Location location = info.getLocation(null);
-
-				WrappedBlockData blockData = info.getData();
-				Material type = blockData.getType();
-				int data = blockData.getData();
-
-				data = lookup.getDataLookup(type.getId(), data, location.getBlockY());
-				type = Material.getMaterial(lookup.getBlockLookup(type.getId(), location.getBlockY()));
-				blockData.setTypeAndData(type, data);
-				info.setData(blockData);
-			}
+		CompiledLookup lookup = cache.loadCompiledCacheOrDefault(player, world, coord.getChunkX(), coord.getChunkZ());
 
+		// Nothing will be changed
+		if (lookup.isIdentity())
+			return;
+
+		if (atLeast18) {
+			translateMultiBlockRecords(packet, lookup);
 			return;
 		}
 
@@ -304,17 +344,98 @@ class Calculations {
 			int info = data[i + 3] & 0xF;
 			int chunkY = (data[i + 1] & 0xFF) >> 4;
 
-			if (block >= 0) {
+			if (block < MAX_BLOCK_ID) {
 				// Translate and write back the result
-				info = lookup.getDataLookup(block, info, chunkY);
-				block = lookup.getBlockLookup(block, chunkY);
+				int translated = lookup.translate(block, info, chunkY);
+
+				data[i + 2] = (byte) ((translated >> 8) & 0xFF);
+				data[i + 3] = (byte) (translated & 0xFF);
+			}
+		}
+	}
+
+	/**
+	 * Translate the records of a multi block change packet in Minecraft 1.8 and later.
+	 * <p>
+	 * The records are read and modified directly, without creating any wrappers.
+	 * 
+	 * @param packet - the packet.
+	 * @param lookup - the compiled lookup table of the chunk.
+	 * @throws FieldAccessException If the records could not be accessed.
+	 */
+	private void translateMultiBlockRecords(PacketContainer packet, CompiledLookup lookup) throws FieldAccessException {
+		Object[] records = getMultiBlockRecords(packet);
+
+		try {
+			for (Object record : records) {
+				// The location is packed as x << 12 | z << 8 | y
+				int chunkY = (recordLocation.getShort(record) & 0xFF) >> 4;
+
+				if (lookup.isIdentity(chunkY))
+					continue;
+
+				Object state = recordState.get(record);
+				int protocolID = BlockStates.getProtocolId(state);
+
+				if (protocolID != BlockStates.UNKNOWN_ID) {
+					int translated = lookup.translate(protocolID, chunkY);
+
+					if (translated != protocolID)
+						recordState.set(record, BlockStates.getState(translated));
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new FieldAccessException("Cannot access multi block change record.", e);
+		}
+	}
 
-				data[i + 2] = (byte) ((block >> 4) & 0xFF);
-				data[i + 3] = (byte) (((block & 0xF) << 4) | info);
+	/**
+	 * Retrieve the records of a multi block change packet in Minecraft 1.8 and later.
+	 * 
+	 * @param packet - the packet.
+	 * @return The records.
+	 * @throws FieldAccessException If the records could not be accessed.
+	 */
+	static Object[] getMultiBlockRecords(PacketContainer packet) throws FieldAccessException {
+		Object[] records = (Object[]) packet.getSpecificModifier(MinecraftReflection.getMultiBlockChangeInfoArrayClass()).read(0);
+
+		if (recordState == null) {
+			initializeRecordFields(MinecraftReflection.getMultiBlockChangeInfoClass());
+		}
+		return records;
+	}
+
+	/**
+	 * Read the packed location and protocol block ID of every record retrieved by {@link #getMultiBlockRecords(PacketContainer)}.
+	 * 
+	 * @param records - the records.
+	 * @param locations - the output packed locations, as x &lt;&lt; 12 | z &lt;&lt; 8 | y.
+	 * @param states - the output protocol block IDs, or {@link BlockStates#UNKNOWN_ID}.
+	 * @throws FieldAccessException If the records could not be accessed.
+	 */
+	static void readMultiBlockRecords(Object[] records, short[] locations, int[] states) throws FieldAccessException {
+		try {
+			for (int i = 0; i < records.length; i++) {
+				locations[i] = recordLocation.getShort(records[i]);
+				states[i] = BlockStates.getProtocolId(recordState.get(records[i]));
 			}
+		} catch (IllegalAccessException e) {
+			throw new FieldAccessException("Cannot access multi block change record.", e);
 		}
 	}
 
+	private static void initializeRecordFields(Class<?> recordClass) {
+		FuzzyReflection fuzzy = FuzzyReflection.fromClass(recordClass, true);
+		Field location = fuzzy.getFieldByType("location", short.class);
+		Field state = fuzzy.getFieldByType("blockData", MinecraftReflection.getIBlockDataClass());
+
+		// Both fields are final
+		location.setAccessible(true);
+		state.setAccessible(true);
+		recordLocation = location;
+		recordState = state;
+	}
+
 	private ChunkCoordIntPair getChunkCoordinate(PacketContainer packet) {
 		StructureModifier<Integer> ints = packet.getSpecificModifier(int.class);
 
@@ -326,28 +447,34 @@ class Calculations {
 		}
 	}
 
-	public void translateFallingObject(PacketContainer packet, Player player) throws FieldAccessException {
+	private int getObjectType(PacketContainer packet) {
+		return packet.getSpecificModifier(int.class).read(atLeast19 ? 6 : 7);
+	}
 
-		StructureModifier<Integer> ints = packet.getSpecificModifier(int.class);
-		
-		int type = 0;
-		int data = 0;
+	private BlockPosition getObjectPosition(PacketContainer packet) {
 		if (atLeast19) {
-			type = ints.read(6);
-			data = ints.read(7);
+			StructureModifier<Double> doubles = packet.getDoubles();
+			return new BlockPosition((int) Math.floor(doubles.read(0)), (int) Math.floor(doubles.read(1)), (int) Math.floor(doubles.read(2)));
 		} else {
-			type = ints.read(7);
-			data = ints.read(8);
+			// Fixed-point numbers with five fractional bits
+			StructureModifier<Integer> ints = packet.getSpecificModifier(int.class);
+			return new BlockPosition(ints.read(1) >> 5, ints.read(2) >> 5, ints.read(3) >> 5);
 		}
+	}
+
+	public void translateFallingObject(PacketContainer packet, Player player, World world) throws FieldAccessException {
+
+		StructureModifier<Integer> ints = packet.getSpecificModifier(int.class);
+		
+		int type = getObjectType(packet);
+		int data = ints.read(atLeast19 ? 7 : 8);
 
 		// Falling object (only block ID)
-		if (type == 70) {
-			int x = ints.read(1);
-			int y = ints.read(2);
-			int z = ints.read(3);
+		if (type == FALLING_OBJECT) {
+			BlockPosition position = getObjectPosition(packet);
 
 			// Get the correct table
-			ConversionLookup lookup = cache.loadCacheOrDefault(player, x >> 4, y >> 4, z >> 4);
+			ConversionLookup lookup = cache.loadCacheOrDefault(player, world, position.getX() >> 4, position.getY() >> 4, position.getZ() >> 4);
 
 			data = lookup.getBlockLookup(data);
 			if (atLeast19)
@@ -369,9 +496,7 @@ class Calculations {
 			int data = ints.read(6);
 
 			ItemStack stack = new ItemStack(itemsID, count, (short) data);
-			scheduler.computeItemConversion(new ItemStack[] {
-				stack
-			}, player, false);
+			scheduler.computeItemConversion(stack, player, false);
 
 			// Make sure it has changed
 			if (stack.getTypeId() != itemsID || stack.getAmount() != count || stack.getDurability() != data) {
@@ -386,32 +511,67 @@ class Calculations {
 
 			// Very simple
 			if (stacks.size() > 0)
-				scheduler.computeItemConversion(new ItemStack[] {
-					stacks.read(0)
-				}, player, false);
+				scheduler.computeItemConversion(stacks.read(0), player, false);
 			else
 				throw new IllegalStateException("Unrecognized packet structure.");
 		}
 	}
 
+	/**
+	 * Determine if the given spawn object packet spawns a dropped item.
+	 * 
+	 * @param packet - the spawn object packet.
+	 * @return TRUE if it does, FALSE otherwise.
+	 */
+	public boolean isDroppedItem(PacketContainer packet) {
+		return getObjectType(packet) == DROPPED_ITEM;
+	}
+
+	/**
+	 * Translate the item in the metadata of a dropped item. The packet must belong to a dropped item.
+	 * 
+	 * @param packet - the entity metadata packet.
+	 * @param player - the receiving player.
+	 * @param scheduler - the item converter.
+	 */
 	public void translateDroppedItemMetadata(PacketContainer packet, Player player, EventScheduler scheduler) {
-		Entity entity = packet.getEntityModifier(player.getWorld()).read(0);
+		List<WrappedWatchableObject> objects = packet.getWatchableCollectionModifier().read(0);
+
+		for (WrappedWatchableObject object : objects) {
+			Object value = object.getValue();
+
+			if (value instanceof ItemStack) {
+				ItemStack original = (ItemStack) value;
+				ItemStack stack = original.clone();
 
-		if (entity instanceof Item) {
-			// Great. Get the item from the DataWatcher
-			WrappedDataWatcher original = new WrappedDataWatcher(packet.getWatchableCollectionModifier().read(0));
+				scheduler.computeItemConversion(stack, player, false);
 
-			// Clone it
-			WrappedDataWatcher watcher = original.deepClone();
+				// The watchable objects may be shared with the entity, so only copy them if the item has changed
+				if (!stack.equals(original)) {
+					WrappedDataWatcher watcher = new WrappedDataWatcher(objects).deepClone();
 
-			// Allow mods to convert it and write back the result
-			scheduler.computeItemConversion(new ItemStack[] {
-				watcher.getItemStack(10)
-			}, player, false);
-			packet.getWatchableCollectionModifier().write(0, watcher.getWatchableObjects());
+					copyItemStack(stack, watcher.getItemStack(object.getIndex()));
+					packet.getWatchableCollectionModifier().write(0, watcher.getWatchableObjects());
+				}
+				return;
+			}
 		}
 	}
 
+	/**
+	 * Copy the type, durability, amount and item meta of an item stack to a different item stack.
+	 * 
+	 * @param source - the item stack to copy.
+	 * @param destination - the item stack to overwrite.
+	 */
+	@SuppressWarnings("deprecation")
+	static void copyItemStack(ItemStack source, ItemStack destination) {
+		destination.setTypeId(source.getTypeId());
+		destination.setDurability(source.getDurability());
+		destination.setAmount(source.getAmount());
+		destination.setItemMeta(source.hasItemMeta() ? source.getItemMeta() : null);
+	}
+
 	private boolean isChunkLoaded(World world, int x, int z) {
 		return world.isChunkLoaded(x, z);
 	}
@@ -430,8 +590,8 @@ class Calculations {
 		// There's no sun/moon in the end or in the nether, so Minecraft doesn't sent any skylight information
 		// This optimization was added in 1.4.6. Note that ideally you should get this from the "f" (skylight) field.
 		int skylightCount;
-		if (info.player != null)
-			skylightCount = info.player.getWorld().getEnvironment() == Environment.NORMAL ? 1 : 0;
+		if (info.world != null)
+			skylightCount = info.world.getEnvironment() == Environment.NORMAL ? 1 : 0;
 		else
 			skylightCount = 1;
 		info.skylight = skylightCount == 1;
@@ -459,35 +619,70 @@ class Calculations {
 		}
 
 		// Make sure the chunk is loaded
-		if (isChunkLoaded(info.player.getWorld(), info.chunkX, info.chunkZ)) {
-			// Invoke the event
-			SegmentLookup baseLookup = cache.getDefaultLookupTable();
-			SegmentLookup lookup = scheduler.getChunkConversion(baseLookup, info.player, info.chunkX, info.chunkZ);
-
-			// Save the result to the cache, if it's not the default
-			if (!baseLookup.equals(lookup)) {
-				cache.saveCache(info.player, info.chunkX, info.chunkZ, lookup);
-			} else {
-				cache.saveCache(info.player, info.chunkX, info.chunkZ, null);
+		if (isChunkLoaded(info.world, info.chunkX, info.chunkZ)) {
+			// Apply any region rules before invoking the event
+			int version = rules.getVersion();
+			SegmentLookup defaultLookup = cache.getDefaultLookupTable();
+			SegmentLookup baseLookup = rules.getLookup(info.world, info.chunkX, info.chunkZ);
+			SegmentLookup lookup = baseLookup != null ? baseLookup : defaultLookup;
+
+			// An evicted chunk is converted again like any other chunk, replacing its previous lookup table
+			cache.consumeEviction(info.player, info.world, info.chunkX, info.chunkZ);
+
+			// See if another player has already computed a viewer independent lookup table
+			SegmentLookup shared = cache.loadSharedCache(info.player, info.world, info.chunkX, info.chunkZ, version);
+
+			metrics.recordCacheLookup(shared != null);
+
+			if (shared == null) {
+				long eventStart = metrics.start();
+				ChunkPostProcessingEvent event = scheduler.computeChunkConversion(lookup, info.player, info.chunkX, info.chunkZ);
+				SegmentLookup result;
+				boolean viewerIndependent;
+
+				try {
+					result = event != null ? LazyCopySegmentLookup.unwrap(event.getLookup()) : lookup;
+					viewerIndependent = event != null && event.isViewerIndependent();
+				} finally {
+					scheduler.releaseChunkConversion(event);
+				}
+				metrics.record(PacketType.Play.Server.MAP_CHUNK, Stage.EVENT, eventStart);
+				SegmentLookup saved;
+
+				// Only compare the content if the lookup was actually changed
+				if (result == defaultLookup)
+					saved = null;
+				else if (result == lookup)
+					saved = baseLookup;
+				else
+					saved = !defaultLookup.equals(result) ? result : null;
+
+				if (viewerIndependent) {
+					cache.saveSharedCache(info.player, info.world, info.chunkX, info.chunkZ, saved, version);
+				} else {
+					cache.saveCache(info.player, info.world, info.chunkX, info.chunkZ, saved);
+				}
 			}
 
-			translate(lookup, info);
+			// Use the same compiled table as block changes in this chunk, so every segment and data value is converted
+			translate(cache.loadCompiledCacheOrDefault(info.player, info.world, info.chunkX, info.chunkZ), info);
 		}
 	}
 
-	private void translate(SegmentLookup lookup, ChunkInfo info) {
+	private void translate(CompiledLookup lookup, ChunkInfo info) {
+		long start = metrics.start();
 		ProtocolChunk chunk = new ProtocolChunk(info.data, info.skylight, info.chunkMask);
 		chunk.read();
-		
-		byte[] blockLookup = lookup.getBlockLookup();
-		for (int i = 0; i < blockLookup.length; i++) {
-			int value = blockLookup[i] & 0xFF;
-			if (value != i) {
-				chunk.replaceAll(ProtocolChunk.getProtocolId(i), ProtocolChunk.getProtocolId(value));
-				//System.out.println("Replacing block");
-			}
-		}
+		metrics.record(PacketType.Play.Server.MAP_CHUNK, Stage.PARSE, start);
+
+		start = metrics.start();
+		chunk.replaceAll(lookup);
+		metrics.record(PacketType.Play.Server.MAP_CHUNK, Stage.REMAP, start);
+
+		start = metrics.start();
 		byte[] buf = chunk.write();
+		metrics.record(PacketType.Play.Server.MAP_CHUNK, Stage.ENCODE, start);
+		metrics.recordBytes(info.data.length, buf.length);
 //		for (int i = 0; i < buf.length; i++) {
 //			if (buf[i] != info.data[i])
 //				System.out.println("Different at " + i + ": " + buf[i] + " != " + info.data[i]);
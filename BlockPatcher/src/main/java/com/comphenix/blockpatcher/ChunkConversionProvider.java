@@ -0,0 +1,29 @@
+package com.comphenix.blockpatcher;
+
+import com.comphenix.blockpatcher.events.ChunkPostProcessingEvent;
+
+/**
+ * Computes the lookup table of a chunk right before it is sent to a player.
+ * <p>
+ * Providers are invoked directly from the asynchronous translation threads, without going through Bukkit's event system.
+ * This has a number of consequences for implementations:
+ * <ul>
+ *   <li>A provider may be invoked concurrently from multiple threads, including for the same player. Any shared state
+ *       must be thread safe.</li>
+ *   <li>The provider must not call any part of the Bukkit API that is only safe on the main thread, such as reading
+ *       blocks or entities from a world.</li>
+ *   <li>The provider should never block, as it delays the transmission of the chunk.</li>
+ * </ul>
+ * The given event is confined to the current thread, and may be modified freely. It is never passed to Bukkit's
+ * event system by the provider invocation itself.
+ * <p>
+ * Register providers through {@link PatcherAPI#registerProvider(org.bukkit.plugin.Plugin, ChunkConversionProvider, org.bukkit.event.EventPriority)}.
+ */
+public interface ChunkConversionProvider {
+	/**
+	 * Invoked right before a chunk is sent to a player.
+	 * 
+	 * @param event - the chunk, the receiving player and the lookup table to modify.
+	 */
+	public void onChunkPostProcessing(ChunkPostProcessingEvent event);
+}
@@ -1,12 +1,20 @@
 package com.comphenix.blockpatcher;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 
+import org.bukkit.Chunk;
 import org.bukkit.entity.Player;
 
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.injector.BukkitUnwrapper;
 import com.comphenix.protocol.reflect.FuzzyReflection;
 import com.comphenix.protocol.utility.MinecraftReflection;
+import com.comphenix.protocol.utility.MinecraftVersion;
 
 /**
  * Performs simple operations on chunks.
@@ -16,21 +24,42 @@ import com.comphenix.protocol.utility.MinecraftReflection;
 @SuppressWarnings("unchecked")
 class ChunkUtility {
 
+	// Whether or not the chunk queue is missing (Minecraft 1.9 and later)
+	private static volatile boolean missingChunkQueue;
+
 	/**
 	 * Re-transmit the given chunk to the given player.
+	 * <p>
+	 * If the player has no chunk queue, the chunk is re-transmitted to every player that can see it.
+	 * This must be called from the main thread.
 	 * 
 	 * @param player - the given player.
 	 * @param chunkX - the chunk x coordinate.
 	 * @param chunkZ - the chunk z coordinate.
 	 */
+	@SuppressWarnings("deprecation")
 	public static void resendChunk(Player player, int chunkX, int chunkZ) {
+		if (missingChunkQueue) {
+			player.getWorld().refreshChunk(chunkX, chunkZ);
+			return;
+		}
 		BukkitUnwrapper unwrapper = new BukkitUnwrapper();
 		Object entityPlayer = unwrapper.unwrapItem(player);
 
 		Class<?> chunkCoord = MinecraftReflection.getMinecraftClass("ChunkCoordIntPair");
+		Field queueField = null;
+
+		try {
+			queueField = FuzzyReflection.fromObject(entityPlayer).getFieldByName("chunkCoordIntPairQueue");
+		} catch (IllegalArgumentException e) {
+			// Removed in 1.9
+			missingChunkQueue = true;
+			player.getWorld().refreshChunk(chunkX, chunkZ);
+			return;
+		}
 
 		try {
-			List<Object> list = (List<Object>) FuzzyReflection.fromObject(entityPlayer).getFieldByName("chunkCoordIntPairQueue").get(entityPlayer);
+			List<Object> list = (List<Object>) queueField.get(entityPlayer);
 
 			// Add a chunk coord int pair
 			list.add(chunkCoord.getConstructor(int.class, int.class).newInstance(chunkX, chunkZ));
@@ -39,4 +68,43 @@ class ChunkUtility {
 			throw new RuntimeException("Cannot read chunk coord pair queue.", e);
 		}
 	}
+
+	/**
+	 * Re-transmit the given sections of a loaded chunk to the given player.
+	 * <p>
+	 * Only Minecraft 1.9 and later can send individual sections. Older versions re-transmit the entire chunk instead.
+	 * This must be called from the main thread.
+	 * 
+	 * @param player - the given player.
+	 * @param chunk - the chunk.
+	 * @param sectionMask - a bit mask of the sections to send.
+	 * @throws InvocationTargetException If the packet could not be sent.
+	 */
+	public static void resendSections(Player player, Chunk chunk, int sectionMask) throws InvocationTargetException {
+		if (!MinecraftVersion.getCurrentVersion().isAtLeast(MinecraftVersion.COMBAT_UPDATE)) {
+			resendChunk(player, chunk.getX(), chunk.getZ());
+			return;
+		}
+		Object handle = new BukkitUnwrapper().unwrapItem(chunk);
+
+		try {
+			Constructor<?> constructor = PacketType.Play.Server.MAP_CHUNK.getPacketClass().getConstructor(handle.getClass(), int.class);
+
+			// A full mask is sent as a complete chunk with biomes instead, so send the top section separately
+			if ((sectionMask & 0xFFFF) == 0xFFFF) {
+				sendSections(player, constructor.newInstance(handle, 0x7FFF));
+				sendSections(player, constructor.newInstance(handle, 0x8000));
+			} else if ((sectionMask & 0xFFFF) != 0) {
+				sendSections(player, constructor.newInstance(handle, sectionMask & 0xFFFF));
+			}
+		} catch (InvocationTargetException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException("Cannot create chunk section packet.", e);
+		}
+	}
+
+	private static void sendSections(Player player, Object packet) throws InvocationTargetException {
+		ProtocolLibrary.getProtocolManager().sendServerPacket(player, new PacketContainer(PacketType.Play.Server.MAP_CHUNK, packet));
+	}
 }
@@ -1,38 +1,255 @@
 package com.comphenix.blockpatcher;
 
-import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
 
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 
+import com.comphenix.blockpatcher.lookup.ChunkCoordinateMap;
+import com.comphenix.blockpatcher.lookup.CompiledLookup;
 import com.comphenix.blockpatcher.lookup.ConversionLookup;
 import com.comphenix.blockpatcher.lookup.SegmentLookup;
-import com.comphenix.blockpatcher.lookup.SphericalBuffer;
-import com.google.common.collect.MapMaker;
 
 public class ConversionCache {
 
 	/**
-	 * The radius of cached chunk conversions around a player.
+	 * Cached conversions of a single player, in the world the player last received a chunk from.
 	 * <p>
-	 * This will only break in case someone uses more than "far" render distance in multiplayer, which is currently not possible.
+	 * Every chunk stores the dictionary ID of its lookup table, stamped with the time it was last sent. Chunks are
+	 * removed when they are unloaded by the client, and the whole cache is cleared when the player changes world.
+	 * <p>
+	 * The cache is closed when the player logs out. A closed cache releases every ID it is given.
+	 */
+	private class PlayerCache implements ChunkCoordinateMap.EntryVisitor {
+		private final Player player;
+		private UUID worldId;
+		private boolean closed;
+		private final ChunkCoordinateMap chunks = new ChunkCoordinateMap();
+
+		// Chunks that have been evicted, but not yet resent to the client
+		private final ChunkCoordinateMap evicting = new ChunkCoordinateMap();
+
+		public PlayerCache(Player player) {
+			this.player = player;
+		}
+
+		public synchronized SegmentLookup get(UUID worldId, int chunkX, int chunkZ) {
+			if (!worldId.equals(this.worldId))
+				return null;
+
+			// We hold a reference through this chunk, so the ID cannot be released
+			return dictionary.get(chunks.get(chunkX, chunkZ));
+		}
+
+		public synchronized CompiledLookup getCompiled(UUID worldId, int chunkX, int chunkZ) {
+			if (!worldId.equals(this.worldId))
+				return null;
+
+			int id = chunks.get(chunkX, chunkZ);
+			return id != LookupDictionary.DEFAULT_ID ? dictionary.getCompiled(id) : null;
+		}
+
+		public synchronized void put(UUID worldId, int chunkX, int chunkZ, int id, int stamp) {
+			// Nothing would release the ID
+			if (closed) {
+				dictionary.release(id);
+				return;
+			}
+			// Discard the cache of the previous world
+			if (!worldId.equals(this.worldId)) {
+				clear(null);
+				this.worldId = worldId;
+			}
+			dictionary.release(chunks.put(chunkX, chunkZ, id, stamp));
+		}
+
+		public synchronized void remove(UUID worldId, int chunkX, int chunkZ) {
+			if (worldId.equals(this.worldId)) {
+				dictionary.release(chunks.remove(chunkX, chunkZ));
+				evicting.remove(chunkX, chunkZ);
+			}
+		}
+
+		public synchronized void clear(UUID worldId) {
+			if (worldId == null || worldId.equals(this.worldId)) {
+				chunks.forEach(this);
+				chunks.clear();
+				evicting.clear();
+				this.worldId = null;
+			}
+		}
+
+		public synchronized void close() {
+			clear(null);
+			closed = true;
+		}
+
+		public synchronized boolean isEvicted(UUID worldId, int chunkX, int chunkZ) {
+			return worldId.equals(this.worldId) && evicting.get(chunkX, chunkZ) != ChunkCoordinateMap.NO_VALUE;
+		}
+
+		public synchronized boolean consumeEviction(UUID worldId, int chunkX, int chunkZ) {
+			return worldId.equals(this.worldId) && evicting.remove(chunkX, chunkZ) != ChunkCoordinateMap.NO_VALUE;
+		}
+
+		public synchronized void collectStamps(final LongList output) {
+			chunks.forEach(new ChunkCoordinateMap.EntryVisitor() {
+				@Override
+				public void visit(int chunkX, int chunkZ, int id, int stamp) {
+					if (evicting.get(chunkX, chunkZ) == ChunkCoordinateMap.NO_VALUE)
+						output.add(stamp);
+				}
+			});
+		}
+
+		public synchronized long[] evictOlderThan(final int maximumStamp) {
+			final LongList evicted = new LongList();
+
+			chunks.forEach(new ChunkCoordinateMap.EntryVisitor() {
+				@Override
+				public void visit(int chunkX, int chunkZ, int id, int stamp) {
+					if (stamp <= maximumStamp && evicting.get(chunkX, chunkZ) == ChunkCoordinateMap.NO_VALUE)
+						evicted.add(ChunkCoordinateMap.getKey(chunkX, chunkZ));
+				}
+			});
+			// Mark them after we're done iterating
+			for (int i = 0; i < evicted.size(); i++) {
+				long key = evicted.get(i);
+				evicting.put(ChunkCoordinateMap.getChunkX(key), ChunkCoordinateMap.getChunkZ(key), 1);
+			}
+			return evicted.toArray();
+		}
+
+		public synchronized long getMemoryUsage() {
+			return (long) (chunks.capacity() + evicting.capacity()) * ChunkCoordinateMap.BYTES_PER_SLOT;
+		}
+
+		@Override
+		public void visit(int chunkX, int chunkZ, int id, int stamp) {
+			dictionary.release(id);
+		}
+	}
+
+	/**
+	 * Viewer independent conversions of the loaded chunks in a single world.
+	 * <p>
+	 * Every chunk holds its own reference to a dictionary ID, stamped with the version of the rules it was computed from.
+	 */
+	private class WorldCache implements ChunkCoordinateMap.EntryVisitor {
+		private final ChunkCoordinateMap chunks = new ChunkCoordinateMap();
+
+		public synchronized int retain(int chunkX, int chunkZ, int version) {
+			int id = chunks.get(chunkX, chunkZ);
+
+			if (id == ChunkCoordinateMap.NO_VALUE || chunks.getStamp(chunkX, chunkZ) != version)
+				return ChunkCoordinateMap.NO_VALUE;
+			if (id != SHARED_DEFAULT_ID)
+				dictionary.retain(id);
+			return id;
+		}
+
+		public synchronized void put(int chunkX, int chunkZ, int id, int version) {
+			release(chunks.put(chunkX, chunkZ, id, version));
+		}
+
+		public synchronized void remove(int chunkX, int chunkZ) {
+			release(chunks.remove(chunkX, chunkZ));
+		}
+
+		public synchronized void clear() {
+			chunks.forEach(this);
+			chunks.clear();
+		}
+
+		public synchronized long getMemoryUsage() {
+			return (long) chunks.capacity() * ChunkCoordinateMap.BYTES_PER_SLOT;
+		}
+
+		@Override
+		public void visit(int chunkX, int chunkZ, int id, int version) {
+			release(id);
+		}
+
+		private void release(int id) {
+			if (id != SHARED_DEFAULT_ID)
+				dictionary.release(id);
+		}
+	}
+
+	/**
+	 * A growable list of primitive longs.
+	 */
+	private static class LongList {
+		private long[] values = new long[64];
+		private int size;
+
+		public void add(long value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		public long get(int index) {
+			return values[index];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public long[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * A compiled default lookup table, along with the modification count it was compiled from.
+	 */
+	private static class CompiledDefault {
+		private final CompiledLookup lookup;
+		private final int modificationCount;
+
+		public CompiledDefault(CompiledLookup lookup, int modificationCount) {
+			this.lookup = lookup;
+			this.modificationCount = modificationCount;
+		}
+	}
+
+	/**
+	 * Represents a shared chunk that uses the default lookup table.
+	 */
+	private static final int SHARED_DEFAULT_ID = -1;
+
+	/**
+	 * The fraction of the cached chunks that are evicted each time the memory limit is exceeded.
 	 */
-	private int BUFFER_RADIUS = 16;
+	private static final double EVICTION_FRACTION = 0.25;
 
-	// Cached conversions by player and chunk. Note that we don't actually store the real chunk location.
-	private ConcurrentMap<Player, SphericalBuffer<SegmentLookup>> playerConversions;
+	// Cached conversions by player and chunk
+	private ConcurrentMap<UUID, PlayerCache> playerConversions;
 
-	// Prevent duplicate conversion lookups from being added
-	private Map<SegmentLookup, WeakReference<SegmentLookup>> conversionCache;
+	// Viewer independent conversions by world and chunk
+	private ConcurrentMap<UUID, WorldCache> worldConversions;
 
-	// Reading and writing to the conversion cache
-	private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	// Prevent duplicate conversion lookups from being added, and assigns an ID to each of them
+	private LookupDictionary dictionary;
 
 	// Default conversion lookup table
 	private SegmentLookup defaultLookupTable;
+	private volatile CompiledDefault compiledDefault;
+
+	// Maximum number of bytes to use, or zero if unlimited
+	private volatile long memoryLimit;
+
+	// Used to compute the time a chunk was sent, in seconds
+	private final long startTime = System.nanoTime();
 
 	public ConversionCache(SegmentLookup defaultLookupTable) {
 		if (defaultLookupTable == null)
@@ -40,10 +257,11 @@ public class ConversionCache {
 
 		// Initialize the cache
 		this.defaultLookupTable = defaultLookupTable;
-		this.playerConversions = new MapMaker().concurrencyLevel(2).weakKeys().makeMap();
+		this.playerConversions = new ConcurrentHashMap<UUID, PlayerCache>();
+		this.worldConversions = new ConcurrentHashMap<UUID, WorldCache>();
 
 		// Duplicate cache
-		this.conversionCache = new WeakHashMap<SegmentLookup, WeakReference<SegmentLookup>>();
+		this.dictionary = new LookupDictionary(defaultLookupTable);
 	}
 
 	/**
@@ -63,54 +281,411 @@ public class ConversionCache {
 	 * @param player - the player.
 	 * @param chunkX - chunk x position.
 	 * @param chunkZ - chunk z position.
-	 * @param lookupTable - the lookup table used.
+	 * @param lookupTable - the lookup table used, or NULL if the default lookup table was used.
 	 */
 	public void saveCache(Player player, int chunkX, int chunkZ, SegmentLookup lookupTable) {
-		SphericalBuffer<SegmentLookup> cache = playerConversions.get(player);
-		SphericalBuffer<SegmentLookup> inserted = null;
+		saveCache(player, player.getWorld(), chunkX, chunkZ, lookupTable);
+	}
 
-		if (lookupTable != null) {
-			lookupTable = getCachedConversion(lookupTable);
+	/**
+	 * Cache the conversion lookup table used at a given chunk in the given world, for a given player.
+	 * <p>
+	 * This may be called from any thread, as long as the world was retrieved when the chunk was sent.
+	 * 
+	 * @param player - the player.
+	 * @param world - the world the chunk was sent in.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @param lookupTable - the lookup table used, or NULL if the default lookup table was used.
+	 */
+	public void saveCache(Player player, World world, int chunkX, int chunkZ, SegmentLookup lookupTable) {
+		// The default lookup table is never stored
+		if (lookupTable == null) {
+			removeCache(player, world, chunkX, chunkZ);
+			return;
 		}
+		putPlayerCache(player, world, chunkX, chunkZ, dictionary.acquire(lookupTable));
+	}
 
-		// Cheap and thread safe
-		if (cache == null) {
-			cache = new SphericalBuffer<SegmentLookup>(BUFFER_RADIUS * 2, BUFFER_RADIUS * 2);
-			inserted = playerConversions.putIfAbsent(player, cache);
+	/**
+	 * Cache the viewer independent lookup table used at a given chunk, for the given player and every other player.
+	 * <p>
+	 * The shared lookup table is discarded when the chunk is unloaded by the server, or when the version changes.
+	 * 
+	 * @param player - the player.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @param lookupTable - the lookup table used, or NULL if the default lookup table was used.
+	 * @param version - the version of the rules and the global lookup table.
+	 */
+	public void saveSharedCache(Player player, int chunkX, int chunkZ, SegmentLookup lookupTable, int version) {
+		saveSharedCache(player, player.getWorld(), chunkX, chunkZ, lookupTable, version);
+	}
+
+	/**
+	 * Cache the viewer independent lookup table used at a given chunk in the given world, for the given player and
+	 * every other player.
+	 * 
+	 * @param player - the player.
+	 * @param world - the world the chunk was sent in.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @param lookupTable - the lookup table used, or NULL if the default lookup table was used.
+	 * @param version - the version of the rules and the global lookup table.
+	 */
+	public void saveSharedCache(Player player, World world, int chunkX, int chunkZ, SegmentLookup lookupTable, int version) {
+		UUID worldId = world.getUID();
+		WorldCache shared = worldConversions.get(worldId);
+
+		if (shared == null) {
+			shared = new WorldCache();
+			WorldCache inserted = worldConversions.putIfAbsent(worldId, shared);
 
 			if (inserted != null)
-				cache = inserted;
+				shared = inserted;
+		}
+
+		if (lookupTable != null) {
+			int id = dictionary.acquire(lookupTable);
+
+			// One reference for the world and one for the player
+			dictionary.retain(id);
+			shared.put(chunkX, chunkZ, id, version);
+			putPlayerCache(player, world, chunkX, chunkZ, id);
+		} else {
+			shared.put(chunkX, chunkZ, SHARED_DEFAULT_ID, version);
+			removeCache(player, world, chunkX, chunkZ);
+		}
+	}
+
+	/**
+	 * Retrieve the viewer independent lookup table used at a given chunk, and cache it for the given player.
+	 * 
+	 * @param player - the player.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @param version - the current version of the rules and the global lookup table.
+	 * @return The shared lookup table, the default lookup table, or NULL if no shared lookup table of this version exists.
+	 */
+	public SegmentLookup loadSharedCache(Player player, int chunkX, int chunkZ, int version) {
+		return loadSharedCache(player, player.getWorld(), chunkX, chunkZ, version);
+	}
+
+	/**
+	 * Retrieve the viewer independent lookup table used at a given chunk in the given world, and cache it for the
+	 * given player.
+	 * 
+	 * @param player - the player.
+	 * @param world - the world the chunk was sent in.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @param version - the current version of the rules and the global lookup table.
+	 * @return The shared lookup table, the default lookup table, or NULL if no shared lookup table of this version exists.
+	 */
+	public SegmentLookup loadSharedCache(Player player, World world, int chunkX, int chunkZ, int version) {
+		WorldCache shared = worldConversions.get(world.getUID());
+		int id = shared != null ? shared.retain(chunkX, chunkZ, version) : ChunkCoordinateMap.NO_VALUE;
+
+		if (id == ChunkCoordinateMap.NO_VALUE) {
+			return null;
+		} else if (id == SHARED_DEFAULT_ID) {
+			removeCache(player, world, chunkX, chunkZ);
+			return defaultLookupTable;
+		} else {
+			// Retrieve the lookup table before the player cache owns the reference
+			SegmentLookup lookup = dictionary.get(id);
+			putPlayerCache(player, world, chunkX, chunkZ, id);
+			return lookup;
+		}
+	}
+
+	/**
+	 * Remove the viewer independent lookup table at a given chunk.
+	 * <p>
+	 * This should be called when the chunk is unloaded by the server.
+	 * 
+	 * @param world - the world.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 */
+	public void removeSharedCache(World world, int chunkX, int chunkZ) {
+		WorldCache cache = worldConversions.get(world.getUID());
+
+		if (cache != null) {
+			cache.remove(chunkX, chunkZ);
+		}
+	}
+
+	/**
+	 * Remove every viewer independent lookup table in the given world.
+	 * <p>
+	 * This should be called when the world is unloaded.
+	 * 
+	 * @param world - the world.
+	 */
+	public void clearSharedCache(World world) {
+		WorldCache cache = worldConversions.remove(world.getUID());
+
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	private void putPlayerCache(Player player, World world, int chunkX, int chunkZ, int id) {
+		PlayerCache cache = getOrCreatePlayerCache(player);
+
+		if (cache == null) {
+			dictionary.release(id);
+			return;
 		}
 
 		// Next, store the chunk conversion
-		cache.set(chunkX, chunkZ, lookupTable);
+		cache.put(world.getUID(), chunkX, chunkZ, id, getCurrentStamp());
 	}
 
-	private SegmentLookup getCachedConversion(SegmentLookup lookup) {
-		WeakReference<SegmentLookup> previous = null;
+	/**
+	 * Retrieve the cache of the given player, or create it if the player is online.
+	 * <p>
+	 * Translations that were queued before the player logged out may still store chunks afterwards. They must never
+	 * create a new cache, as it would not be removed until the player logs out again.
+	 * 
+	 * @param player - the player.
+	 * @return The cache, or NULL if the player has logged out.
+	 */
+	private PlayerCache getOrCreatePlayerCache(Player player) {
+		UUID playerId = player.getUniqueId();
+
+		while (true) {
+			PlayerCache cache = playerConversions.get(playerId);
+
+			if (cache != null && cache.player == player)
+				return cache;
+			if (!player.isOnline())
+				return null;
+
+			// The cache belongs to a newer login of the same player, whose entity is always created later
+			if (cache != null && cache.player.getEntityId() > player.getEntityId())
+				return null;
 
-		// Prevent duplicates
-		try {
-			lock.readLock().lock();
-			previous = conversionCache.get(lookup);
-		} finally {
-			lock.readLock().unlock();
+			PlayerCache created = new PlayerCache(player);
+
+			if (cache != null ? playerConversions.replace(playerId, cache, created) : playerConversions.putIfAbsent(playerId, created) == null) {
+				// Cache of a previous login
+				if (cache != null)
+					cache.close();
+
+				// The player may have logged out in the meantime
+				if (!player.isOnline())
+					removePlayer(player);
+				return created;
+			}
 		}
+	}
 
-		// Use the previous value, instead of adding a new
-		if (previous != null && previous.get() != null) {
-			return previous.get();
-		} else {
-			try {
-				lock.writeLock().lock();
-				conversionCache.put(lookup, new WeakReference<SegmentLookup>(lookup));
-			} finally {
-				lock.writeLock().unlock();
+	private PlayerCache getPlayerCache(Player player) {
+		return playerConversions.get(player.getUniqueId());
+	}
+
+	/**
+	 * Remove the cached conversion lookup table at a given chunk for a given player.
+	 * <p>
+	 * This should be called when the chunk is unloaded by the client.
+	 * 
+	 * @param player - the player.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 */
+	public void removeCache(Player player, int chunkX, int chunkZ) {
+		removeCache(player, player.getWorld(), chunkX, chunkZ);
+	}
+
+	/**
+	 * Remove the cached conversion lookup table at a given chunk in the given world, for a given player.
+	 * 
+	 * @param player - the player.
+	 * @param world - the world the chunk was unloaded in.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 */
+	public void removeCache(Player player, World world, int chunkX, int chunkZ) {
+		PlayerCache cache = getPlayerCache(player);
+
+		if (cache != null) {
+			cache.remove(world.getUID(), chunkX, chunkZ);
+		}
+	}
+
+	/**
+	 * Remove every cached conversion lookup table for a given player.
+	 * 
+	 * @param player - the player.
+	 */
+	public void clearCache(Player player) {
+		clearCache(player, null);
+	}
+
+	/**
+	 * Remove the cache of a given player, and release every lookup table it holds.
+	 * <p>
+	 * This should be called when the player logs out. Chunks that are stored afterwards are discarded immediately.
+	 * 
+	 * @param player - the player.
+	 */
+	public void removePlayer(Player player) {
+		UUID playerId = player.getUniqueId();
+		PlayerCache cache = playerConversions.get(playerId);
+
+		// Leave the cache of a newer login alone
+		if (cache != null && cache.player == player && playerConversions.remove(playerId, cache)) {
+			cache.close();
+		}
+	}
+
+	/**
+	 * Remove every cached conversion lookup table for a given player in the given world.
+	 * <p>
+	 * This should be called when the player leaves the world.
+	 * 
+	 * @param player - the player.
+	 * @param world - the world to clear, or NULL to clear any world.
+	 */
+	public void clearCache(Player player, World world) {
+		PlayerCache cache = getPlayerCache(player);
+
+		if (cache != null) {
+			cache.clear(world != null ? world.getUID() : null);
+		}
+	}
+
+	/**
+	 * Determine if the given chunk has been evicted from the cache, and is waiting to be resent.
+	 * 
+	 * @param player - the player.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @return TRUE if the chunk is waiting to be resent, FALSE otherwise.
+	 */
+	public boolean isEvicted(Player player, int chunkX, int chunkZ) {
+		PlayerCache cache = getPlayerCache(player);
+		return cache != null && cache.isEvicted(player.getWorld().getUID(), chunkX, chunkZ);
+	}
+
+	/**
+	 * Determine if the given chunk has been evicted from the cache, and clear the eviction.
+	 * <p>
+	 * An evicted chunk keeps its cached lookup table until it has been resent to the client. The resent chunk is then
+	 * converted again by the rules, the providers and the event, and its new lookup table replaces the previous one.
+	 * 
+	 * @param player - the player.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @return TRUE if the chunk was evicted, FALSE otherwise.
+	 */
+	public boolean consumeEviction(Player player, int chunkX, int chunkZ) {
+		return consumeEviction(player, player.getWorld(), chunkX, chunkZ);
+	}
+
+	/**
+	 * Determine if the given chunk in the given world has been evicted from the cache, and clear the eviction.
+	 * 
+	 * @param player - the player.
+	 * @param world - the world the chunk was sent in.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @return TRUE if the chunk was evicted, FALSE otherwise.
+	 */
+	public boolean consumeEviction(Player player, World world, int chunkX, int chunkZ) {
+		PlayerCache cache = getPlayerCache(player);
+		return cache != null && cache.consumeEviction(world.getUID(), chunkX, chunkZ);
+	}
+
+	/**
+	 * Evict the least recently sent chunks, if the cache is using more memory than the current limit.
+	 * <p>
+	 * The evicted chunks must be resent to each player, and their lookup tables are only discarded after
+	 * they have been resent. Chunks that are waiting to be resent will not be evicted again.
+	 * 
+	 * @return The packed coordinates of every evicted chunk, by player. This is empty if nothing was evicted.
+	 */
+	public Map<Player, long[]> evictLeastRecentlySent() {
+		long limit = memoryLimit;
+
+		if (limit <= 0 || getMemoryUsage() <= limit)
+			return Collections.emptyMap();
+
+		// Find the stamp that separates the oldest chunks from the rest
+		LongList stamps = new LongList();
+
+		for (PlayerCache cache : playerConversions.values()) {
+			cache.collectStamps(stamps);
+		}
+		if (stamps.size() == 0)
+			return Collections.emptyMap();
+
+		long[] sorted = stamps.toArray();
+		Arrays.sort(sorted);
+
+		int maximumStamp = (int) sorted[(int) ((sorted.length - 1) * EVICTION_FRACTION)];
+		Map<Player, long[]> result = new HashMap<Player, long[]>();
+
+		for (PlayerCache cache : playerConversions.values()) {
+			long[] evicted = cache.evictOlderThan(maximumStamp);
+
+			if (evicted.length > 0) {
+				result.put(cache.player, evicted);
 			}
+		}
+		return result;
+	}
 
-			// Return the same conversion table
-			return lookup;
+	/**
+	 * Retrieve the estimated number of bytes used by the cached lookup tables and the per-player and per-world indexes.
+	 * 
+	 * @return The estimated number of bytes.
+	 */
+	public long getMemoryUsage() {
+		long usage = dictionary.getMemoryUsage();
+
+		for (PlayerCache cache : playerConversions.values()) {
+			usage += cache.getMemoryUsage();
+		}
+		for (WorldCache cache : worldConversions.values()) {
+			usage += cache.getMemoryUsage();
 		}
+		return usage;
+	}
+
+	/**
+	 * Retrieve the maximum number of bytes the cache should use before chunks are evicted.
+	 * 
+	 * @return The maximum number of bytes, or zero if unlimited.
+	 */
+	public long getMemoryLimit() {
+		return memoryLimit;
+	}
+
+	/**
+	 * Set the maximum number of bytes the cache should use before chunks are evicted.
+	 * 
+	 * @param memoryLimit - the maximum number of bytes, or zero if unlimited.
+	 */
+	public void setMemoryLimit(long memoryLimit) {
+		if (memoryLimit < 0)
+			throw new IllegalArgumentException("Memory limit cannot be negative.");
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Retrieve the number of distinct lookup tables that are currently cached.
+	 * 
+	 * @return Number of distinct lookup tables.
+	 */
+	public int getLookupCount() {
+		return dictionary.size();
+	}
+
+	private int getCurrentStamp() {
+		return (int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime);
 	}
 
 	/**
@@ -122,10 +697,10 @@ public class ConversionCache {
 	 * @return A lookup table, or NULL if no lookup table was found.
 	 */
 	public SegmentLookup loadCache(Player player, int chunkX, int chunkZ) {
-		SphericalBuffer<SegmentLookup> cache = playerConversions.get(player);
+		PlayerCache cache = getPlayerCache(player);
 
 		if (cache != null) {
-			return cache.get(chunkX, chunkZ);
+			return cache.get(player.getWorld().getUID(), chunkX, chunkZ);
 		} else {
 			return null;
 		}
@@ -161,4 +736,69 @@ public class ConversionCache {
 	public ConversionLookup loadCacheOrDefault(Player player, int chunkX, int chunkY, int chunkZ) {
 		return loadCacheOrDefault(player, chunkX, chunkZ).getSegmentView(chunkY);
 	}
+
+	/**
+	 * Retrieve the conversion lookup table at a given chunk in the given world for a player, or the default table if
+	 * not found.
+	 * 
+	 * @param player - the player.
+	 * @param world - the world the block was sent in.
+	 * @param chunkX - chunk x position.
+	 * @param chunkY - chunk y position.
+	 * @param chunkZ - chunk y position.
+	 * @return A lookup table, or the default lookup table if not found.
+	 */
+	public ConversionLookup loadCacheOrDefault(Player player, World world, int chunkX, int chunkY, int chunkZ) {
+		PlayerCache cache = getPlayerCache(player);
+		SegmentLookup lookup = cache != null ? cache.get(world.getUID(), chunkX, chunkZ) : null;
+
+		return (lookup != null ? lookup : defaultLookupTable).getSegmentView(chunkY);
+	}
+
+	/**
+	 * Retrieve the compiled conversion lookup table at a given chunk for a player, or the default table if not found.
+	 * <p>
+	 * Each lookup table is only compiled once, and the result is shared by every player.
+	 * 
+	 * @param player - the player.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @return A compiled lookup table, or the compiled default lookup table if not found.
+	 */
+	public CompiledLookup loadCompiledCacheOrDefault(Player player, int chunkX, int chunkZ) {
+		return loadCompiledCacheOrDefault(player, player.getWorld(), chunkX, chunkZ);
+	}
+
+	/**
+	 * Retrieve the compiled conversion lookup table at a given chunk in the given world for a player, or the default
+	 * table if not found.
+	 * <p>
+	 * This may be called from any thread, as long as the world was retrieved when the packet was sent.
+	 * 
+	 * @param player - the player.
+	 * @param world - the world the packet was sent in.
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @return A compiled lookup table, or the compiled default lookup table if not found.
+	 */
+	public CompiledLookup loadCompiledCacheOrDefault(Player player, World world, int chunkX, int chunkZ) {
+		PlayerCache cache = getPlayerCache(player);
+		CompiledLookup lookup = null;
+
+		if (cache != null) {
+			lookup = cache.getCompiled(world.getUID(), chunkX, chunkZ);
+		}
+		return lookup != null ? lookup : getCompiledDefault();
+	}
+
+	private CompiledLookup getCompiledDefault() {
+		// Only the API reports changes to the default lookup table
+		int modificationCount = defaultLookupTable instanceof PatcherAPI ? ((PatcherAPI) defaultLookupTable).getModificationCount() : 0;
+		CompiledDefault current = compiledDefault;
+
+		if (current == null || current.modificationCount != modificationCount) {
+			compiledDefault = current = new CompiledDefault(CompiledLookup.compile(defaultLookupTable), modificationCount);
+		}
+		return current.lookup;
+	}
 }
@@ -1,40 +1,260 @@
 package com.comphenix.blockpatcher;
 
+import java.util.List;
+import java.util.logging.Level;
+
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventPriority;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.RegisteredListener;
 
 import com.comphenix.blockpatcher.events.ChunkPostProcessingEvent;
+import com.comphenix.blockpatcher.events.EventPool;
 import com.comphenix.blockpatcher.events.ItemConvertingEvent;
+import com.comphenix.blockpatcher.lookup.CompiledItemLookup;
+import com.comphenix.blockpatcher.lookup.CompiledLookup;
 import com.comphenix.blockpatcher.lookup.SegmentLookup;
 
 class EventScheduler {
+	/**
+	 * A compiled item lookup, along with the modification counts it was compiled from.
+	 */
+	private static class CompiledItems {
+		private final CompiledItemLookup lookup;
+		private final int itemModifications;
+		private final int blockModifications;
+
+		public CompiledItems(CompiledItemLookup lookup, int itemModifications, int blockModifications) {
+			this.lookup = lookup;
+			this.itemModifications = itemModifications;
+			this.blockModifications = blockModifications;
+		}
+	}
+
+	/**
+	 * The version of the window cache, along with the item lookup and item listeners it was created from.
+	 */
+	private static class WindowVersion {
+		private final CompiledItemLookup lookup;
+		private final RegisteredListener[] listeners;
+
+		public WindowVersion(CompiledItemLookup lookup, RegisteredListener[] listeners) {
+			this.lookup = lookup;
+			this.listeners = listeners;
+		}
+	}
 
 	private PluginManager manager;
+	private PatcherAPI api;
+
+	// Recycled events, or NULL if disabled
+	private EventPool pool;
+
+	// Item conversions applied before the item event
+	private volatile CompiledItems compiledItems;
+	private volatile boolean itemsFromBlocks;
 
-	public EventScheduler(PluginManager manager) {
+	// The last converted window contents, or NULL if disabled
+	private volatile WindowItemCache windowCache;
+	private volatile WindowVersion windowVersion;
+
+	public EventScheduler(PluginManager manager, PatcherAPI api, EventPool pool) {
 		super();
 		this.manager = manager;
+		this.api = api;
+		this.pool = pool;
+	}
+
+	/**
+	 * Set whether or not every block item should be converted like the block, according to the global lookup table.
+	 * <p>
+	 * Blocks that are converted differently in different segments are ignored.
+	 * 
+	 * @param itemsFromBlocks - TRUE if they should, FALSE otherwise.
+	 */
+	public void setItemsFromBlocks(boolean itemsFromBlocks) {
+		this.itemsFromBlocks = itemsFromBlocks;
+	}
+
+	/**
+	 * Set whether or not the converted contents of each window should be reused for every unchanged slot.
+	 * 
+	 * @param cacheWindows - TRUE if they should, FALSE otherwise.
+	 */
+	public void setCacheWindows(boolean cacheWindows) {
+		this.windowCache = cacheWindows ? new WindowItemCache(this) : null;
+	}
+
+	/**
+	 * Retrieve the current compiled item lookup, recompiling it if the item or block conversions have changed.
+	 * 
+	 * @return The compiled item lookup.
+	 */
+	private CompiledItemLookup getItemLookup() {
+		CompiledItems current = compiledItems;
+		boolean fromBlocks = itemsFromBlocks;
+		int itemModifications = api.getItemLookup().getModificationCount();
+		int blockModifications = fromBlocks ? api.getModificationCount() : -1;
+
+		// Concurrent compilations produce the same result
+		if (current == null || current.itemModifications != itemModifications || current.blockModifications != blockModifications) {
+			CompiledLookup blocks = fromBlocks ? CompiledLookup.compile(api) : null;
+
+			current = new CompiledItems(CompiledItemLookup.compile(api.getItemLookup(), blocks), itemModifications, blockModifications);
+			compiledItems = current;
+		}
+		return current.lookup;
+	}
+
+	/**
+	 * Retrieve an object that is replaced whenever the item conversions or the item listeners change.
+	 * 
+	 * @return The current window cache version.
+	 */
+	private Object getWindowVersion() {
+		CompiledItemLookup lookup = getItemLookup();
+		// Bukkit creates a new array whenever a listener is registered or unregistered
+		RegisteredListener[] listeners = ItemConvertingEvent.getHandlerList().getRegisteredListeners();
+		WindowVersion current = windowVersion;
+
+		if (current == null || current.lookup != lookup || current.listeners != listeners) {
+			current = new WindowVersion(lookup, listeners);
+			windowVersion = current;
+		}
+		return current;
+	}
+
+	private boolean hasItemListeners() {
+		return ItemConvertingEvent.getHandlerList().getRegisteredListeners().length > 0;
+	}
+
+	public void computeItemConversion(ItemStack stack, Player player, boolean fromInventory) {
+		CompiledItemLookup items = getItemLookup();
+		boolean dynamic = items.isDynamic(stack);
+
+		items.translate(stack);
+
+		// Only invoke the event for dynamic items
+		if (!dynamic || !hasItemListeners())
+			return;
+
+		if (pool != null) {
+			ItemStack[] stacks = pool.acquireArray(stack);
+
+			try {
+				callItemConversion(stacks, player, fromInventory);
+			} finally {
+				pool.releaseArray(stacks);
+			}
+		} else {
+			callItemConversion(new ItemStack[] { stack }, player, fromInventory);
+		}
 	}
 
 	public void computeItemConversion(ItemStack[] stacks, Player player, boolean fromInventory) {
-		ItemConvertingEvent event = new ItemConvertingEvent(stacks, player, fromInventory);
-		manager.callEvent(event);
+		CompiledItemLookup items = getItemLookup();
+		boolean dynamic = false;
+
+		for (ItemStack stack : stacks) {
+			dynamic |= items.isDynamic(stack);
+			items.translate(stack);
+		}
+		if (dynamic && hasItemListeners()) {
+			callItemConversion(stacks, player, fromInventory);
+		}
+	}
+
+	/**
+	 * Convert the contents of a window sent to the given player.
+	 * 
+	 * @param stacks - the window contents.
+	 * @param windowID - the window ID.
+	 * @param player - the receiving player.
+	 */
+	public void computeWindowConversion(ItemStack[] stacks, int windowID, Player player) {
+		WindowItemCache cache = windowCache;
+
+		if (cache != null) {
+			cache.computeWindowConversion(player, windowID, stacks, getWindowVersion());
+		} else {
+			computeItemConversion(stacks, player, true);
+		}
+	}
+
+	private void callItemConversion(ItemStack[] stacks, Player player, boolean fromInventory) {
+		if (pool != null) {
+			ItemConvertingEvent event = pool.acquireItemEvent(stacks, player, fromInventory);
+
+			try {
+				manager.callEvent(event);
+			} finally {
+				pool.releaseItemEvent(event);
+			}
+		} else {
+			manager.callEvent(new ItemConvertingEvent(stacks, player, fromInventory));
+		}
 	}
 
 	/**
-	 * Retrieve the lookup table given this player and the provided list of block coordinates.
+	 * Compute the lookup table given this player and the provided chunk.
+	 * <p>
+	 * Every registered provider is invoked on the current thread. The Bukkit event is invoked after every provider,
+	 * except those with MONITOR priority.
 	 * 
 	 * @param baseLookup - the default lookup table.
 	 * @param player - the current player.
 	 * @param chunkX - current chunk x position.
 	 * @param chunkZ - current chunk y position.
-	 * @return A conversion lookup table.
+	 * @return The processed event, containing the resulting lookup table, or NULL if nothing would process it.
+	 *         The event must be released with {@link #releaseChunkConversion(ChunkPostProcessingEvent)}.
+	 */
+	public ChunkPostProcessingEvent computeChunkConversion(SegmentLookup baseLookup, Player player, int chunkX, int chunkZ) {
+		List<RegisteredProvider> providers = api.getProviders();
+		boolean hasListeners = ChunkPostProcessingEvent.getHandlerList().getRegisteredListeners().length > 0;
+
+		// Don't bother creating the event
+		if (providers.isEmpty() && !hasListeners)
+			return null;
+
+		ChunkPostProcessingEvent event = pool != null ?
+				pool.acquireChunkEvent(player, chunkX, chunkZ, baseLookup) :
+				new ChunkPostProcessingEvent(player, chunkX, chunkZ, baseLookup);
+		boolean legacyPending = hasListeners;
+
+		for (RegisteredProvider registered : providers) {
+			if (legacyPending && registered.getPriority() == EventPriority.MONITOR) {
+				manager.callEvent(event);
+				legacyPending = false;
+			}
+			invokeProvider(registered, event);
+		}
+
+		// For compatibility
+		if (legacyPending) {
+			manager.callEvent(event);
+		}
+		return event;
+	}
+
+	/**
+	 * Release an event returned by {@link #computeChunkConversion(SegmentLookup, Player, int, int)}, so it may be reused.
+	 * 
+	 * @param event - the event to release, or NULL.
 	 */
-	public SegmentLookup getChunkConversion(SegmentLookup baseLookup, Player player, int chunkX, int chunkZ) {
-		ChunkPostProcessingEvent event = new ChunkPostProcessingEvent(player, chunkX, chunkZ, baseLookup);
+	public void releaseChunkConversion(ChunkPostProcessingEvent event) {
+		if (pool != null && event != null) {
+			pool.releaseChunkEvent(event);
+		}
+	}
 
-		manager.callEvent(event);
-		return event.getLookup();
+	private void invokeProvider(RegisteredProvider registered, ChunkPostProcessingEvent event) {
+		try {
+			registered.getProvider().onChunkPostProcessing(event);
+		} catch (RuntimeException e) {
+			// Same as Bukkit - a faulty provider shouldn't prevent the chunk from being sent
+			registered.getPlugin().getLogger().log(Level.SEVERE,
+					"Could not pass ChunkPostProcessingEvent to " + registered.getProvider(), e);
+		}
 	}
 }
@@ -0,0 +1,102 @@
+package com.comphenix.blockpatcher;
+
+import static com.comphenix.protocol.PacketType.Play.Server.ENTITY_DESTROY;
+import static com.comphenix.protocol.PacketType.Play.Server.RESPAWN;
+import static com.comphenix.protocol.PacketType.Play.Server.SPAWN_ENTITY;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.events.ListenerPriority;
+import com.comphenix.protocol.events.PacketAdapter;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.events.PacketEvent;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Keeps track of the dropped items each player can see, by their entity ID.
+ * <p>
+ * The set of each player is updated from the spawn and destroy packets as they are sent, so it can be read from any thread
+ * that handles later packets.
+ */
+class ItemEntities {
+	// Entity IDs of the dropped items by player
+	private final ConcurrentMap<Player, Set<Integer>> items = new MapMaker().weakKeys().makeMap();
+
+	private Plugin plugin;
+	private PacketAdapter packetListener;
+
+	public ItemEntities(Plugin plugin, final Calculations calculations) {
+		this.plugin = plugin;
+
+		// Executed on the sending thread, before any asynchronous listener
+		ProtocolLibrary.getProtocolManager().addPacketListener(
+				packetListener = new PacketAdapter(plugin, ListenerPriority.MONITOR, SPAWN_ENTITY, ENTITY_DESTROY, RESPAWN) {
+			@Override
+			public void onPacketSending(PacketEvent event) {
+				PacketContainer packet = event.getPacket();
+
+				if (event.isCancelled())
+					return;
+
+				if (event.getPacketType() == SPAWN_ENTITY) {
+					if (calculations.isDroppedItem(packet))
+						getItems(event.getPlayer()).add(packet.getIntegers().read(0));
+
+				} else if (event.getPacketType() == ENTITY_DESTROY) {
+					Set<Integer> visible = items.get(event.getPlayer());
+
+					if (visible != null) {
+						for (int entityID : packet.getIntegerArrays().read(0)) {
+							visible.remove(entityID);
+						}
+					}
+				} else {
+					// The client forgets every entity
+					items.remove(event.getPlayer());
+				}
+			}
+		});
+	}
+
+	private Set<Integer> getItems(Player player) {
+		Set<Integer> visible = items.get(player);
+
+		if (visible == null) {
+			visible = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+			Set<Integer> previous = items.putIfAbsent(player, visible);
+
+			if (previous != null)
+				visible = previous;
+		}
+		return visible;
+	}
+
+	/**
+	 * Determine if the given entity is a dropped item that has been spawned for the given player.
+	 *
+	 * @param player - the player.
+	 * @param entityID - the entity ID.
+	 * @return TRUE if it is, FALSE otherwise.
+	 */
+	public boolean isItem(Player player, int entityID) {
+		Set<Integer> visible = items.get(player);
+		return visible != null && visible.contains(entityID);
+	}
+
+	/**
+	 * Close this resource.
+	 */
+	public void close() {
+		if (plugin != null) {
+			ProtocolLibrary.getProtocolManager().removePacketListener(packetListener);
+			plugin = null;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.comphenix.blockpatcher;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.comphenix.blockpatcher.lookup.CompiledLookup;
+import com.comphenix.blockpatcher.lookup.LookupMemory;
+import com.comphenix.blockpatcher.lookup.SegmentLookup;
+
+/**
+ * Assigns a small integer ID to every distinct lookup table in the cache.
+ * <p>
+ * Each ID is reference counted. When the last reference is released, the lookup table is discarded and the
+ * ID may be reused. ID zero is never assigned, and represents the default lookup table.
+ * <p>
+ * The dictionary also keeps track of the estimated memory used by every lookup table it holds, and compiles each
+ * lookup table on demand. Lookup tables must not be modified after they have been added.
+ */
+class LookupDictionary {
+	/**
+	 * The ID that represents the default lookup table.
+	 */
+	public static final int DEFAULT_ID = 0;
+
+	/**
+	 * A lookup table with a precomputed hash code.
+	 */
+	private static class LookupKey {
+		private final SegmentLookup lookup;
+		private final int hash;
+
+		public LookupKey(SegmentLookup lookup) {
+			this.lookup = lookup;
+			this.hash = lookup.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this)
+				return true;
+			if (obj instanceof LookupKey) {
+				LookupKey other = (LookupKey) obj;
+				return hash == other.hash && lookup.equals(other.lookup);
+			}
+			return false;
+		}
+	}
+
+	// Assigned IDs by content
+	private final Map<LookupKey, Integer> ids = new HashMap<LookupKey, Integer>();
+
+	// Lookups and reference count by ID. The array is replaced when it grows, so it can be read without locking.
+	private volatile SegmentLookup[] lookups = new SegmentLookup[16];
+	private volatile CompiledLookup[] compiled = new CompiledLookup[16];
+	private LookupKey[] keys = new LookupKey[16];
+	private int[] referenceCounts = new int[16];
+	private long[] sizes = new long[16];
+
+	// Tables shared with the default lookup are not counted
+	private final SegmentLookup defaultLookup;
+	private long memoryUsage;
+
+	// Released IDs that can be reused
+	private int[] freeIds = new int[16];
+	private int freeCount;
+	private int nextId = DEFAULT_ID + 1;
+
+	/**
+	 * Construct a new dictionary.
+	 *
+	 * @param defaultLookup - the default lookup table, whose tables are shared by most lookups.
+	 */
+	public LookupDictionary(SegmentLookup defaultLookup) {
+		this.defaultLookup = defaultLookup;
+	}
+
+	/**
+	 * Retrieve the ID of the given lookup table, or assign a new ID if it hasn't been seen before.
+	 * <p>
+	 * The reference count of the ID is incremented, and must later be released.
+	 *
+	 * @param lookup - the lookup table.
+	 * @return The ID of an equal lookup table.
+	 */
+	public int acquire(SegmentLookup lookup) {
+		// Compute the hash code outside the lock
+		LookupKey key = new LookupKey(lookup);
+
+		synchronized (this) {
+			Integer id = ids.get(key);
+
+			if (id == null) {
+				id = allocateId();
+				ids.put(key, id);
+				keys[id] = key;
+				lookups[id] = lookup;
+				sizes[id] = LookupMemory.estimateSize(lookup, defaultLookup);
+				memoryUsage += sizes[id];
+			}
+			referenceCounts[id]++;
+			return id;
+		}
+	}
+
+	/**
+	 * Add another reference to the given ID, which must already be referenced.
+	 *
+	 * @param id - the ID to reference.
+	 */
+	public synchronized void retain(int id) {
+		if (id == DEFAULT_ID)
+			return;
+		if (referenceCounts[id] <= 0)
+			throw new IllegalStateException("ID " + id + " has already been released.");
+		referenceCounts[id]++;
+	}
+
+	/**
+	 * Release a reference to the given ID.
+	 * <p>
+	 * The lookup table is discarded when there are no more references.
+	 *
+	 * @param id - the ID to release.
+	 */
+	public synchronized void release(int id) {
+		if (id == DEFAULT_ID)
+			return;
+		if (referenceCounts[id] <= 0)
+			throw new IllegalStateException("ID " + id + " has already been released.");
+
+		if (--referenceCounts[id] == 0) {
+			ids.remove(keys[id]);
+			keys[id] = null;
+			lookups[id] = null;
+			compiled[id] = null;
+			memoryUsage -= sizes[id];
+			sizes[id] = 0;
+
+			if (freeCount == freeIds.length) {
+				freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+			}
+			freeIds[freeCount++] = id;
+		}
+	}
+
+	/**
+	 * Retrieve the lookup table with the given ID.
+	 * <p>
+	 * The caller must hold a reference to the ID.
+	 *
+	 * @param id - the ID.
+	 * @return The lookup table, or NULL for the default ID.
+	 */
+	public SegmentLookup get(int id) {
+		return lookups[id];
+	}
+
+	/**
+	 * Retrieve the compiled lookup table with the given ID, compiling it if necessary.
+	 * <p>
+	 * The caller must hold a reference to the ID, which must not be the default ID.
+	 *
+	 * @param id - the ID.
+	 * @return The compiled lookup table.
+	 */
+	public CompiledLookup getCompiled(int id) {
+		CompiledLookup result = compiled[id];
+
+		if (result == null) {
+			// Compiling is expensive, so it is done outside the lock
+			result = CompiledLookup.compile(lookups[id]);
+
+			synchronized (this) {
+				if (compiled[id] == null)
+					compiled[id] = result;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieve the number of distinct lookup tables that are currently referenced.
+	 *
+	 * @return Number of lookup tables.
+	 */
+	public synchronized int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Retrieve the estimated number of bytes used by every lookup table in the dictionary.
+	 *
+	 * @return The estimated number of bytes.
+	 */
+	public synchronized long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	private int allocateId() {
+		if (freeCount > 0)
+			return freeIds[--freeCount];
+
+		int id = nextId++;
+
+		// Grow the tables
+		if (id >= referenceCounts.length) {
+			int length = referenceCounts.length * 2;
+			referenceCounts = Arrays.copyOf(referenceCounts, length);
+			keys = Arrays.copyOf(keys, length);
+			sizes = Arrays.copyOf(sizes, length);
+			lookups = Arrays.copyOf(lookups, length);
+			compiled = Arrays.copyOf(compiled, length);
+		}
+		return id;
+	}
+}
@@ -1,19 +1,32 @@
 package com.comphenix.blockpatcher;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
 
+import com.comphenix.blockpatcher.metrics.TranslationMetrics;
+import com.comphenix.blockpatcher.metrics.TranslationMetrics.Stage;
+import com.comphenix.protocol.AsynchronousManager;
 import com.comphenix.protocol.PacketType;
 import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.ProtocolManager;
+import com.comphenix.protocol.async.AsyncMarker;
 import com.comphenix.protocol.events.ListenerPriority;
 import com.comphenix.protocol.events.PacketAdapter;
 import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.events.PacketEvent;
 import com.comphenix.protocol.reflect.FieldAccessException;
+import com.comphenix.protocol.reflect.StructureModifier;
+import com.comphenix.protocol.wrappers.BlockPosition;
+import com.comphenix.protocol.wrappers.ChunkCoordIntPair;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 
 // Import server packets
 import static com.comphenix.protocol.PacketType.Play.Server.*;
@@ -22,85 +35,188 @@ class PacketListeners {
 
 	private Plugin plugin;
 	private EventScheduler scheduler;
+	private TranslationPool pool;
+	private ItemEntities itemEntities;
+	private TranslationMetrics metrics;
 
-	public PacketListeners(Plugin plugin, EventScheduler scheduler) {
+	// The world of the receiving player when each queued packet was sent, by the marker compared by identity
+	private final ConcurrentMap<AsyncMarker, World> sendingWorlds = new MapMaker().weakKeys().makeMap();
+
+	public PacketListeners(Plugin plugin, EventScheduler scheduler, TranslationPool pool, ItemEntities itemEntities, TranslationMetrics metrics) {
 		super();
 		this.plugin = plugin;
 		this.scheduler = scheduler;
+		this.pool = pool;
+		this.itemEntities = itemEntities;
+		this.metrics = metrics;
 	}
 
 	public void registerEvents(final Calculations calculations) {
 		ProtocolManager manager = ProtocolLibrary.getProtocolManager();
+		final AsynchronousManager asyncManager = manager.getAsynchronousManager();
+
+		List<PacketType> blockPackets = Lists.newArrayList(MAP_CHUNK, BLOCK_CHANGE, MULTI_BLOCK_CHANGE, SPAWN_ENTITY);
+		List<PacketType> itemPackets = Lists.newArrayList(SET_SLOT, WINDOW_ITEMS);
 
-		// Modify chunk packets asynchronously
-		manager.getAsynchronousManager().registerAsyncHandler(new PacketAdapter(plugin, ListenerPriority.HIGHEST, MAP_CHUNK, UPDATE_SIGN, TILE_ENTITY_DATA) {
+		// Only sent separately in 1.9 and later
+		if (UNLOAD_CHUNK.isSupported()) {
+			blockPackets.add(UNLOAD_CHUNK);
+		}
+		// Handling depreciated events
+		if (!registerPickupSpawn(manager, calculations)) {
+			itemPackets.add(ENTITY_METADATA);
+		}
+		List<PacketType> asyncPackets = new ArrayList<PacketType>(blockPackets);
+		asyncPackets.add(UPDATE_SIGN);
+		asyncPackets.add(TILE_ENTITY_DATA);
+
+		// Modify packets asynchronously. ProtocolLib still sends them in the original order.
+		asyncManager.registerAsyncHandler(new PacketAdapter(plugin, ListenerPriority.HIGHEST, asyncPackets) {
 			@Override
-			public void onPacketSending(PacketEvent event) {
-				try {
-					if (event.getPacketType() == MAP_CHUNK) {
-						calculations.translateMapChunk(event.getPacket(), event.getPlayer());
-					//} else if (event.getPacketType() == MAP_CHUNK_BULK) {
-					//	calculations.translateMapChunkBulk(event.getPacket(), event.getPlayer());
-					} else {
-						// Update sign or tile entity data - these are only enqueued so they 
-						// are sent in the correct order
+			public void onPacketSending(final PacketEvent event) {
+				final PacketType type = event.getPacketType();
+
+				// Update sign or tile entity data - these are only enqueued so they are sent in the correct order
+				if (type == UPDATE_SIGN || type == TILE_ENTITY_DATA)
+					return;
+
+				// Every packet that reaches an asynchronous listener has passed the synchronous listeners first
+				final World world = sendingWorlds.remove(event.getAsyncMarker());
+
+				if (world == null)
+					return;
+
+				// Hand the packet over to the lane of the player, which translates it after every earlier packet
+				final long queued = metrics.start();
+
+				TranslationPool.CancellableTask task = new TranslationPool.CancellableTask() {
+					@Override
+					public void run() {
+						metrics.record(type, Stage.QUEUE, queued);
+						long start = metrics.start();
+
+						try {
+							translate(calculations, event, world);
+						} finally {
+							metrics.record(type, Stage.TOTAL, start);
+							asyncManager.signalPacketTransmission(event);
+						}
 					}
 
-				} catch (FieldAccessException e) {
-					plugin.getLogger().log(Level.SEVERE, "Cannot access chunk data", e);
+					@Override
+					public void cancel() {
+						// Sent without translation
+						asyncManager.signalPacketTransmission(event);
+					}
+				};
+				event.getAsyncMarker().incrementProcessingDelay();
+
+				// Nearby chunks are translated first, and other packets only wait for the chunks they belong to
+				PacketContainer packet = event.getPacket();
+				Player player = event.getPlayer();
+
+				if (type == MAP_CHUNK) {
+					StructureModifier<Integer> ints = packet.getIntegers();
+					pool.submitChunk(player, task, ints.read(0), ints.read(1));
+				} else if (type == UNLOAD_CHUNK) {
+					StructureModifier<Integer> ints = packet.getIntegers();
+					pool.submit(player, task, ints.read(0), ints.read(1));
+				} else if (type == BLOCK_CHANGE) {
+					BlockPosition position = packet.getBlockPositionModifier().read(0);
+					pool.submit(player, task, position.getX() >> 4, position.getZ() >> 4);
+				} else if (type == MULTI_BLOCK_CHANGE) {
+					ChunkCoordIntPair coord = packet.getChunkCoordIntPairs().read(0);
+					pool.submit(player, task, coord.getChunkX(), coord.getChunkZ());
+				} else {
+					pool.submit(player, task);
 				}
 			}
-		}).start(2);
+		}).start();
 
-		// Handling depreciated events
-		if (!registerPickupSpawn(manager, calculations)) {
-			manager.addPacketListener(new PacketAdapter(plugin, ListenerPriority.HIGHEST, ENTITY_METADATA) {
-				@Override
-				public void onPacketSending(PacketEvent event) {
-					calculations.translateDroppedItemMetadata(event.getPacket(), event.getPlayer(), scheduler);
-				}
-			});
-		}
+		// Remember the world of the player when the packet was sent, as it cannot be read from the worker threads
+		manager.addPacketListener(new PacketAdapter(plugin, ListenerPriority.MONITOR, blockPackets) {
+			@Override
+			public void onPacketSending(PacketEvent event) {
+				if (!event.isCancelled())
+					sendingWorlds.put(event.getAsyncMarker(), event.getPlayer().getWorld());
+			}
+		});
 
-		// These are small enough to be run on the main thread
-		manager.addPacketListener(new PacketAdapter(plugin, ListenerPriority.HIGHEST, MAP_CHUNK, BLOCK_CHANGE, MULTI_BLOCK_CHANGE, SPAWN_ENTITY, SET_SLOT, WINDOW_ITEMS) {
+		// Item conversions invoke a synchronous event, so they are translated on the sending thread
+		manager.addPacketListener(new PacketAdapter(plugin, ListenerPriority.HIGHEST, itemPackets) {
+			@Override
 			public void onPacketSending(PacketEvent event) {
-				try {
-					PacketContainer packet = event.getPacket();
-					Player player = event.getPlayer();
-					ItemStack[] stacks;
-
-					PacketType type = event.getPacketType();
-
-					if (type == MAP_CHUNK) {
-						if (calculations.isImportantChunk(packet, player))
-							event.getAsyncMarker().setNewSendingIndex(0);
-					//} else if (type == MAP_CHUNK_BULK) {
-					//	if (calculations.isImportantChunkBulk(packet, player))
-							event.getAsyncMarker().setNewSendingIndex(0);
-					} else if (type == BLOCK_CHANGE) {
-						calculations.translateBlockChange(packet, player);
-					} else if (type == MULTI_BLOCK_CHANGE) {
-						calculations.translateMultiBlockChange(packet, player);
-					} else if (type == SPAWN_ENTITY) {
-						calculations.translateFallingObject(packet, player);
-					} else if (type == SET_SLOT) {
-						stacks = new ItemStack[] {
-							packet.getItemModifier().read(0)
-						};
-						scheduler.computeItemConversion(stacks, player, true);
-					} else if (type == WINDOW_ITEMS) {
-						stacks = packet.getItemArrayModifier().read(0);
-						scheduler.computeItemConversion(stacks, player, true);
-					}
+				PacketType type = event.getPacketType();
+
+				// Most metadata belongs to other entities
+				if (type == ENTITY_METADATA && !itemEntities.isItem(event.getPlayer(), event.getPacket().getIntegers().read(0)))
+					return;
 
-				} catch (FieldAccessException e) {
-					plugin.getLogger().log(Level.SEVERE, "Cannot access chunk data", e);
+				long start = metrics.start();
+
+				try {
+					translateItems(calculations, event);
+				} finally {
+					metrics.record(type, Stage.TOTAL, start);
 				}
-			};
+			}
 		});
 	}
 
+	/**
+	 * Translate a chunk or block packet. This only accesses thread safe caches, so it may be called on any thread.
+	 * 
+	 * @param calculations - the translator.
+	 * @param event - the packet event.
+	 * @param world - the world of the player when the packet was sent.
+	 */
+	private void translate(Calculations calculations, PacketEvent event, World world) {
+		try {
+			PacketContainer packet = event.getPacket();
+			Player player = event.getPlayer();
+			PacketType type = event.getPacketType();
+
+			if (type == MAP_CHUNK) {
+				calculations.translateMapChunk(packet, player, world);
+			} else if (type == UNLOAD_CHUNK) {
+				calculations.translateUnloadChunk(packet, player, world);
+			} else if (type == BLOCK_CHANGE) {
+				calculations.translateBlockChange(packet, player, world);
+			} else if (type == MULTI_BLOCK_CHANGE) {
+				calculations.translateMultiBlockChange(packet, player, world);
+			} else if (type == SPAWN_ENTITY) {
+				calculations.translateFallingObject(packet, player, world);
+			}
+		} catch (FieldAccessException e) {
+			plugin.getLogger().log(Level.SEVERE, "Cannot access packet data", e);
+		}
+	}
+
+	/**
+	 * Translate an item packet on the sending thread.
+	 * 
+	 * @param calculations - the translator.
+	 * @param event - the packet event.
+	 */
+	private void translateItems(Calculations calculations, PacketEvent event) {
+		try {
+			PacketContainer packet = event.getPacket();
+			Player player = event.getPlayer();
+			PacketType type = event.getPacketType();
+
+			if (type == SET_SLOT) {
+				scheduler.computeItemConversion(packet.getItemModifier().read(0), player, true);
+			} else if (type == WINDOW_ITEMS) {
+				ItemStack[] stacks = packet.getItemArrayModifier().read(0);
+				scheduler.computeWindowConversion(stacks, packet.getIntegers().read(0), player);
+			} else if (type == ENTITY_METADATA) {
+				calculations.translateDroppedItemMetadata(packet, player, scheduler);
+			}
+		} catch (FieldAccessException e) {
+			plugin.getLogger().log(Level.SEVERE, "Cannot access packet data", e);
+		}
+	}
+
 	private boolean registerPickupSpawn(final ProtocolManager manager, final Calculations calculations) {
 		// Handle the pickup spawn packet in 1.4.5 and lower
 		if (PacketType.Legacy.Server.PICKUP_SPAWN.isSupported()) {
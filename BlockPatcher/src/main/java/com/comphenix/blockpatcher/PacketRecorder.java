@@ -0,0 +1,236 @@
+package com.comphenix.blockpatcher;
+
+import static com.comphenix.protocol.PacketType.Play.Server.BLOCK_CHANGE;
+import static com.comphenix.protocol.PacketType.Play.Server.MAP_CHUNK;
+import static com.comphenix.protocol.PacketType.Play.Server.MULTI_BLOCK_CHANGE;
+import static com.comphenix.protocol.PacketType.Play.Server.UNLOAD_CHUNK;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.bukkit.World.Environment;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import com.comphenix.blockpatcher.capture.CaptureWriter;
+import com.comphenix.blockpatcher.capture.CapturedPacket;
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.events.ListenerPriority;
+import com.comphenix.protocol.events.PacketAdapter;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.events.PacketEvent;
+import com.comphenix.protocol.reflect.StructureModifier;
+import com.comphenix.protocol.utility.MinecraftReflection;
+import com.comphenix.protocol.wrappers.BlockPosition;
+import com.comphenix.protocol.wrappers.ChunkCoordIntPair;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Records the untranslated chunk and block change packets sent to every player, so they can be replayed without a server.
+ * <p>
+ * Packets are recorded on the sending thread after every other synchronous listener, and written to the file by a
+ * separate thread. Packets are dropped instead of delaying the server if the writer falls behind. This requires
+ * Minecraft 1.9 or later.
+ */
+class PacketRecorder {
+	// The number of packets that may wait for the writer
+	private static final int MAX_QUEUED = 4096;
+
+	private final Plugin plugin;
+	private final File file;
+	private final CaptureWriter writer;
+	private final BlockingQueue<CapturedPacket> queue = new ArrayBlockingQueue<CapturedPacket>(MAX_QUEUED);
+
+	// Every player is identified by the order in which they were first seen
+	private final ConcurrentMap<Player, Integer> playerIDs = new MapMaker().weakKeys().makeMap();
+	private final AtomicInteger nextPlayerID = new AtomicInteger();
+
+	private final AtomicLong recordedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private PacketAdapter listener;
+	private Thread writerThread;
+	private volatile boolean closed;
+
+	// The error that stopped the writer, if any
+	private volatile IOException failure;
+
+	/**
+	 * Start recording packets to the given file.
+	 *
+	 * @param plugin - the owner plugin.
+	 * @param file - the file to write. It is overwritten if it exists.
+	 * @throws IOException If the file could not be created.
+	 */
+	public PacketRecorder(Plugin plugin, File file) throws IOException {
+		if (!MinecraftReflection.isUsingNetty() || !UNLOAD_CHUNK.isSupported())
+			throw new IllegalStateException("Capturing packets requires Minecraft 1.9 or later.");
+
+		this.plugin = plugin;
+		this.file = file;
+		this.writer = new CaptureWriter(new FileOutputStream(file));
+
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runWriter();
+			}
+		}, "BlockPatcher Capture Writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		registerPacketListener();
+	}
+
+	private void registerPacketListener() {
+		ProtocolLibrary.getProtocolManager().addPacketListener(
+				listener = new PacketAdapter(plugin, ListenerPriority.MONITOR, MAP_CHUNK, BLOCK_CHANGE, MULTI_BLOCK_CHANGE) {
+			@Override
+			public void onPacketSending(PacketEvent event) {
+				// Nothing is written after the writer has stopped
+				if (event.isCancelled() || closed)
+					return;
+
+				try {
+					CapturedPacket captured = capture(event);
+
+					if (captured != null && !queue.offer(captured))
+						droppedCount.incrementAndGet();
+				} catch (RuntimeException e) {
+					plugin.getLogger().log(Level.WARNING, "Cannot capture " + event.getPacketType(), e);
+				}
+			}
+		});
+	}
+
+	private CapturedPacket capture(PacketEvent event) {
+		PacketContainer packet = event.getPacket();
+		Player player = event.getPlayer();
+		int playerID = getPlayerID(player);
+
+		if (event.getPacketType() == MAP_CHUNK) {
+			StructureModifier<Integer> ints = packet.getIntegers();
+			byte[] data = packet.getByteArrays().read(0);
+
+			if (data == null)
+				return null;
+			return CapturedPacket.fromMapChunk(playerID, ints.read(0), ints.read(1), ints.read(2), packet.getBooleans().read(0),
+					player.getWorld().getEnvironment() == Environment.NORMAL, data.clone());
+
+		} else if (event.getPacketType() == BLOCK_CHANGE) {
+			BlockPosition position = packet.getBlockPositionModifier().read(0);
+			Object state = packet.getModifier().withType(MinecraftReflection.getIBlockDataClass()).read(0);
+
+			return CapturedPacket.fromBlockChange(playerID, position.getX(), position.getY(), position.getZ(),
+					BlockStates.getProtocolId(state));
+		} else {
+			ChunkCoordIntPair coord = packet.getChunkCoordIntPairs().read(0);
+			Object[] records = Calculations.getMultiBlockRecords(packet);
+			short[] locations = new short[records.length];
+			int[] states = new int[records.length];
+
+			Calculations.readMultiBlockRecords(records, locations, states);
+			return CapturedPacket.fromMultiBlockChange(playerID, coord.getChunkX(), coord.getChunkZ(), locations, states);
+		}
+	}
+
+	private int getPlayerID(Player player) {
+		Integer id = playerIDs.get(player);
+
+		if (id == null) {
+			id = nextPlayerID.getAndIncrement();
+			Integer previous = playerIDs.putIfAbsent(player, id);
+
+			if (previous != null)
+				id = previous;
+		}
+		return id;
+	}
+
+	private void runWriter() {
+		try {
+			while (!closed || !queue.isEmpty()) {
+				CapturedPacket packet = queue.poll(100, TimeUnit.MILLISECONDS);
+
+				if (packet != null) {
+					writer.write(packet);
+					recordedCount.incrementAndGet();
+				}
+			}
+		} catch (IOException e) {
+			plugin.getLogger().log(Level.SEVERE, "Cannot write to " + file + ". Capture stopped.", e);
+			failure = e;
+			closed = true;
+			droppedCount.addAndGet(queue.size());
+			queue.clear();
+		} catch (InterruptedException e) {
+			// Stop writing
+		} finally {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				plugin.getLogger().log(Level.WARNING, "Cannot close " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the file the packets are written to.
+	 *
+	 * @return The capture file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Retrieve the number of packets that have been written.
+	 *
+	 * @return Number of packets.
+	 */
+	public long getRecordedCount() {
+		return recordedCount.get();
+	}
+
+	/**
+	 * Retrieve the number of packets that have been dropped because the writer fell behind or failed.
+	 *
+	 * @return Number of packets.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Retrieve the error that stopped the capture, if any. No packets are recorded after an error.
+	 *
+	 * @return The error, or NULL if the capture has not failed.
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Stop recording, and wait for every recorded packet to be written.
+	 */
+	public void close() {
+		if (listener != null) {
+			ProtocolLibrary.getProtocolManager().removePacketListener(listener);
+			listener = null;
+			closed = true;
+
+			try {
+				writerThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -19,17 +19,29 @@
  */
 package com.comphenix.blockpatcher;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventPriority;
+import org.bukkit.plugin.Plugin;
 
 import com.comphenix.blockpatcher.lookup.ChunkLookup;
 import com.comphenix.blockpatcher.lookup.ChunkSegmentLookup;
+import com.comphenix.blockpatcher.lookup.ItemLookup;
+import com.comphenix.blockpatcher.rules.ConversionRules;
 
 /**
  * Able to automatically translate every block and item on the server to a different type.
  * <p>
- * This conversion is only client side and will never affect the actual world files. To use different conversions per player or chunk, subscribe to the ChunkPostProcessingEvent.
+ * This conversion is only client side and will never affect the actual world files. To use different conversions per region, register
+ * a rule with {@link #getRules()}. To use different conversions per player or chunk, register a {@link ChunkConversionProvider}. The
+ * ChunkPostProcessingEvent is still invoked after every provider except those with MONITOR priority, but it is considerably slower.
  * <p>
- * To convert items, subscribe to the event ItemConvertingEvent.
+ * To convert items, register conversions with {@link #getItemLookup()}. Items that depend on the player or the item meta can
+ * be converted by subscribing to the event ItemConvertingEvent.
  * 
  * @author Kristian
  */
@@ -39,9 +51,149 @@ public final class PatcherAPI extends ChunkSegmentLookup {
 	 */
 	private static final long serialVersionUID = 9149758527563036643L;
 
+	// Incremented whenever the lookup table is changed through this API
+	private final AtomicInteger modificationCount = new AtomicInteger();
+
+	// Conversions that only apply to parts of a world
+	private final transient ConversionRules rules;
+
+	// Conversions that apply to every item
+	private final transient ItemLookup itemLookup = new ItemLookup();
+
+	// Chunk conversion providers in priority order
+	private final transient CopyOnWriteArrayList<RegisteredProvider> providers = new CopyOnWriteArrayList<RegisteredProvider>();
+
 	public PatcherAPI() {
 		// Use the identity lookup table
 		super(new ChunkLookup());
+		this.rules = new ConversionRules(this);
+	}
+
+	/**
+	 * Retrieve the conversion rules that only apply to certain chunks and segments in a world.
+	 * <p>
+	 * Rules are applied on top of this lookup table, before the ChunkPostProcessingEvent is invoked.
+	 * 
+	 * @return The conversion rules.
+	 */
+	public ConversionRules getRules() {
+		return rules;
+	}
+
+	/**
+	 * Retrieve the item conversions that apply to every item sent to a client.
+	 * <p>
+	 * These are applied before the ItemConvertingEvent is invoked.
+	 * 
+	 * @return The item conversions.
+	 */
+	public ItemLookup getItemLookup() {
+		return itemLookup;
+	}
+
+	/**
+	 * Register a chunk conversion provider with normal priority.
+	 * 
+	 * @param plugin - the owner plugin.
+	 * @param provider - the provider to register.
+	 */
+	public void registerProvider(Plugin plugin, ChunkConversionProvider provider) {
+		registerProvider(plugin, provider, EventPriority.NORMAL);
+	}
+
+	/**
+	 * Register a chunk conversion provider.
+	 * <p>
+	 * Providers are invoked in priority order, and in registration order within the same priority. They are
+	 * automatically unregistered when the owner plugin is disabled.
+	 * 
+	 * @param plugin - the owner plugin.
+	 * @param provider - the provider to register.
+	 * @param priority - the priority of the provider.
+	 */
+	public synchronized void registerProvider(Plugin plugin, ChunkConversionProvider provider, EventPriority priority) {
+		RegisteredProvider registered = new RegisteredProvider(plugin, provider, priority);
+		int index = 0;
+
+		// Insert after every provider with the same or lower priority
+		while (index < providers.size() && providers.get(index).getPriority().ordinal() <= priority.ordinal()) {
+			index++;
+		}
+		providers.add(index, registered);
+	}
+
+	/**
+	 * Unregister a chunk conversion provider.
+	 * 
+	 * @param provider - the provider to unregister.
+	 * @return TRUE if the provider was unregistered, FALSE if it was never registered.
+	 */
+	public synchronized boolean unregisterProvider(ChunkConversionProvider provider) {
+		for (RegisteredProvider registered : providers) {
+			if (registered.getProvider() == provider) {
+				return providers.remove(registered);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Unregister every chunk conversion provider registered by the given plugin.
+	 * 
+	 * @param plugin - the owner plugin.
+	 */
+	public synchronized void unregisterProviders(Plugin plugin) {
+		for (RegisteredProvider registered : providers) {
+			if (registered.getPlugin() == plugin) {
+				providers.remove(registered);
+			}
+		}
+	}
+
+	/**
+	 * Retrieve every registered chunk conversion provider in the order they are invoked.
+	 * <p>
+	 * The returned list is read-only, and can safely be iterated from any thread.
+	 * 
+	 * @return Every registered provider.
+	 */
+	public List<RegisteredProvider> getProviders() {
+		return Collections.unmodifiableList(providers);
+	}
+
+	/**
+	 * Retrieve the number of times this lookup table has been modified through the API.
+	 * <p>
+	 * Note that modifications made directly to a segment view are not counted.
+	 * 
+	 * @return The modification count.
+	 */
+	public int getModificationCount() {
+		return modificationCount.get();
+	}
+
+	@Override
+	public void setBlockLookup(int blockID, int newBlockID) {
+		super.setBlockLookup(blockID, newBlockID);
+		modificationCount.incrementAndGet();
+	}
+
+	@Override
+	public void setBlockLookup(int blockID, int newBlockID, int chunkY) {
+		super.setBlockLookup(blockID, newBlockID, chunkY);
+		modificationCount.incrementAndGet();
+	}
+
+	@Override
+	public void setDataLookup(int blockID, int originalDataValue, int newDataValue) {
+		super.setDataLookup(blockID, originalDataValue, newDataValue);
+		modificationCount.incrementAndGet();
+	}
+
+	@Override
+	public void setDataLookup(int blockID, int originalDataValue, int newDataValue, int chunkY) {
+		super.setDataLookup(blockID, originalDataValue, newDataValue, chunkY);
+		modificationCount.incrementAndGet();
 	}
 
 	/**
@@ -0,0 +1,162 @@
+package com.comphenix.blockpatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import com.comphenix.blockpatcher.metrics.LatencySummary;
+import com.comphenix.blockpatcher.metrics.TranslationMetrics;
+
+/**
+ * Handles the /blockpatcher command.
+ */
+class PatcherCommand implements CommandExecutor {
+	// Capture files are stored in this folder of the data folder
+	private static final String CAPTURE_FOLDER = "captures";
+
+	private final PatcherMod plugin;
+	private final ConversionCache cache;
+	private final TranslationPool pool;
+	private final TranslationMetrics metrics;
+
+	public PatcherCommand(PatcherMod plugin, ConversionCache cache, TranslationPool pool, TranslationMetrics metrics) {
+		this.plugin = plugin;
+		this.cache = cache;
+		this.pool = pool;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+		if (args.length == 1 && args[0].equalsIgnoreCase("status")) {
+			sendStatus(sender);
+			return true;
+		} else if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+			sendStats(sender);
+			return true;
+		} else if (args.length == 2 && args[0].equalsIgnoreCase("stats") && args[1].equalsIgnoreCase("reset")) {
+			metrics.reset();
+			sender.sendMessage(ChatColor.GOLD + "BlockPatcher metrics reset.");
+			return true;
+		} else if (args.length >= 2 && args.length <= 3 && args[0].equalsIgnoreCase("capture")) {
+			if (args[1].equalsIgnoreCase("start"))
+				return startCapture(sender, args.length == 3 ? args[2] : null);
+			if (args[1].equalsIgnoreCase("stop") && args.length == 2)
+				return stopCapture(sender);
+		}
+		return false;
+	}
+
+	private void sendStatus(CommandSender sender) {
+		sender.sendMessage(ChatColor.GOLD + "BlockPatcher status:");
+		sender.sendMessage(ChatColor.YELLOW + " Translation workers: " + ChatColor.WHITE + pool.getWorkerCount() +
+				" (min " + pool.getMinWorkers() + ", max " + pool.getMaxWorkers() + "), " + pool.getBusyCount() + " busy, " +
+				Math.round(pool.getUtilization() * 100) + "% utilized");
+		sender.sendMessage(ChatColor.YELLOW + " Translation queue: " + ChatColor.WHITE + pool.getQueueSize() + " pending, " +
+				pool.getThrottledSize() + " throttled, " + pool.getCompletedTasks() + " completed");
+		sendThrottled(sender);
+		sender.sendMessage(ChatColor.YELLOW + " Conversion cache: " + ChatColor.WHITE + cache.getLookupCount() + " lookups, " +
+				formatMegabytes(cache.getMemoryUsage()) + " of " +
+				(cache.getMemoryLimit() > 0 ? formatMegabytes(cache.getMemoryLimit()) : "unlimited"));
+
+		PacketRecorder recorder = plugin.getCapture();
+
+		if (recorder != null) {
+			sender.sendMessage(ChatColor.YELLOW + " Capture: " + ChatColor.WHITE + recorder.getFile().getName() + ", " +
+					recorder.getRecordedCount() + " packets, " + recorder.getDroppedCount() + " dropped" +
+					(recorder.getFailure() != null ? ChatColor.RED + ", failed: " + recorder.getFailure().getMessage() : ""));
+		}
+	}
+
+	private void sendStats(CommandSender sender) {
+		if (!metrics.isEnabled()) {
+			sender.sendMessage(ChatColor.RED + "Metrics are disabled. Set metrics.enabled to true in the configuration.");
+			return;
+		}
+		sender.sendMessage(ChatColor.GOLD + "BlockPatcher translation latencies (ms):");
+
+		for (Map.Entry<String, LatencySummary> entry : metrics.getLatencies().entrySet()) {
+			LatencySummary summary = entry.getValue();
+
+			sender.sendMessage(ChatColor.YELLOW + " " + entry.getKey() + ": " + ChatColor.WHITE + String.format(
+					"%d, mean %.2f, p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f", summary.getCount(),
+					summary.getMean() / 1000, summary.getP50() / 1000, summary.getP90() / 1000, summary.getP99() / 1000,
+					summary.getP999() / 1000, summary.getMax() / 1000));
+		}
+		long lookups = metrics.getCacheHits() + metrics.getCacheMisses();
+
+		sender.sendMessage(ChatColor.YELLOW + " Chunk data: " + ChatColor.WHITE + formatMegabytes(metrics.getBytesIn()) + " in, " +
+				formatMegabytes(metrics.getBytesOut()) + " out");
+		sender.sendMessage(ChatColor.YELLOW + " Shared lookups: " + ChatColor.WHITE + metrics.getCacheHits() + " hits, " +
+				metrics.getCacheMisses() + " misses" + (lookups > 0 ? " (" + Math.round(100.0 * metrics.getCacheHits() / lookups) + "% hit rate)" : ""));
+	}
+
+	private boolean startCapture(CommandSender sender, String name) {
+		if (name == null) {
+			name = "capture-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".bpc";
+		} else if (!name.matches("[A-Za-z0-9_.-]+") || name.startsWith(".")) {
+			sender.sendMessage(ChatColor.RED + "Invalid file name: " + name);
+			return true;
+		}
+		File folder = new File(plugin.getDataFolder(), CAPTURE_FOLDER);
+
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			sender.sendMessage(ChatColor.RED + "Cannot create " + folder);
+			return true;
+		}
+
+		try {
+			PacketRecorder recorder = plugin.startCapture(new File(folder, name));
+			sender.sendMessage(ChatColor.GOLD + "Capturing packets to " + recorder.getFile().getPath());
+		} catch (IllegalStateException e) {
+			sender.sendMessage(ChatColor.RED + e.getMessage());
+		} catch (IOException e) {
+			plugin.getLogger().log(Level.WARNING, "Cannot start capture.", e);
+			sender.sendMessage(ChatColor.RED + "Cannot start capture: " + e.getMessage());
+		}
+		return true;
+	}
+
+	private boolean stopCapture(CommandSender sender) {
+		PacketRecorder recorder = plugin.stopCapture();
+
+		if (recorder != null && recorder.getFailure() != null) {
+			sender.sendMessage(ChatColor.RED + "Capture failed after " + recorder.getRecordedCount() + " packets to " +
+					recorder.getFile().getPath() + ": " + recorder.getFailure().getMessage());
+		} else if (recorder != null) {
+			sender.sendMessage(ChatColor.GOLD + "Captured " + recorder.getRecordedCount() + " packets to " +
+					recorder.getFile().getPath() + " (" + recorder.getDroppedCount() + " dropped)");
+		} else {
+			sender.sendMessage(ChatColor.RED + "No capture is running.");
+		}
+		return true;
+	}
+
+	private void sendThrottled(CommandSender sender) {
+		Map<Player, Integer> throttled = pool.getThrottledPlayers();
+
+		if (throttled.isEmpty())
+			return;
+		StringBuilder builder = new StringBuilder();
+
+		for (Map.Entry<Player, Integer> entry : throttled.entrySet()) {
+			if (builder.length() > 0)
+				builder.append(", ");
+			builder.append(entry.getKey().getName()).append(" (").append(entry.getValue()).append(")");
+		}
+		sender.sendMessage(ChatColor.YELLOW + " Throttled players: " + ChatColor.WHITE + builder);
+	}
+
+	private String formatMegabytes(long bytes) {
+		return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+	}
+}
@@ -0,0 +1,246 @@
+package com.comphenix.blockpatcher;
+
+import java.util.List;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import com.comphenix.blockpatcher.lookup.ItemLookup;
+
+/**
+ * Represents the configuration file of BlockPatcher.
+ */
+class PatcherConfig {
+	private static final String CACHE_SECTION = "cache";
+	private static final String CACHE_MEMORY_LIMIT = "memory-limit";
+	private static final String CACHE_CHECK_INTERVAL = "check-interval";
+
+	private static final String TRANSLATION_SECTION = "translation";
+	private static final String TRANSLATION_MIN_WORKERS = "min-workers";
+	private static final String TRANSLATION_MAX_WORKERS = "max-workers";
+	private static final String TRANSLATION_IDLE_TIMEOUT = "idle-timeout";
+	private static final String TRANSLATION_SHUTDOWN_TIMEOUT = "shutdown-timeout";
+	private static final String TRANSLATION_PLAYER_RATE = "player-rate";
+	private static final String TRANSLATION_PLAYER_BURST = "player-burst";
+
+	private static final String BLOCK_CHANGES_SECTION = "block-changes";
+	private static final String BLOCK_CHANGES_COALESCE = "coalesce";
+	private static final String BLOCK_CHANGES_RESEND_THRESHOLD = "resend-threshold";
+
+	private static final String ITEMS_SECTION = "items";
+	private static final String ITEMS_FROM_BLOCKS = "from-blocks";
+	private static final String ITEMS_CONVERSIONS = "conversions";
+	private static final String ITEMS_CACHE_WINDOWS = "cache-windows";
+
+	private static final String EVENTS_SECTION = "events";
+	private static final String EVENTS_POOL = "pool";
+	private static final String EVENTS_POOL_DEBUG = "pool-debug";
+
+	private static final String METRICS_SECTION = "metrics";
+	private static final String METRICS_ENABLED = "enabled";
+
+	private final ConfigurationSection config;
+
+	public PatcherConfig(ConfigurationSection config) {
+		this.config = config;
+	}
+
+	/**
+	 * Retrieve the maximum number of bytes the conversion cache may use.
+	 * 
+	 * @return The maximum number of bytes, or zero if unlimited.
+	 */
+	public long getCacheMemoryLimit() {
+		return Math.max(0, getSection(CACHE_SECTION).getLong(CACHE_MEMORY_LIMIT, 0)) * 1024 * 1024;
+	}
+
+	/**
+	 * Retrieve the number of ticks between each check of the cache memory limit.
+	 * 
+	 * @return Number of ticks.
+	 */
+	public int getCacheCheckInterval() {
+		return Math.max(1, getSection(CACHE_SECTION).getInt(CACHE_CHECK_INTERVAL, 100));
+	}
+
+	/**
+	 * Retrieve the maximum number of translation workers, which never exceeds the number of available processors.
+	 * 
+	 * @return The maximum number of workers.
+	 */
+	public int getMaxWorkers() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		int workers = getSection(TRANSLATION_SECTION).getInt(TRANSLATION_MAX_WORKERS, 0);
+
+		if (workers <= 0)
+			return processors;
+		return Math.min(workers, processors);
+	}
+
+	/**
+	 * Retrieve the minimum number of translation workers, which never exceeds the maximum.
+	 * 
+	 * @return The minimum number of workers.
+	 */
+	public int getMinWorkers() {
+		int workers = getSection(TRANSLATION_SECTION).getInt(TRANSLATION_MIN_WORKERS, 2);
+		return Math.max(1, Math.min(workers, getMaxWorkers()));
+	}
+
+	/**
+	 * Retrieve the number of milliseconds an extra translation worker may be idle before it is stopped.
+	 * 
+	 * @return Number of milliseconds.
+	 */
+	public long getWorkerIdleTimeout() {
+		return Math.max(1, getSection(TRANSLATION_SECTION).getInt(TRANSLATION_IDLE_TIMEOUT, 30)) * 1000L;
+	}
+
+	/**
+	 * Retrieve the number of milliseconds the translation workers may spend on the queued packets when the plugin is
+	 * disabled.
+	 * 
+	 * @return Number of milliseconds.
+	 */
+	public long getWorkerShutdownTimeout() {
+		return Math.max(0, getSection(TRANSLATION_SECTION).getInt(TRANSLATION_SHUTDOWN_TIMEOUT, 5)) * 1000L;
+	}
+
+	/**
+	 * Retrieve the maximum number of chunks translated per second for each player.
+	 * 
+	 * @return Number of chunks per second, or zero if unlimited.
+	 */
+	public double getPlayerRate() {
+		return Math.max(0, getSection(TRANSLATION_SECTION).getDouble(TRANSLATION_PLAYER_RATE, 0));
+	}
+
+	/**
+	 * Retrieve the number of chunks that may be translated at once for a player, before the rate limit applies.
+	 * 
+	 * @return Number of chunks.
+	 */
+	public int getPlayerBurst() {
+		return Math.max(1, getSection(TRANSLATION_SECTION).getInt(TRANSLATION_PLAYER_BURST, 500));
+	}
+
+	/**
+	 * Determine if block changes should be gathered and sent once per tick and chunk.
+	 * 
+	 * @return TRUE if they should, FALSE otherwise.
+	 */
+	public boolean isCoalescingBlockChanges() {
+		return getSection(BLOCK_CHANGES_SECTION).getBoolean(BLOCK_CHANGES_COALESCE, false);
+	}
+
+	/**
+	 * Retrieve the number of block changes in a chunk and tick above which the modified chunk sections are resent.
+	 * 
+	 * @return Number of block changes.
+	 */
+	public int getResendThreshold() {
+		return Math.max(1, getSection(BLOCK_CHANGES_SECTION).getInt(BLOCK_CHANGES_RESEND_THRESHOLD, 128));
+	}
+
+	/**
+	 * Determine if block items should be converted like the blocks in the global lookup table.
+	 * 
+	 * @return TRUE if they should, FALSE otherwise.
+	 */
+	public boolean isItemsFromBlocks() {
+		return getSection(ITEMS_SECTION).getBoolean(ITEMS_FROM_BLOCKS, false);
+	}
+
+	/**
+	 * Determine if the converted contents of each window should be reused for every unchanged slot.
+	 * 
+	 * @return TRUE if they should, FALSE otherwise.
+	 */
+	public boolean isCacheWindows() {
+		return getSection(ITEMS_SECTION).getBoolean(ITEMS_CACHE_WINDOWS, false);
+	}
+
+	/**
+	 * Retrieve every configured item conversion, in the format "item[:durability] -&gt; item[:durability]".
+	 * 
+	 * @return The item conversions.
+	 */
+	public List<String> getItemConversions() {
+		return getSection(ITEMS_SECTION).getStringList(ITEMS_CONVERSIONS);
+	}
+
+	/**
+	 * Parse and register an item conversion in the format "item[:durability] -&gt; item[:durability]".
+	 * <p>
+	 * A new durability can only be specified along with the original durability.
+	 * 
+	 * @param conversion - the item conversion.
+	 * @param lookup - the lookup to register the conversion with.
+	 * @throws IllegalArgumentException If the conversion is malformed.
+	 */
+	public static void parseItemConversion(String conversion, ItemLookup lookup) {
+		String[] sides = conversion.split("->");
+
+		if (sides.length != 2)
+			throw new IllegalArgumentException("Expected item[:durability] -> item[:durability], but got " + conversion);
+
+		int[] from = parseItem(sides[0]);
+		int[] to = parseItem(sides[1]);
+
+		if (from[1] >= 0) {
+			lookup.setItem(from[0], from[1], to[0], to[1] >= 0 ? to[1] : from[1]);
+		} else if (to[1] < 0) {
+			lookup.setItem(from[0], to[0]);
+		} else {
+			throw new IllegalArgumentException("Cannot convert every durability to a single durability in " + conversion);
+		}
+	}
+
+	private static int[] parseItem(String item) {
+		String[] parts = item.trim().split(":");
+
+		try {
+			if (parts.length == 1)
+				return new int[] { Integer.parseInt(parts[0].trim()), -1 };
+			if (parts.length == 2)
+				return new int[] { Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()) };
+		} catch (NumberFormatException e) {
+			// Handled below
+		}
+		throw new IllegalArgumentException("Expected item[:durability], but got " + item.trim());
+	}
+
+	/**
+	 * Determine if event objects should be reused on each thread.
+	 * 
+	 * @return TRUE if they should, FALSE otherwise.
+	 */
+	public boolean isEventPoolEnabled() {
+		return getSection(EVENTS_SECTION).getBoolean(EVENTS_POOL, false);
+	}
+
+	/**
+	 * Determine if pooled events should be expired after use, in order to detect plugins that retain them.
+	 * 
+	 * @return TRUE if they should, FALSE otherwise.
+	 */
+	public boolean isEventPoolDebug() {
+		return getSection(EVENTS_SECTION).getBoolean(EVENTS_POOL_DEBUG, false);
+	}
+
+	/**
+	 * Determine if translation latencies and counters should be recorded.
+	 * 
+	 * @return TRUE if they should, FALSE otherwise.
+	 */
+	public boolean isMetricsEnabled() {
+		return getSection(METRICS_SECTION).getBoolean(METRICS_ENABLED, false);
+	}
+
+	private ConfigurationSection getSection(String name) {
+		ConfigurationSection section = config.getConfigurationSection(name);
+
+		if (section == null)
+			throw new IllegalStateException("Missing section " + name + " in the configuration.");
+		return section;
+	}
+}
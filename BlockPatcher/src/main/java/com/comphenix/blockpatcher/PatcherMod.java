@@ -19,9 +19,26 @@
  */
 package com.comphenix.blockpatcher;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.comphenix.blockpatcher.events.EventPool;
+import com.comphenix.blockpatcher.metrics.TranslationMetrics;
 
-public class PatcherMod extends JavaPlugin {
+public class PatcherMod extends JavaPlugin implements Listener {
 
 	private EventScheduler scheduler;
 	private Calculations calculations;
@@ -31,6 +48,15 @@ public class PatcherMod extends JavaPlugin {
 	private static PatcherAPI api;
 
 	private BlockMismatchFixer fixer;
+	private CacheEvictionTask evictionTask;
+	private TranslationPool translationPool;
+	private PlayerPositions positions;
+	private ItemEntities itemEntities;
+	private BlockChangeCoalescer coalescer;
+	private PacketRecorder recorder;
+	private TranslationMetrics metrics;
+	private BukkitTask samplingTask;
+	private PatcherConfig config;
 
 	/**
 	 * Retrieve an instance of the API.
@@ -58,15 +84,170 @@ public class PatcherMod extends JavaPlugin {
 
 	@Override
 	public void onEnable() {
-		scheduler = new EventScheduler(getServer().getPluginManager());
-		calculations = new Calculations(cache, scheduler);
-		listeners = new PacketListeners(this, scheduler);
+		saveDefaultConfig();
+		config = new PatcherConfig(getConfig());
+		cache.setMemoryLimit(config.getCacheMemoryLimit());
+
+		scheduler = new EventScheduler(getServer().getPluginManager(), api, createEventPool());
+		scheduler.setItemsFromBlocks(config.isItemsFromBlocks());
+		scheduler.setCacheWindows(config.isCacheWindows());
+		loadItemConversions();
+		metrics = createMetrics();
+		calculations = new Calculations(cache, scheduler, api.getRules(), metrics);
+		positions = new PlayerPositions(this);
+		translationPool = new TranslationPool(getLogger(), positions, config.getMinWorkers(), config.getMaxWorkers(), config.getWorkerIdleTimeout());
+		translationPool.setPlayerLimit(config.getPlayerRate(), config.getPlayerBurst());
+		itemEntities = new ItemEntities(this, calculations);
+		listeners = new PacketListeners(this, scheduler, translationPool, itemEntities, metrics);
 		listeners.registerEvents(calculations);
 		fixer = new BlockMismatchFixer(this, cache);
+		coalescer = createCoalescer();
+		evictionTask = new CacheEvictionTask(this, cache, config.getCacheCheckInterval());
+
+		getServer().getPluginManager().registerEvents(this, this);
+		getCommand("blockpatcher").setExecutor(new PatcherCommand(this, cache, translationPool, metrics));
+
+		// Measure worker utilization every second
+		samplingTask = getServer().getScheduler().runTaskTimerAsynchronously(this, new Runnable() {
+			@Override
+			public void run() {
+				translationPool.sample();
+			}
+		}, 20, 20);
+	}
+
+	private EventPool createEventPool() {
+		// Debugging implies that the pool is enabled
+		if (config.isEventPoolDebug()) {
+			getLogger().info("Event pool debugging enabled. Plugins that retain events will cause errors.");
+			return new EventPool(true);
+		} else if (config.isEventPoolEnabled()) {
+			return new EventPool(false);
+		}
+		return null;
+	}
+
+	private TranslationMetrics createMetrics() {
+		TranslationMetrics result = new TranslationMetrics(config.isMetricsEnabled());
+
+		if (result.isEnabled()) {
+			try {
+				result.register();
+			} catch (IllegalStateException e) {
+				getLogger().log(Level.WARNING, "Cannot expose metrics over JMX.", e);
+			}
+		}
+		return result;
+	}
+
+	private void loadItemConversions() {
+		for (String conversion : config.getItemConversions()) {
+			try {
+				PatcherConfig.parseItemConversion(conversion, api.getItemLookup());
+			} catch (IllegalArgumentException e) {
+				getLogger().warning("Invalid item conversion: " + e.getMessage());
+			}
+		}
+	}
+
+	private BlockChangeCoalescer createCoalescer() {
+		if (config.isCoalescingBlockChanges()) {
+			try {
+				return new BlockChangeCoalescer(this, config.getResendThreshold());
+			} catch (IllegalStateException e) {
+				getLogger().warning(e.getMessage());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Start recording the chunk and block change packets sent to every player. A capture that has failed is replaced.
+	 * 
+	 * @param file - the file to write.
+	 * @return The new recorder.
+	 * @throws IOException If the file could not be created.
+	 * @throws IllegalStateException If a capture is already running, or the server version is not supported.
+	 */
+	synchronized PacketRecorder startCapture(File file) throws IOException {
+		if (recorder != null && recorder.getFailure() == null)
+			throw new IllegalStateException("Already capturing to " + recorder.getFile().getName());
+		stopCapture();
+		return recorder = new PacketRecorder(this, file);
+	}
+
+	/**
+	 * Stop the current capture, if any.
+	 * 
+	 * @return The stopped recorder, or NULL if no capture was running.
+	 */
+	synchronized PacketRecorder stopCapture() {
+		PacketRecorder stopped = recorder;
+
+		if (stopped != null) {
+			stopped.close();
+			recorder = null;
+		}
+		return stopped;
+	}
+
+	/**
+	 * Retrieve the current capture.
+	 * 
+	 * @return The current recorder, or NULL if no capture is running.
+	 */
+	synchronized PacketRecorder getCapture() {
+		return recorder;
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerChangedWorld(PlayerChangedWorldEvent e) {
+		// Chunks from the previous world are no longer needed
+		cache.clearCache(e.getPlayer(), e.getFrom());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerQuit(PlayerQuitEvent e) {
+		final Player player = e.getPlayer();
+		cache.removePlayer(player);
+
+		// The player is still online during this event, so a queued translation may create a new cache in the meantime
+		getServer().getScheduler().runTask(this, new Runnable() {
+			@Override
+			public void run() {
+				cache.removePlayer(player);
+			}
+		});
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPluginDisable(PluginDisableEvent e) {
+		api.unregisterProviders(e.getPlugin());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onChunkUnload(ChunkUnloadEvent e) {
+		// Shared lookups are recomputed the next time the chunk is sent
+		cache.removeSharedCache(e.getWorld(), e.getChunk().getX(), e.getChunk().getZ());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnload(WorldUnloadEvent e) {
+		cache.clearSharedCache(e.getWorld());
 	}
 
 	@Override
 	public void onDisable() {
 		fixer.close();
+		stopCapture();
+		// The remaining block changes must be translated before the pool is closed
+		if (coalescer != null)
+			coalescer.close();
+		evictionTask.close();
+		samplingTask.cancel();
+		translationPool.close(config.getWorkerShutdownTimeout());
+		positions.close();
+		itemEntities.close();
+		metrics.unregister();
 	}
 }
@@ -0,0 +1,165 @@
+package com.comphenix.blockpatcher;
+
+import static com.comphenix.protocol.PacketType.Play.Client.LOOK;
+import static com.comphenix.protocol.PacketType.Play.Client.POSITION;
+import static com.comphenix.protocol.PacketType.Play.Client.POSITION_LOOK;
+
+import java.util.concurrent.ConcurrentMap;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.plugin.Plugin;
+
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.events.PacketAdapter;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.events.PacketEvent;
+import com.comphenix.protocol.utility.MinecraftVersion;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Caches the last known position and facing of every player, so it can be read from any thread.
+ * <p>
+ * The cache is updated from the position packets sent by each client, along with teleports and respawns.
+ */
+class PlayerPositions {
+	/**
+	 * The priority of a chunk whose distance is unknown.
+	 */
+	public static final int UNKNOWN_PRIORITY = Integer.MAX_VALUE;
+
+	// Pre-1.8 position packets include the stance between y and z
+	private static final int Z_INDEX = MinecraftVersion.getCurrentVersion().isAtLeast(MinecraftVersion.BOUNTIFUL_UPDATE) ? 2 : 3;
+
+	/**
+	 * The last known position of a player. Each field may be updated independently.
+	 */
+	private static class Position {
+		private volatile double x;
+		private volatile double z;
+		private volatile float yaw;
+	}
+
+	private final ConcurrentMap<Player, Position> positions = new MapMaker().weakKeys().makeMap();
+
+	private Plugin plugin;
+	private PacketAdapter packetListener;
+	private Listener bukkitListener;
+
+	public PlayerPositions(Plugin plugin) {
+		this.plugin = plugin;
+		registerPacketListener();
+		registerBukkitListener();
+	}
+
+	private void registerPacketListener() {
+		// Executed on the network threads
+		ProtocolLibrary.getProtocolManager().addPacketListener(packetListener = new PacketAdapter(plugin, POSITION, POSITION_LOOK, LOOK) {
+			@Override
+			public void onPacketReceiving(PacketEvent event) {
+				PacketContainer packet = event.getPacket();
+				Position position = getPosition(event.getPlayer());
+
+				if (event.getPacketType() != LOOK) {
+					position.x = packet.getDoubles().read(0);
+					position.z = packet.getDoubles().read(Z_INDEX);
+				}
+				if (event.getPacketType() != POSITION) {
+					position.yaw = packet.getFloat().read(0);
+				}
+			}
+		});
+	}
+
+	private void registerBukkitListener() {
+		plugin.getServer().getPluginManager().registerEvents(bukkitListener = new Listener() {
+			@EventHandler(priority = EventPriority.MONITOR)
+			public void onPlayerJoin(PlayerJoinEvent e) {
+				update(e.getPlayer(), e.getPlayer().getLocation());
+			}
+
+			@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+			public void onPlayerTeleport(PlayerTeleportEvent e) {
+				update(e.getPlayer(), e.getTo());
+			}
+
+			@EventHandler(priority = EventPriority.MONITOR)
+			public void onPlayerRespawn(PlayerRespawnEvent e) {
+				update(e.getPlayer(), e.getRespawnLocation());
+			}
+		}, plugin);
+	}
+
+	private void update(Player player, Location location) {
+		Position position = getPosition(player);
+		position.x = location.getX();
+		position.z = location.getZ();
+		position.yaw = location.getYaw();
+	}
+
+	private Position getPosition(Player player) {
+		Position position = positions.get(player);
+
+		if (position == null) {
+			position = new Position();
+			Position previous = positions.putIfAbsent(player, position);
+
+			if (previous != null)
+				position = previous;
+		}
+		return position;
+	}
+
+	/**
+	 * Compute the priority of sending the given chunk to the given player. Lower values are more important.
+	 * <p>
+	 * The priority is the distance from the chunk the player is standing in, in sixteenths of a chunk. It is increased
+	 * by up to 100% for chunks behind the player.
+	 * 
+	 * @param player - the player.
+	 * @param chunkX - the chunk x position.
+	 * @param chunkZ - the chunk z position.
+	 * @return The priority, or {@link #UNKNOWN_PRIORITY} if the position of the player is unknown.
+	 */
+	public int getChunkPriority(Player player, int chunkX, int chunkZ) {
+		Position position = positions.get(player);
+
+		if (position == null)
+			return UNKNOWN_PRIORITY;
+
+		int dx = chunkX - floorChunk(position.x);
+		int dz = chunkZ - floorChunk(position.z);
+
+		if (dx == 0 && dz == 0)
+			return 0;
+
+		double distance = Math.sqrt(dx * dx + dz * dz);
+		double yaw = Math.toRadians(position.yaw);
+
+		// Cosine of the angle between the facing direction and the chunk - from 1 (in front) to -1 (behind)
+		double facing = (-Math.sin(yaw) * dx + Math.cos(yaw) * dz) / distance;
+		return (int) (distance * (1.5 - 0.5 * facing) * 16);
+	}
+
+	private static int floorChunk(double coordinate) {
+		return (int) Math.floor(coordinate) >> 4;
+	}
+
+	/**
+	 * Close this resource.
+	 */
+	public void close() {
+		if (plugin != null) {
+			ProtocolLibrary.getProtocolManager().removePacketListener(packetListener);
+			HandlerList.unregisterAll(bukkitListener);
+			plugin = null;
+		}
+	}
+}
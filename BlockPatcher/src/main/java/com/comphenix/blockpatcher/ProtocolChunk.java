@@ -8,6 +8,7 @@ import java.io.IOException;
 
 import org.apache.commons.lang3.Validate;
 
+import com.comphenix.blockpatcher.lookup.CompiledLookup;
 import com.comphenix.protocol.utility.StreamSerializer;
 
 /**
@@ -113,6 +114,45 @@ public class ProtocolChunk {
 		}
 	}
 	
+	/**
+	 * Replaces every block id according to given block lookup table.
+	 * Every data value of a block is replaced, and keeps its data value.
+	 * The chunk is translated in a single pass, so replacements are
+	 * never chained.
+	 * @param blockLookup New block id for each block id.
+	 */
+	public void replaceAll(byte[] blockLookup) {
+		char[] table = new char[CompiledLookup.TABLE_SIZE];
+		boolean identity = true;
+		
+		for (int i = 0; i < table.length; i++) {
+			int block = i >> 4;
+			int value = block < blockLookup.length ? blockLookup[block] & 0xFF : block;
+			table[i] = (char) getProtocolId(value, i & 0xF);
+			identity &= value == block;
+		}
+		
+		if (!identity) {
+			for (int i = 0; i < sections.length; i++) {
+				if ((chunkMask & 1 << i) > 0)
+					sections[i].replaceAll(table);
+			}
+		}
+	}
+	
+	/**
+	 * Replaces every block according to the compiled lookup table of its
+	 * section, including the data value. Every section is translated in a
+	 * single pass, so replacements are never chained.
+	 * @param lookup Compiled lookup with a table for each section.
+	 */
+	public void replaceAll(CompiledLookup lookup) {
+		for (int i = 0; i < sections.length; i++) {
+			if ((chunkMask & 1 << i) > 0 && !lookup.isIdentity(i))
+				sections[i].replaceAll(lookup.getTable(i));
+		}
+	}
+	
 	/**
 	 * Chunk section, aka 16x16x16 (4096) blocks. Remember to call
 	 * {@link #read()} first, it parses the data to usable form.
@@ -313,6 +353,30 @@ public class ProtocolChunk {
 			}
 		}
 		
+		/**
+		 * Replaces every block through the given table, in a single pass.
+		 * Sections with a palette only have their palette translated.
+		 * Uses protocol block ids, and ids outside the table are left
+		 * unchanged.
+		 * @param table New protocol block id for each protocol block id.
+		 */
+		public void replaceAll(char[] table) {
+			if (bitsPerBlock <= 8) {
+				int paletteLength = palette.length - paletteFree;
+				for (int i = 0; i < paletteLength; i++) {
+					int block = palette[i];
+					if (block >= 0 && block < table.length)
+						palette[i] = table[block];
+				}
+			} else {
+				for (int i = 0; i < BIT_ARRAY_SIZE; i++) {
+					int block = getAt(i);
+					if (block < table.length && table[block] != block)
+						setAt(i, table[block]);
+				}
+			}
+		}
+		
 	    /**
 	     * Sets the entry at the given location to the given value
 	     */
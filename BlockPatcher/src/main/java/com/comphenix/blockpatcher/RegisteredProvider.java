@@ -0,0 +1,59 @@
+package com.comphenix.blockpatcher;
+
+import org.bukkit.event.EventPriority;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Represents a registered chunk conversion provider.
+ * <p>
+ * This class is immutable and thus thread safe.
+ */
+public final class RegisteredProvider {
+	private final Plugin plugin;
+	private final ChunkConversionProvider provider;
+	private final EventPriority priority;
+
+	public RegisteredProvider(Plugin plugin, ChunkConversionProvider provider, EventPriority priority) {
+		if (plugin == null)
+			throw new IllegalArgumentException("Plugin cannot be NULL.");
+		if (provider == null)
+			throw new IllegalArgumentException("Provider cannot be NULL.");
+		if (priority == null)
+			throw new IllegalArgumentException("Priority cannot be NULL.");
+		this.plugin = plugin;
+		this.provider = provider;
+		this.priority = priority;
+	}
+
+	/**
+	 * Retrieve the plugin that registered the provider.
+	 * 
+	 * @return The owner plugin.
+	 */
+	public Plugin getPlugin() {
+		return plugin;
+	}
+
+	/**
+	 * Retrieve the registered provider.
+	 * 
+	 * @return The provider.
+	 */
+	public ChunkConversionProvider getProvider() {
+		return provider;
+	}
+
+	/**
+	 * Retrieve the priority of the provider. Providers with a lower priority are invoked first.
+	 * 
+	 * @return The priority.
+	 */
+	public EventPriority getPriority() {
+		return priority;
+	}
+
+	@Override
+	public String toString() {
+		return "RegisteredProvider[plugin=" + plugin.getName() + ", provider=" + provider + ", priority=" + priority + "]";
+	}
+}
@@ -0,0 +1,753 @@
+package com.comphenix.blockpatcher;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.entity.Player;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * A pool of worker threads that translate packets asynchronously.
+ * <p>
+ * Every player has a separate lane, and the tasks of a lane are executed one at a time in the order they were
+ * submitted. A packet is therefore always translated with the conversion cache as it was left by the packets sent before
+ * it. Different lanes are executed in parallel, and the workers take turns serving each lane, so a single player that
+ * receives hundreds of chunks cannot delay every other player.
+ * <p>
+ * Consecutive chunk tasks of a lane are the exception. They are executed in order of their distance from the player and
+ * the direction the player is facing, as given by the last known position, so nearby terrain is translated before the
+ * far edge of the view distance. A chunk is never translated before an earlier task of the same chunk, and no chunk task
+ * passes any other kind of task.
+ * <p>
+ * The pool starts with the minimum number of workers. A new worker is started whenever a lane is ready while every
+ * worker is busy, up to the maximum number of workers. Extra workers are stopped after they have been idle for a while.
+ * <p>
+ * The number of chunk tasks executed for each player may also be limited by a token bucket. Once a lane has used up
+ * every token, its chunk tasks wait until enough tokens have been refilled. The other tasks of the lane are still
+ * executed in order, as long as they don't belong to a chunk that is waiting. Tasks that don't name a chunk wait for
+ * every earlier task.
+ * <p>
+ * Every submitted task is guaranteed to either run or be cancelled, even after the pool has been closed. This is
+ * required as the client will not receive any further packets until the task has signalled ProtocolLib. When the pool is
+ * closed, the workers are given a limited time to finish the queued tasks. Every task that is still queued after that
+ * is cancelled, or executed on the closing thread if it cannot be cancelled.
+ */
+class TranslationPool {
+	// The state of a lane
+	private static final int LANE_IDLE = 0;
+	private static final int LANE_READY = 1;
+	private static final int LANE_RUNNING = 2;
+	private static final int LANE_THROTTLED = 3;
+
+	/**
+	 * A task that can be cancelled if it is still queued when the pool is closed.
+	 */
+	public interface CancellableTask extends Runnable {
+		/**
+		 * Invoked instead of {@link #run()} when the pool is closed before the task could be executed.
+		 */
+		public void cancel();
+	}
+
+	/**
+	 * A queued task.
+	 */
+	private static class LaneTask {
+		private final Runnable task;
+
+		// The chunk the task belongs to, if any. Chunk tasks count towards the limit of the player.
+		private final Player player;
+		private final boolean limited;
+		private final boolean hasChunk;
+		private final int chunkX;
+		private final int chunkZ;
+
+		public LaneTask(Runnable task) {
+			this.task = task;
+			this.player = null;
+			this.limited = false;
+			this.hasChunk = false;
+			this.chunkX = 0;
+			this.chunkZ = 0;
+		}
+
+		public LaneTask(Runnable task, Player player, boolean limited, int chunkX, int chunkZ) {
+			this.task = task;
+			this.player = player;
+			this.limited = limited;
+			this.hasChunk = true;
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+		}
+
+		public long getChunkKey() {
+			return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+		}
+	}
+
+	/**
+	 * The queued tasks and token bucket of a single player.
+	 */
+	private static class Lane {
+		private final ArrayDeque<LaneTask> tasks = new ArrayDeque<LaneTask>();
+		private int state = LANE_IDLE;
+
+		// The task that is being executed
+		private LaneTask current;
+
+		// Token bucket
+		private double tokens;
+		private long lastRefill;
+
+		public Lane(double tokens, long now) {
+			this.tokens = tokens;
+			this.lastRefill = now;
+		}
+	}
+
+	private final Logger logger;
+	private final PlayerPositions positions;
+
+	// Guards every lane, and is used to wake up idle workers
+	private final Object lock = new Object();
+
+	// Lanes are kept while the player is online, so the token bucket is not reset when the lane is empty
+	private final Map<Player, Lane> lanes = new MapMaker().weakKeys().makeMap();
+
+	// Tasks that don't belong to any player
+	private final Lane sharedLane = new Lane(0, 0);
+
+	// Lanes with tasks that can be executed, in the order they will be served
+	private final ArrayDeque<Lane> ready = new ArrayDeque<Lane>();
+
+	// Lanes with a chunk task that is waiting for tokens, and no other task that can be executed
+	private final List<Lane> throttled = new ArrayList<Lane>();
+
+	private int queueSize;
+	private int runningSize;
+
+	// Tokens per nanosecond, or zero if unlimited
+	private double tokenRate;
+	private double tokenBurst;
+
+	private final int minWorkers;
+	private final int maxWorkers;
+	private final long idleTimeout;
+
+	// Number of started and busy workers
+	private final AtomicInteger workerCount = new AtomicInteger();
+	private final AtomicInteger busyCount = new AtomicInteger();
+	private final AtomicInteger nextWorkerId = new AtomicInteger();
+
+	// Statistics
+	private final AtomicLong busyNanos = new AtomicLong();
+	private final AtomicLong completedTasks = new AtomicLong();
+	private long lastSampleTime = System.nanoTime();
+	private long lastBusyNanos;
+	private volatile double utilization;
+
+	private volatile boolean closed;
+
+	/**
+	 * Construct a new translation pool.
+	 * 
+	 * @param logger - the logger used to report failing tasks.
+	 * @param positions - the positions used to prioritize chunk tasks, or NULL to execute them in order.
+	 * @param minWorkers - the minimum number of workers.
+	 * @param maxWorkers - the maximum number of workers.
+	 * @param idleTimeout - the number of milliseconds an extra worker may be idle before it is stopped.
+	 */
+	public TranslationPool(Logger logger, PlayerPositions positions, int minWorkers, int maxWorkers, long idleTimeout) {
+		if (minWorkers < 1)
+			throw new IllegalArgumentException("Must have at least one worker.");
+		if (maxWorkers < minWorkers)
+			throw new IllegalArgumentException("Maximum workers (" + maxWorkers + ") cannot be less than the minimum (" + minWorkers + ").");
+
+		this.logger = logger;
+		this.positions = positions;
+		this.minWorkers = minWorkers;
+		this.maxWorkers = maxWorkers;
+		this.idleTimeout = idleTimeout;
+
+		for (int i = 0; i < minWorkers; i++) {
+			workerCount.incrementAndGet();
+			startWorker();
+		}
+	}
+
+	/**
+	 * Limit the number of chunk tasks that may be executed for each player.
+	 * 
+	 * @param tasksPerSecond - the number of tasks per second, or zero to disable the limit.
+	 * @param burst - the number of tasks that may be executed at once, after the player has been idle.
+	 */
+	public void setPlayerLimit(double tasksPerSecond, int burst) {
+		if (tasksPerSecond < 0)
+			throw new IllegalArgumentException("Tasks per second cannot be negative.");
+		if (burst < 1)
+			throw new IllegalArgumentException("Burst must be at least one.");
+
+		synchronized (lock) {
+			tokenRate = tasksPerSecond / TimeUnit.SECONDS.toNanos(1);
+			tokenBurst = burst;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Queue the given task for translation in a lane shared by every player.
+	 * <p>
+	 * If the pool has been closed, the task is executed on the calling thread instead.
+	 * 
+	 * @param task - the task to execute.
+	 */
+	public void submit(Runnable task) {
+		submit(null, new LaneTask(task));
+	}
+
+	/**
+	 * Queue the given task for translation in the lane of the given player, after every earlier task.
+	 * <p>
+	 * If the pool has been closed, the task is executed on the calling thread instead.
+	 * 
+	 * @param player - the player the task is executed for, or NULL to use the shared lane.
+	 * @param task - the task to execute.
+	 */
+	public void submit(Player player, Runnable task) {
+		submit(player, new LaneTask(task));
+	}
+
+	/**
+	 * Queue the given task for translation in the lane of the given player, after every earlier task that is not a chunk
+	 * task of a different chunk.
+	 * <p>
+	 * If the pool has been closed, the task is executed on the calling thread instead.
+	 * 
+	 * @param player - the player the task is executed for.
+	 * @param task - the task to execute.
+	 * @param chunkX - the x coordinate of the chunk the task belongs to.
+	 * @param chunkZ - the z coordinate of the chunk the task belongs to.
+	 */
+	public void submit(Player player, Runnable task, int chunkX, int chunkZ) {
+		submit(player, new LaneTask(task, player, false, chunkX, chunkZ));
+	}
+
+	/**
+	 * Queue the given chunk task for translation in the lane of the given player.
+	 * <p>
+	 * The task counts towards the limit of the player, and may be executed before earlier chunk tasks of chunks that
+	 * are further away. If the pool has been closed, the task is executed on the calling thread instead.
+	 * 
+	 * @param player - the player the task is executed for.
+	 * @param task - the task to execute.
+	 * @param chunkX - the x coordinate of the translated chunk.
+	 * @param chunkZ - the z coordinate of the translated chunk.
+	 */
+	public void submitChunk(Player player, Runnable task, int chunkX, int chunkZ) {
+		submit(player, new LaneTask(task, player, true, chunkX, chunkZ));
+	}
+
+	private void submit(Player player, LaneTask task) {
+		int waiting;
+
+		synchronized (lock) {
+			if (!closed) {
+				Lane lane = getLane(player);
+				lane.tasks.add(task);
+				queueSize++;
+
+				if (lane.state == LANE_IDLE) {
+					lane.state = LANE_READY;
+					ready.add(lane);
+					lock.notify();
+				} else if (lane.state == LANE_THROTTLED && !task.limited) {
+					// The task may not have to wait for the throttled chunks
+					throttled.remove(lane);
+					lane.state = LANE_READY;
+					ready.add(lane);
+					lock.notify();
+				}
+				waiting = ready.size();
+			} else {
+				waiting = -1;
+			}
+		}
+
+		// Submitted after the pool was closed
+		if (waiting < 0) {
+			execute(task.task);
+			return;
+		}
+
+		// Start another worker if lanes are waiting
+		while (waiting > workerCount.get() - busyCount.get()) {
+			int workers = workerCount.get();
+
+			if (workers >= maxWorkers)
+				break;
+			if (workerCount.compareAndSet(workers, workers + 1)) {
+				startWorker();
+				break;
+			}
+		}
+	}
+
+	private Lane getLane(Player player) {
+		if (player == null)
+			return sharedLane;
+
+		Lane lane = lanes.get(player);
+
+		if (lane == null) {
+			lanes.put(player, lane = new Lane(tokenBurst, System.nanoTime()));
+		}
+		return lane;
+	}
+
+	/**
+	 * Stop every worker, after giving them the given time to finish the queued tasks.
+	 * <p>
+	 * The calling thread only waits for the workers, so it must not hold any lock a task might need. Every task that is
+	 * still queued after the timeout is cancelled, or executed on the calling thread if it cannot be cancelled.
+	 * 
+	 * @param timeout - the maximum number of milliseconds to wait for the workers.
+	 */
+	public void close(long timeout) {
+		List<LaneTask> remaining = new ArrayList<LaneTask>();
+		boolean interrupted = false;
+
+		synchronized (lock) {
+			closed = true;
+
+			// The remaining chunks are no longer limited
+			for (Lane lane : throttled) {
+				lane.state = LANE_READY;
+				ready.add(lane);
+			}
+			throttled.clear();
+			lock.notifyAll();
+
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			long delay;
+
+			while ((queueSize > 0 || runningSize > 0) && (delay = deadline - System.nanoTime()) > 0) {
+				try {
+					TimeUnit.NANOSECONDS.timedWait(lock, delay);
+				} catch (InterruptedException e) {
+					interrupted = true;
+					break;
+				}
+			}
+
+			// Remove every task that has not been started
+			for (Lane lane : ready) {
+				lane.state = LANE_IDLE;
+			}
+			ready.clear();
+
+			for (Lane lane : lanes.values()) {
+				remaining.addAll(lane.tasks);
+				lane.tasks.clear();
+			}
+			remaining.addAll(sharedLane.tasks);
+			sharedLane.tasks.clear();
+			queueSize = 0;
+		}
+
+		for (LaneTask task : remaining) {
+			cancel(task.task);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void cancel(Runnable task) {
+		if (task instanceof CancellableTask) {
+			try {
+				((CancellableTask) task).cancel();
+			} catch (Throwable e) {
+				logger.log(Level.SEVERE, "Unexpected error cancelling translation task.", e);
+			}
+		} else {
+			execute(task);
+		}
+	}
+
+	/**
+	 * Wait for the next lane that can be executed, and remove its next task.
+	 * 
+	 * @param timeout - the maximum number of nanoseconds to wait.
+	 * @return The running lane, or NULL if the timeout elapsed or the pool was closed with no lane ready.
+	 * @throws InterruptedException If the worker was interrupted.
+	 */
+	private Lane take(long timeout) throws InterruptedException {
+		synchronized (lock) {
+			long now = System.nanoTime();
+			long deadline = now + timeout;
+
+			while (true) {
+				long refillDelay = releaseThrottled(now);
+				Lane lane = ready.poll();
+
+				if (lane != null) {
+					LaneTask task = pollTask(lane, now);
+
+					if (task != null) {
+						startTask(lane, task);
+						return lane;
+					}
+					lane.state = LANE_THROTTLED;
+					throttled.add(lane);
+					continue;
+				}
+
+				// Every queued task is finished before the workers stop
+				if (closed)
+					return null;
+
+				long remaining = deadline - now;
+
+				if (remaining <= 0)
+					return null;
+				TimeUnit.NANOSECONDS.timedWait(lock, Math.min(remaining, refillDelay));
+				now = System.nanoTime();
+			}
+		}
+	}
+
+	private void startTask(Lane lane, LaneTask task) {
+		lane.state = LANE_RUNNING;
+		lane.current = task;
+		queueSize--;
+		runningSize++;
+	}
+
+	/**
+	 * Remove the next task of the given lane that can be executed.
+	 * 
+	 * @param lane - the lane.
+	 * @param now - the current time in nanoseconds.
+	 * @return The removed task, or NULL if every task is waiting for tokens.
+	 */
+	private LaneTask pollTask(Lane lane, long now) {
+		if (!lane.tasks.peek().limited)
+			return lane.tasks.poll();
+		if (tryAcquireToken(lane, now))
+			return pollChunkTask(lane);
+		return pollUnthrottledTask(lane);
+	}
+
+	/**
+	 * Remove the next task of a lane that starts with chunk tasks, which is the most important of them.
+	 * 
+	 * @param lane - the lane.
+	 * @return The removed task.
+	 */
+	private LaneTask pollChunkTask(Lane lane) {
+		if (positions == null)
+			return lane.tasks.poll();
+
+		Set<Long> chunks = new HashSet<Long>();
+		LaneTask best = null;
+		int bestPriority = 0;
+
+		for (LaneTask task : lane.tasks) {
+			if (!task.limited)
+				break;
+			// Never pass an earlier task of the same chunk
+			if (!chunks.add(task.getChunkKey()))
+				continue;
+
+			int priority = positions.getChunkPriority(task.player, task.chunkX, task.chunkZ);
+
+			if (best == null || priority < bestPriority) {
+				best = task;
+				bestPriority = priority;
+
+				// The chunk the player is standing in
+				if (priority == 0)
+					break;
+			}
+		}
+		lane.tasks.removeFirstOccurrence(best);
+		return best;
+	}
+
+	/**
+	 * Remove the first task that is not a chunk task, if it does not belong to any of the chunk tasks before it.
+	 * 
+	 * @param lane - the lane.
+	 * @return The removed task, or NULL if no task can pass the chunk tasks.
+	 */
+	private LaneTask pollUnthrottledTask(Lane lane) {
+		Set<Long> chunks = new HashSet<Long>();
+
+		for (Iterator<LaneTask> it = lane.tasks.iterator(); it.hasNext();) {
+			LaneTask task = it.next();
+
+			if (task.limited) {
+				chunks.add(task.getChunkKey());
+				continue;
+			}
+			// Must wait for the translation of its chunk
+			if (!task.hasChunk || chunks.contains(task.getChunkKey()))
+				return null;
+			it.remove();
+			return task;
+		}
+		return null;
+	}
+
+	/**
+	 * Execute the current task of the given lane, and make the lane available to other workers.
+	 * 
+	 * @param lane - the running lane.
+	 */
+	private void run(Lane lane) {
+		try {
+			execute(lane.current.task);
+		} finally {
+			synchronized (lock) {
+				lane.current = null;
+				runningSize--;
+
+				if (lane.tasks.isEmpty()) {
+					lane.state = LANE_IDLE;
+				} else {
+					lane.state = LANE_READY;
+					ready.add(lane);
+				}
+				// Wake up another worker, or the thread closing the pool
+				if (closed) {
+					lock.notifyAll();
+				} else if (lane.state == LANE_READY) {
+					lock.notify();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Move every throttled lane that has been refilled back into the ready queue.
+	 * 
+	 * @param now - the current time in nanoseconds.
+	 * @return The number of nanoseconds until the next throttled lane is refilled.
+	 */
+	private long releaseThrottled(long now) {
+		long delay = Long.MAX_VALUE;
+
+		for (Iterator<Lane> it = throttled.iterator(); it.hasNext();) {
+			Lane lane = it.next();
+
+			if (tokenRate > 0) {
+				refill(lane, now);
+
+				if (lane.tokens < 1) {
+					delay = Math.min(delay, 1 + (long) ((1 - lane.tokens) / tokenRate));
+					continue;
+				}
+			}
+			it.remove();
+			lane.state = LANE_READY;
+			ready.add(lane);
+		}
+		return delay;
+	}
+
+	private boolean tryAcquireToken(Lane lane, long now) {
+		if (tokenRate <= 0 || closed)
+			return true;
+		refill(lane, now);
+
+		if (lane.tokens >= 1) {
+			lane.tokens--;
+			return true;
+		}
+		return false;
+	}
+
+	private void refill(Lane lane, long now) {
+		lane.tokens = Math.min(tokenBurst, lane.tokens + (now - lane.lastRefill) * tokenRate);
+		lane.lastRefill = now;
+	}
+
+	/**
+	 * Retrieve every player that is currently waiting for tokens, along with the number of queued tasks.
+	 * 
+	 * @return Throttled players and the number of queued tasks.
+	 */
+	public Map<Player, Integer> getThrottledPlayers() {
+		Map<Player, Integer> result = new LinkedHashMap<Player, Integer>();
+
+		synchronized (lock) {
+			for (Map.Entry<Player, Lane> entry : lanes.entrySet()) {
+				if (entry.getValue().state == LANE_THROTTLED)
+					result.put(entry.getKey(), entry.getValue().tasks.size());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Update the worker utilization. This should be called periodically.
+	 */
+	public synchronized void sample() {
+		long now = System.nanoTime();
+		long busy = busyNanos.get();
+		long elapsed = (now - lastSampleTime) * Math.max(1, workerCount.get());
+
+		if (elapsed > 0) {
+			utilization = Math.min(1.0, (busy - lastBusyNanos) / (double) elapsed);
+		}
+		lastSampleTime = now;
+		lastBusyNanos = busy;
+	}
+
+	/**
+	 * Retrieve the number of tasks waiting for a worker, including throttled tasks.
+	 * 
+	 * @return Number of queued tasks.
+	 */
+	public int getQueueSize() {
+		synchronized (lock) {
+			return queueSize;
+		}
+	}
+
+	/**
+	 * Retrieve the number of tasks in lanes that are waiting for tokens.
+	 * 
+	 * @return Number of throttled tasks.
+	 */
+	public int getThrottledSize() {
+		int size = 0;
+
+		synchronized (lock) {
+			for (Lane lane : throttled) {
+				size += lane.tasks.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Retrieve the current number of workers.
+	 * 
+	 * @return Number of workers.
+	 */
+	public int getWorkerCount() {
+		return workerCount.get();
+	}
+
+	/**
+	 * Retrieve the number of workers that are currently executing a task.
+	 * 
+	 * @return Number of busy workers.
+	 */
+	public int getBusyCount() {
+		return busyCount.get();
+	}
+
+	/**
+	 * Retrieve the minimum number of workers.
+	 * 
+	 * @return Minimum number of workers.
+	 */
+	public int getMinWorkers() {
+		return minWorkers;
+	}
+
+	/**
+	 * Retrieve the maximum number of workers.
+	 * 
+	 * @return Maximum number of workers.
+	 */
+	public int getMaxWorkers() {
+		return maxWorkers;
+	}
+
+	/**
+	 * Retrieve the fraction of time the workers were busy between the two last samples.
+	 * 
+	 * @return Utilization from 0 to 1.
+	 */
+	public double getUtilization() {
+		return utilization;
+	}
+
+	/**
+	 * Retrieve the total number of executed tasks.
+	 * 
+	 * @return Number of executed tasks.
+	 */
+	public long getCompletedTasks() {
+		return completedTasks.get();
+	}
+
+	private void startWorker() {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runWorker();
+			}
+		}, "BlockPatcher Translator #" + nextWorkerId.incrementAndGet());
+
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void runWorker() {
+		try {
+			while (true) {
+				Lane lane = take(TimeUnit.MILLISECONDS.toNanos(idleTimeout));
+
+				if (lane != null) {
+					busyCount.incrementAndGet();
+					long start = System.nanoTime();
+
+					try {
+						run(lane);
+					} finally {
+						busyNanos.addAndGet(System.nanoTime() - start);
+						busyCount.decrementAndGet();
+					}
+				} else if (closed) {
+					break;
+				} else if (tryRetire()) {
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		workerCount.decrementAndGet();
+	}
+
+	private boolean tryRetire() {
+		int workers = workerCount.get();
+		return workers > minWorkers && workerCount.compareAndSet(workers, workers - 1);
+	}
+
+	private void execute(Runnable task) {
+		try {
+			task.run();
+		} catch (Throwable e) {
+			logger.log(Level.SEVERE, "Unexpected error in translation task.", e);
+		} finally {
+			completedTasks.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.comphenix.blockpatcher;
+
+import java.util.concurrent.ConcurrentMap;
+
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Remembers the last converted contents of the inventory and the open window of every player.
+ * <p>
+ * When the contents of a window are sent again, only the slots that have changed on the server are converted. The
+ * remaining slots reuse the previous result. This assumes that every item conversion only depends on the item and the
+ * receiving player.
+ */
+class WindowItemCache {
+	// The player inventory is always window zero
+	private static final int INVENTORY_WINDOW = 0;
+
+	/**
+	 * The last contents of a window, both as sent by the server and after conversion.
+	 */
+	private static class WindowContents {
+		private final int windowID;
+		private final Object version;
+
+		// Server stacks, and the converted stack or NULL if the conversion didn't change anything
+		private final ItemStack[] originals;
+		private final ItemStack[] converted;
+		private final boolean[] known;
+
+		public WindowContents(int windowID, Object version, int size) {
+			this.windowID = windowID;
+			this.version = version;
+			this.originals = new ItemStack[size];
+			this.converted = new ItemStack[size];
+			this.known = new boolean[size];
+		}
+
+		public boolean isCompatible(int windowID, Object version, int size) {
+			return this.windowID == windowID && this.version == version && originals.length == size;
+		}
+	}
+
+	/**
+	 * The inventory and the last opened window of a player.
+	 */
+	private static class PlayerWindows {
+		private WindowContents inventory;
+		private WindowContents container;
+	}
+
+	private final ConcurrentMap<Player, PlayerWindows> windows = new MapMaker().weakKeys().makeMap();
+	private final EventScheduler scheduler;
+
+	public WindowItemCache(EventScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Convert the contents of a window, reusing the conversion of every unchanged slot.
+	 *
+	 * @param player - the receiving player.
+	 * @param windowID - the window ID.
+	 * @param stacks - the window contents to convert.
+	 * @param version - an object that changes whenever the item conversions or the item listeners change.
+	 */
+	public void computeWindowConversion(Player player, int windowID, ItemStack[] stacks, Object version) {
+		PlayerWindows playerWindows = getWindows(player);
+
+		synchronized (playerWindows) {
+			WindowContents contents = windowID == INVENTORY_WINDOW ? playerWindows.inventory : playerWindows.container;
+
+			if (contents == null || !contents.isCompatible(windowID, version, stacks.length)) {
+				contents = new WindowContents(windowID, version, stacks.length);
+
+				if (windowID == INVENTORY_WINDOW)
+					playerWindows.inventory = contents;
+				else
+					playerWindows.container = contents;
+			}
+			translate(player, contents, stacks);
+		}
+	}
+
+	private void translate(Player player, WindowContents contents, ItemStack[] stacks) {
+		int[] changed = new int[stacks.length];
+		int changedCount = 0;
+
+		for (int i = 0; i < stacks.length; i++) {
+			ItemStack stack = stacks[i];
+
+			if (contents.known[i] && isEqual(stack, contents.originals[i])) {
+				if (contents.converted[i] != null)
+					Calculations.copyItemStack(contents.converted[i], stack);
+			} else {
+				contents.originals[i] = stack != null ? stack.clone() : null;
+				contents.known[i] = false;
+				changed[changedCount++] = i;
+			}
+		}
+
+		if (changedCount == 0)
+			return;
+
+		ItemStack[] changedStacks = new ItemStack[changedCount];
+
+		for (int i = 0; i < changedCount; i++) {
+			changedStacks[i] = stacks[changed[i]];
+		}
+		scheduler.computeItemConversion(changedStacks, player, true);
+
+		for (int i = 0; i < changedCount; i++) {
+			int slot = changed[i];
+			ItemStack stack = stacks[slot];
+
+			contents.converted[slot] = isEqual(stack, contents.originals[slot]) ? null : stack.clone();
+			contents.known[slot] = true;
+		}
+	}
+
+	private PlayerWindows getWindows(Player player) {
+		PlayerWindows playerWindows = windows.get(player);
+
+		if (playerWindows == null) {
+			playerWindows = new PlayerWindows();
+			PlayerWindows previous = windows.putIfAbsent(player, playerWindows);
+
+			if (previous != null)
+				playerWindows = previous;
+		}
+		return playerWindows;
+	}
+
+	private static boolean isEqual(ItemStack a, ItemStack b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
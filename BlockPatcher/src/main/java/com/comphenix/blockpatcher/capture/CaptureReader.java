@@ -0,0 +1,106 @@
+package com.comphenix.blockpatcher.capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads captured packets from a stream written by {@link CaptureWriter}.
+ * <p>
+ * This class is not thread safe.
+ */
+public class CaptureReader implements Closeable {
+	private static final CapturedPacket.Type[] TYPES = CapturedPacket.Type.values();
+
+	private final DataInputStream input;
+
+	/**
+	 * Start reading a capture from the given stream.
+	 *
+	 * @param stream - the input stream. It is closed along with this reader.
+	 * @throws IOException If the header could not be read, or the stream is not a capture.
+	 */
+	public CaptureReader(InputStream stream) throws IOException {
+		this.input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream)));
+
+		if (input.readInt() != CaptureWriter.MAGIC)
+			throw new IOException("Not a packet capture.");
+
+		int version = input.readUnsignedByte();
+
+		if (version != CaptureWriter.VERSION)
+			throw new IOException("Unsupported capture version " + version);
+	}
+
+	/**
+	 * Read the next packet.
+	 *
+	 * @return The next packet, or NULL if the end of the capture has been reached.
+	 * @throws IOException If the packet could not be read.
+	 */
+	public CapturedPacket read() throws IOException {
+		int typeIndex = input.read();
+
+		if (typeIndex < 0)
+			return null;
+		if (typeIndex >= TYPES.length)
+			throw new IOException("Unknown packet type " + typeIndex);
+
+		CapturedPacket.Type type = TYPES[typeIndex];
+		int playerID = readVarInt();
+		int chunkX = readSignedVarInt();
+		int chunkZ = readSignedVarInt();
+
+		switch (type) {
+			case MAP_CHUNK:
+				int chunkMask = readVarInt();
+				int flags = input.readUnsignedByte();
+				byte[] data = new byte[readVarInt()];
+
+				input.readFully(data);
+				return CapturedPacket.fromMapChunk(playerID, chunkX, chunkZ, chunkMask,
+						(flags & CaptureWriter.FLAG_CONTINUOUS) != 0, (flags & CaptureWriter.FLAG_SKYLIGHT) != 0, data);
+			case BLOCK_CHANGE:
+				int location = input.readShort();
+				int state = readSignedVarInt();
+
+				return CapturedPacket.fromBlockChange(playerID,
+						(chunkX << 4) | (location >> 12 & 0xF), location & 0xFF, (chunkZ << 4) | (location >> 8 & 0xF), state);
+			default:
+				short[] locations = new short[readVarInt()];
+				int[] states = new int[locations.length];
+
+				for (int i = 0; i < locations.length; i++) {
+					locations[i] = input.readShort();
+					states[i] = readSignedVarInt();
+				}
+				return CapturedPacket.fromMultiBlockChange(playerID, chunkX, chunkZ, locations, states);
+		}
+	}
+
+	private int readSignedVarInt() throws IOException {
+		int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private int readVarInt() throws IOException {
+		int result = 0;
+
+		for (int shift = 0; shift < 35; shift += 7) {
+			int current = input.readUnsignedByte();
+			result |= (current & 0x7F) << shift;
+
+			if ((current & 0x80) == 0)
+				return result;
+		}
+		throw new IOException("Variable-length integer is too long.");
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+}
@@ -0,0 +1,110 @@
+package com.comphenix.blockpatcher.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes captured packets to a compressed stream.
+ * <p>
+ * The stream starts with a header, followed by each packet in the order it was written. Integers are stored as
+ * variable-length integers, and signed values are zigzag encoded first. The stream is compressed with GZIP.
+ * <p>
+ * This class is not thread safe.
+ */
+public class CaptureWriter implements Closeable {
+	/**
+	 * Identifies a capture stream.
+	 */
+	static final int MAGIC = 0x42504350;
+
+	/**
+	 * The current version of the capture format.
+	 */
+	static final int VERSION = 1;
+
+	// Map chunk flags
+	static final int FLAG_CONTINUOUS = 1;
+	static final int FLAG_SKYLIGHT = 2;
+
+	private final DataOutputStream output;
+
+	/**
+	 * Start writing a capture to the given stream.
+	 *
+	 * @param stream - the output stream. It is closed along with this writer.
+	 * @throws IOException If the header could not be written.
+	 */
+	public CaptureWriter(OutputStream stream) throws IOException {
+		this.output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(stream)));
+		output.writeInt(MAGIC);
+		output.writeByte(VERSION);
+	}
+
+	/**
+	 * Write the given packet.
+	 *
+	 * @param packet - the packet to write.
+	 * @throws IOException If the packet could not be written.
+	 */
+	public void write(CapturedPacket packet) throws IOException {
+		output.writeByte(packet.getType().ordinal());
+		writeVarInt(packet.getPlayerID());
+		writeSignedVarInt(packet.getChunkX());
+		writeSignedVarInt(packet.getChunkZ());
+
+		switch (packet.getType()) {
+			case MAP_CHUNK:
+				byte[] data = packet.getData();
+
+				writeVarInt(packet.getChunkMask());
+				output.writeByte((packet.isContinuous() ? FLAG_CONTINUOUS : 0) | (packet.hasSkylight() ? FLAG_SKYLIGHT : 0));
+				writeVarInt(data.length);
+				output.write(data);
+				break;
+			case BLOCK_CHANGE:
+			case MULTI_BLOCK_CHANGE:
+				short[] locations = packet.getLocations();
+				int[] states = packet.getStates();
+
+				// A block change is always a single change
+				if (packet.getType() == CapturedPacket.Type.MULTI_BLOCK_CHANGE)
+					writeVarInt(locations.length);
+
+				for (int i = 0; i < locations.length; i++) {
+					output.writeShort(locations[i]);
+					writeSignedVarInt(states[i]);
+				}
+				break;
+		}
+	}
+
+	private void writeSignedVarInt(int value) throws IOException {
+		writeVarInt((value << 1) ^ (value >> 31));
+	}
+
+	private void writeVarInt(int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			output.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte(value);
+	}
+
+	/**
+	 * Write any buffered packets to the underlying stream.
+	 *
+	 * @throws IOException If the packets could not be written.
+	 */
+	public void flush() throws IOException {
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+}
@@ -0,0 +1,192 @@
+package com.comphenix.blockpatcher.capture;
+
+/**
+ * Represents an untranslated chunk or block change packet, as recorded by the capture mode.
+ * <p>
+ * Only the data that is read by the translation is kept. Block states are stored as protocol block IDs, that is the
+ * block ID shifted left by four, OR'ed with the data value.
+ */
+public final class CapturedPacket {
+	/**
+	 * The type of a captured packet.
+	 */
+	public enum Type {
+		MAP_CHUNK,
+		BLOCK_CHANGE,
+		MULTI_BLOCK_CHANGE
+	}
+
+	private final Type type;
+	private final int playerID;
+	private final int chunkX;
+	private final int chunkZ;
+
+	// Map chunk
+	private final int chunkMask;
+	private final boolean continuous;
+	private final boolean skylight;
+	private final byte[] data;
+
+	// Block changes - locations are packed as x << 12 | z << 8 | y within the chunk
+	private final short[] locations;
+	private final int[] states;
+
+	private CapturedPacket(Type type, int playerID, int chunkX, int chunkZ, int chunkMask, boolean continuous, boolean skylight,
+			byte[] data, short[] locations, int[] states) {
+		this.type = type;
+		this.playerID = playerID;
+		this.chunkX = chunkX;
+		this.chunkZ = chunkZ;
+		this.chunkMask = chunkMask;
+		this.continuous = continuous;
+		this.skylight = skylight;
+		this.data = data;
+		this.locations = locations;
+		this.states = states;
+	}
+
+	/**
+	 * Construct a captured map chunk packet.
+	 *
+	 * @param playerID - the ID of the receiving player within the capture.
+	 * @param chunkX - the chunk x position.
+	 * @param chunkZ - the chunk z position.
+	 * @param chunkMask - the bit mask of the sections in the packet.
+	 * @param continuous - whether or not the packet contains the entire chunk.
+	 * @param skylight - whether or not the sections contain skylight.
+	 * @param data - the chunk data. This is not copied.
+	 * @return The captured packet.
+	 */
+	public static CapturedPacket fromMapChunk(int playerID, int chunkX, int chunkZ, int chunkMask, boolean continuous, boolean skylight, byte[] data) {
+		if (data == null)
+			throw new IllegalArgumentException("Chunk data cannot be NULL.");
+		return new CapturedPacket(Type.MAP_CHUNK, playerID, chunkX, chunkZ, chunkMask, continuous, skylight, data, null, null);
+	}
+
+	/**
+	 * Construct a captured block change packet.
+	 *
+	 * @param playerID - the ID of the receiving player within the capture.
+	 * @param x - the block x position.
+	 * @param y - the block y position.
+	 * @param z - the block z position.
+	 * @param state - the protocol block ID.
+	 * @return The captured packet.
+	 */
+	public static CapturedPacket fromBlockChange(int playerID, int x, int y, int z, int state) {
+		short location = (short) ((x & 0xF) << 12 | (z & 0xF) << 8 | (y & 0xFF));
+		return new CapturedPacket(Type.BLOCK_CHANGE, playerID, x >> 4, z >> 4, 0, false, false, null,
+				new short[] { location }, new int[] { state });
+	}
+
+	/**
+	 * Construct a captured multi block change packet.
+	 *
+	 * @param playerID - the ID of the receiving player within the capture.
+	 * @param chunkX - the chunk x position.
+	 * @param chunkZ - the chunk z position.
+	 * @param locations - the packed location of each change. This is not copied.
+	 * @param states - the protocol block ID of each change. This is not copied.
+	 * @return The captured packet.
+	 */
+	public static CapturedPacket fromMultiBlockChange(int playerID, int chunkX, int chunkZ, short[] locations, int[] states) {
+		if (locations.length != states.length)
+			throw new IllegalArgumentException("Expected " + locations.length + " states, but got " + states.length);
+		return new CapturedPacket(Type.MULTI_BLOCK_CHANGE, playerID, chunkX, chunkZ, 0, false, false, null, locations, states);
+	}
+
+	/**
+	 * Retrieve the packet type.
+	 *
+	 * @return The packet type.
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Retrieve the ID of the receiving player. Every player in a capture has a distinct ID, starting from zero.
+	 *
+	 * @return The player ID.
+	 */
+	public int getPlayerID() {
+		return playerID;
+	}
+
+	/**
+	 * Retrieve the chunk x position.
+	 *
+	 * @return The chunk x position.
+	 */
+	public int getChunkX() {
+		return chunkX;
+	}
+
+	/**
+	 * Retrieve the chunk z position.
+	 *
+	 * @return The chunk z position.
+	 */
+	public int getChunkZ() {
+		return chunkZ;
+	}
+
+	/**
+	 * Retrieve the bit mask of the sections in a map chunk packet.
+	 *
+	 * @return The section mask.
+	 */
+	public int getChunkMask() {
+		return chunkMask;
+	}
+
+	/**
+	 * Determine if a map chunk packet contains the entire chunk.
+	 *
+	 * @return TRUE if it does, FALSE otherwise.
+	 */
+	public boolean isContinuous() {
+		return continuous;
+	}
+
+	/**
+	 * Determine if the sections of a map chunk packet contain skylight.
+	 *
+	 * @return TRUE if they do, FALSE otherwise.
+	 */
+	public boolean hasSkylight() {
+		return skylight;
+	}
+
+	/**
+	 * Retrieve the chunk data of a map chunk packet.
+	 *
+	 * @return The chunk data, or NULL for block changes.
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * Retrieve the location of every block change, packed as x &lt;&lt; 12 | z &lt;&lt; 8 | y within the chunk.
+	 *
+	 * @return The packed locations, or NULL for map chunks.
+	 */
+	public short[] getLocations() {
+		return locations;
+	}
+
+	/**
+	 * Retrieve the protocol block ID of every block change.
+	 *
+	 * @return The protocol block IDs, or NULL for map chunks.
+	 */
+	public int[] getStates() {
+		return states;
+	}
+
+	@Override
+	public String toString() {
+		return type + " [player=" + playerID + ", chunkX=" + chunkX + ", chunkZ=" + chunkZ + "]";
+	}
+}
@@ -4,12 +4,23 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.Event;
 import org.bukkit.event.HandlerList;
 
+import com.comphenix.blockpatcher.lookup.LazyCopySegmentLookup;
 import com.comphenix.blockpatcher.lookup.SegmentLookup;
 
 /**
  * Invoked right before a chunk is sent to a player.
  * <p>
  * The resulting ConversionLookup will be used for all future block changes within this chunk until the next chunk processing event.
+ * <p>
+ * The same instance is passed to every registered {@link com.comphenix.blockpatcher.ChunkConversionProvider}, which avoids
+ * dispatching this event through Bukkit.
+ * <p>
+ * This event is asynchronous. It is always invoked on a translation worker thread, never the main thread, so handlers must
+ * not access the world or any other part of the Bukkit API that isn't thread safe.
+ * <p>
+ * If event pooling is enabled, instances of this event may be reused once every handler has been invoked, along with the
+ * initial lookup table. Handlers must never retain a reference to the event or the initial lookup table after they
+ * return, though they may retain a lookup table they have set themselves.
  * 
  * @author Kristian
  */
@@ -20,14 +31,59 @@ public class ChunkPostProcessingEvent extends Event {
 	private int chunkX;
 	private int chunkZ;
 	private SegmentLookup lookup;
+	private LazyCopySegmentLookup initialLookup;
+	private boolean viewerIndependent;
+
+	// Whether or not this event has been recycled - only used while debugging the event pool
+	private boolean expired;
 
 	public ChunkPostProcessingEvent(Player player, int chunkX, int chunkZ, SegmentLookup lookup) {
+		super(true);
+		reset(player, chunkX, chunkZ, lookup);
+	}
+
+	/**
+	 * Reuse this event for a different chunk.
+	 * 
+	 * @param player - the receiving player.
+	 * @param chunkX - the chunk x position.
+	 * @param chunkZ - the chunk z position.
+	 * @param lookup - the initial lookup table.
+	 */
+	void reset(Player player, int chunkX, int chunkZ, SegmentLookup lookup) {
 		this.player = player;
 		this.chunkX = chunkX;
 		this.chunkZ = chunkZ;
+		this.viewerIndependent = false;
+
+		// The lookup is only cloned when it is modified, and the lazy copy is reused along with the event
+		if (initialLookup == null)
+			initialLookup = new LazyCopySegmentLookup(lookup);
+		else
+			initialLookup.reset(lookup);
+		this.lookup = initialLookup;
+	}
+
+	/**
+	 * Release the player and lookup table of a reusable event.
+	 */
+	void clear() {
+		this.player = null;
+		this.lookup = null;
+	}
 
-		// This deep copy uses lazy copies underneath, so it's fairly quick
-		this.lookup = (SegmentLookup) lookup.deepClone();
+	/**
+	 * Prevent any further access to this event.
+	 */
+	void expire() {
+		this.expired = true;
+		this.player = null;
+		this.lookup = null;
+	}
+
+	private void checkExpired() {
+		if (expired)
+			throw new IllegalStateException("Pooled ChunkPostProcessingEvent accessed after it was processed. Handlers must not retain it.");
 	}
 
 	/**
@@ -36,6 +92,7 @@ public class ChunkPostProcessingEvent extends Event {
 	 * @return The receiver.
 	 */
 	public Player getPlayer() {
+		checkExpired();
 		return player;
 	}
 
@@ -45,6 +102,7 @@ public class ChunkPostProcessingEvent extends Event {
 	 * @return The transmitted chunk.
 	 */
 	public int getChunkX() {
+		checkExpired();
 		return chunkX;
 	}
 
@@ -54,17 +112,20 @@ public class ChunkPostProcessingEvent extends Event {
 	 * @return The transmitted chunk.
 	 */
 	public int getChunkZ() {
+		checkExpired();
 		return chunkZ;
 	}
 
 	/**
 	 * Retrieve the lookup table that will be used to modify the current chunk.
 	 * <p>
-	 * All future block changes will use this conversion until the same chunk is transmitted again.
+	 * All future block changes will use this conversion until the same chunk is transmitted again. It initially contains
+	 * the global lookup table, along with every conversion rule that applies to this chunk.
 	 * 
 	 * @return The lookup table used.
 	 */
 	public SegmentLookup getLookup() {
+		checkExpired();
 		return lookup;
 	}
 
@@ -76,9 +137,34 @@ public class ChunkPostProcessingEvent extends Event {
 	 * @param lookup - the new lookup table.
 	 */
 	public void setLookup(SegmentLookup lookup) {
+		checkExpired();
 		this.lookup = lookup;
 	}
 
+	/**
+	 * Determine if the resulting lookup table only depends on the chunk, and not on the receiving player.
+	 * 
+	 * @return TRUE if it is viewer independent, FALSE otherwise.
+	 */
+	public boolean isViewerIndependent() {
+		checkExpired();
+		return viewerIndependent;
+	}
+
+	/**
+	 * Set whether or not the resulting lookup table only depends on the chunk, and not on the receiving player.
+	 * <p>
+	 * A viewer independent result is computed once, and shared by every player that receives the same chunk until the
+	 * chunk is unloaded by the server. This event will not be invoked for those players. Handlers that make changes
+	 * specific to the current player must set this to FALSE.
+	 * 
+	 * @param viewerIndependent - TRUE if the result is viewer independent, FALSE otherwise.
+	 */
+	public void setViewerIndependent(boolean viewerIndependent) {
+		checkExpired();
+		this.viewerIndependent = viewerIndependent;
+	}
+
 	@Override
 	public HandlerList getHandlers() {
 		return handlers;
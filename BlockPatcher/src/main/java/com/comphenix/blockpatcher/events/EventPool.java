@@ -0,0 +1,168 @@
+package com.comphenix.blockpatcher.events;
+
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import com.comphenix.blockpatcher.lookup.SegmentLookup;
+
+/**
+ * Recycles event instances and item stack arrays on each thread, to reduce the number of short-lived objects.
+ * <p>
+ * Every acquired object must be released by the same thread once the event has been processed. If the pooled instance
+ * is already in use (for instance, if a handler causes another conversion on the same thread), a new instance is created.
+ * <p>
+ * In debug mode, nothing is reused. Instead, events are expired when they are released, so any handler that retains an
+ * event and uses it later will fail with an IllegalStateException.
+ */
+public final class EventPool {
+	/**
+	 * Pooled instances of a single thread.
+	 */
+	private static class PooledEvents {
+		private ItemConvertingEvent itemEvent;
+		private boolean itemEventInUse;
+
+		private final ItemStack[] singleStack = new ItemStack[1];
+		private boolean singleStackInUse;
+
+		private ChunkPostProcessingEvent chunkEvent;
+		private boolean chunkEventInUse;
+	}
+
+	private final ThreadLocal<PooledEvents> pooled = new ThreadLocal<PooledEvents>() {
+		@Override
+		protected PooledEvents initialValue() {
+			return new PooledEvents();
+		}
+	};
+
+	private final boolean debug;
+
+	/**
+	 * Construct a new event pool.
+	 * 
+	 * @param debug - TRUE to expire events after they have been processed instead of reusing them, FALSE otherwise.
+	 */
+	public EventPool(boolean debug) {
+		this.debug = debug;
+	}
+
+	/**
+	 * Determine if this pool expires events instead of reusing them.
+	 * 
+	 * @return TRUE if it does, FALSE otherwise.
+	 */
+	public boolean isDebug() {
+		return debug;
+	}
+
+	/**
+	 * Retrieve an array containing only the given item stack.
+	 * 
+	 * @param stack - the item stack.
+	 * @return An array with a single element.
+	 */
+	public ItemStack[] acquireArray(ItemStack stack) {
+		PooledEvents events = pooled.get();
+
+		if (debug || events.singleStackInUse)
+			return new ItemStack[] { stack };
+
+		events.singleStackInUse = true;
+		events.singleStack[0] = stack;
+		return events.singleStack;
+	}
+
+	/**
+	 * Release an array retrieved from {@link #acquireArray(ItemStack)}.
+	 * 
+	 * @param array - the array to release.
+	 */
+	public void releaseArray(ItemStack[] array) {
+		PooledEvents events = pooled.get();
+
+		if (array == events.singleStack) {
+			events.singleStack[0] = null;
+			events.singleStackInUse = false;
+		}
+	}
+
+	/**
+	 * Retrieve an item conversion event with the given content.
+	 * 
+	 * @param stacks - the item stacks to convert.
+	 * @param player - the receiving player.
+	 * @param fromInventory - whether or not this conversion is due to an inventory action.
+	 * @return The event.
+	 */
+	public ItemConvertingEvent acquireItemEvent(ItemStack[] stacks, Player player, boolean fromInventory) {
+		PooledEvents events = pooled.get();
+
+		if (debug || events.itemEventInUse)
+			return new ItemConvertingEvent(stacks, player, fromInventory);
+
+		if (events.itemEvent == null) {
+			events.itemEvent = new ItemConvertingEvent(stacks, player, fromInventory);
+		} else {
+			events.itemEvent.reset(stacks, player, fromInventory);
+		}
+		events.itemEventInUse = true;
+		return events.itemEvent;
+	}
+
+	/**
+	 * Release an event retrieved from {@link #acquireItemEvent(ItemStack[], Player, boolean)}.
+	 * 
+	 * @param event - the event to release.
+	 */
+	public void releaseItemEvent(ItemConvertingEvent event) {
+		PooledEvents events = pooled.get();
+
+		if (event == events.itemEvent) {
+			event.reset(null, null, false);
+			events.itemEventInUse = false;
+		} else if (debug) {
+			event.expire();
+		}
+	}
+
+	/**
+	 * Retrieve a chunk post processing event with the given content.
+	 * 
+	 * @param player - the receiving player.
+	 * @param chunkX - the chunk x position.
+	 * @param chunkZ - the chunk z position.
+	 * @param lookup - the initial lookup table.
+	 * @return The event.
+	 */
+	public ChunkPostProcessingEvent acquireChunkEvent(Player player, int chunkX, int chunkZ, SegmentLookup lookup) {
+		PooledEvents events = pooled.get();
+
+		if (debug || events.chunkEventInUse)
+			return new ChunkPostProcessingEvent(player, chunkX, chunkZ, lookup);
+
+		if (events.chunkEvent == null) {
+			events.chunkEvent = new ChunkPostProcessingEvent(player, chunkX, chunkZ, lookup);
+		} else {
+			events.chunkEvent.reset(player, chunkX, chunkZ, lookup);
+		}
+		events.chunkEventInUse = true;
+		return events.chunkEvent;
+	}
+
+	/**
+	 * Release an event retrieved from {@link #acquireChunkEvent(Player, int, int, SegmentLookup)}.
+	 * 
+	 * @param event - the event to release.
+	 */
+	public void releaseChunkEvent(ChunkPostProcessingEvent event) {
+		PooledEvents events = pooled.get();
+
+		if (event == events.chunkEvent) {
+			event.clear();
+			events.chunkEventInUse = false;
+		} else if (debug) {
+			event.expire();
+		}
+	}
+}
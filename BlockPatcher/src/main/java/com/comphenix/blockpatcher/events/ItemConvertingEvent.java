@@ -7,6 +7,14 @@ import org.bukkit.inventory.ItemStack;
 
 /**
  * Invoked before an item is sent to a client.
+ * <p>
+ * The item conversions in {@link com.comphenix.blockpatcher.PatcherAPI#getItemLookup()} have already been applied. If any
+ * item has been marked as dynamic, this event is only invoked when at least one of the items is dynamic.
+ * <p>
+ * This event is synchronous. It is invoked on the thread that sends the packet, which is usually the main thread.
+ * <p>
+ * If event pooling is enabled, instances of this event and the item stack array may be reused once every handler has
+ * been invoked. Handlers must never retain a reference to the event or the array after they return.
  * 
  * @author Kristian
  */
@@ -18,6 +26,9 @@ public class ItemConvertingEvent extends Event {
 	private ItemStack[] itemStacks;
 	private boolean fromInventory;
 
+	// Whether or not this event has been recycled - only used while debugging the event pool
+	private boolean expired;
+
 	public ItemConvertingEvent(ItemStack[] itemStacks, Player player, boolean fromInventory) {
 		super();
 		this.player = player;
@@ -31,6 +42,7 @@ public class ItemConvertingEvent extends Event {
 	 * @return The involved player.
 	 */
 	public Player getPlayer() {
+		checkExpired();
 		return player;
 	}
 
@@ -42,6 +54,7 @@ public class ItemConvertingEvent extends Event {
 	 * @return Item stacks to convert.
 	 */
 	public ItemStack[] getItemStacks() {
+		checkExpired();
 		return itemStacks;
 	}
 
@@ -51,9 +64,37 @@ public class ItemConvertingEvent extends Event {
 	 * @return TRUE if this event was invoked due to an inventory action, FALSE otherwise.
 	 */
 	public boolean isFromInventory() {
+		checkExpired();
 		return fromInventory;
 	}
 
+	/**
+	 * Reuse this event for a different conversion.
+	 * 
+	 * @param itemStacks - the item stacks to convert.
+	 * @param player - the receiving player.
+	 * @param fromInventory - whether or not this conversion is due to an inventory action.
+	 */
+	void reset(ItemStack[] itemStacks, Player player, boolean fromInventory) {
+		this.itemStacks = itemStacks;
+		this.player = player;
+		this.fromInventory = fromInventory;
+	}
+
+	/**
+	 * Prevent any further access to this event.
+	 */
+	void expire() {
+		this.expired = true;
+		this.itemStacks = null;
+		this.player = null;
+	}
+
+	private void checkExpired() {
+		if (expired)
+			throw new IllegalStateException("Pooled ItemConvertingEvent accessed after it was processed. Handlers must not retain it.");
+	}
+
 	@Override
 	public HandlerList getHandlers() {
 		return handlers;
@@ -0,0 +1,292 @@
+package com.comphenix.blockpatcher.lookup;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from chunk coordinates to non-zero integers, using open addressing with linear probing.
+ * <p>
+ * Chunk coordinates are packed into a primitive long, and values are stored in a primitive array, so lookups never
+ * allocate. The table grows and shrinks with the number of entries, so its size follows the number of chunks that are
+ * actually stored.
+ * <p>
+ * Every entry may also store a stamp, such as the time it was last written.
+ * <p>
+ * Note that this class is not thread safe.
+ */
+public class ChunkCoordinateMap {
+	/**
+	 * The value that represents a missing entry.
+	 */
+	public static final int NO_VALUE = 0;
+
+	private static final int MINIMUM_CAPACITY = 16;
+
+	/**
+	 * The approximate number of bytes used per slot in the table.
+	 */
+	public static final int BYTES_PER_SLOT = 8 + 4 + 4;
+
+	/**
+	 * Invoked for every entry in the map.
+	 */
+	public interface EntryVisitor {
+		/**
+		 * Invoked for a single entry. The map must not be modified by the visitor.
+		 * 
+		 * @param chunkX - chunk x position.
+		 * @param chunkZ - chunk z position.
+		 * @param value - the stored value.
+		 * @param stamp - the stored stamp.
+		 */
+		public void visit(int chunkX, int chunkZ, int value, int stamp);
+	}
+
+	// Parallel arrays - an empty slot has NO_VALUE as value
+	private long[] keys;
+	private int[] values;
+	private int[] stamps;
+	private int size;
+
+	/**
+	 * Construct a new empty map.
+	 */
+	public ChunkCoordinateMap() {
+		allocate(MINIMUM_CAPACITY);
+	}
+
+	/**
+	 * Retrieve the value stored at the given chunk.
+	 *
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @return The stored value, or NO_VALUE if not found.
+	 */
+	public int get(int chunkX, int chunkZ) {
+		long key = getKey(chunkX, chunkZ);
+		int mask = keys.length - 1;
+
+		for (int slot = hash(key) & mask; values[slot] != NO_VALUE; slot = (slot + 1) & mask) {
+			if (keys[slot] == key)
+				return values[slot];
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Retrieve the stamp stored at the given chunk.
+	 *
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @return The stored stamp, or zero if not found.
+	 */
+	public int getStamp(int chunkX, int chunkZ) {
+		long key = getKey(chunkX, chunkZ);
+		int mask = keys.length - 1;
+
+		for (int slot = hash(key) & mask; values[slot] != NO_VALUE; slot = (slot + 1) & mask) {
+			if (keys[slot] == key)
+				return stamps[slot];
+		}
+		return 0;
+	}
+
+	/**
+	 * Store a value at the given chunk, with a stamp of zero.
+	 *
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @param value - the new value, or NO_VALUE to remove it.
+	 * @return The previous value, or NO_VALUE if not found.
+	 */
+	public int put(int chunkX, int chunkZ, int value) {
+		return put(chunkX, chunkZ, value, 0);
+	}
+
+	/**
+	 * Store a value and a stamp at the given chunk.
+	 *
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @param value - the new value, or NO_VALUE to remove it.
+	 * @param stamp - the new stamp.
+	 * @return The previous value, or NO_VALUE if not found.
+	 */
+	public int put(int chunkX, int chunkZ, int value, int stamp) {
+		if (value == NO_VALUE)
+			return remove(chunkX, chunkZ);
+
+		long key = getKey(chunkX, chunkZ);
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+
+		for (; values[slot] != NO_VALUE; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				int previous = values[slot];
+				values[slot] = value;
+				stamps[slot] = stamp;
+				return previous;
+			}
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		stamps[slot] = stamp;
+
+		// Keep the load factor at or below 1/2
+		if (++size > keys.length >> 1) {
+			resize(keys.length << 1);
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Remove the value stored at the given chunk.
+	 *
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @return The removed value, or NO_VALUE if not found.
+	 */
+	public int remove(int chunkX, int chunkZ) {
+		long key = getKey(chunkX, chunkZ);
+		int mask = keys.length - 1;
+
+		for (int slot = hash(key) & mask; values[slot] != NO_VALUE; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				int previous = values[slot];
+				deleteSlot(slot);
+
+				// Shrink when the table is mostly empty
+				if (--size < keys.length >> 3 && keys.length > MINIMUM_CAPACITY) {
+					resize(keys.length >> 1);
+				}
+				return previous;
+			}
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Invoke the given visitor for every entry in the map.
+	 * 
+	 * @param visitor - the visitor.
+	 */
+	public void forEach(EntryVisitor visitor) {
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (values[slot] != NO_VALUE) {
+				visitor.visit(getChunkX(keys[slot]), getChunkZ(keys[slot]), values[slot], stamps[slot]);
+			}
+		}
+	}
+
+	/**
+	 * Remove every entry and release the memory used by the table.
+	 */
+	public void clear() {
+		if (keys.length > MINIMUM_CAPACITY) {
+			allocate(MINIMUM_CAPACITY);
+		} else {
+			Arrays.fill(values, NO_VALUE);
+		}
+		size = 0;
+	}
+
+	/**
+	 * Retrieve the number of stored entries.
+	 *
+	 * @return Number of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Retrieve the number of slots in the underlying table.
+	 *
+	 * @return Number of slots.
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Pack the given chunk coordinates into a single key.
+	 *
+	 * @param chunkX - chunk x position.
+	 * @param chunkZ - chunk z position.
+	 * @return The key.
+	 */
+	public static long getKey(int chunkX, int chunkZ) {
+		return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Retrieve the chunk x position from a packed key.
+	 *
+	 * @param key - the key.
+	 * @return The chunk x position.
+	 */
+	public static int getChunkX(long key) {
+		return (int) (key >> 32);
+	}
+
+	/**
+	 * Retrieve the chunk z position from a packed key.
+	 *
+	 * @param key - the key.
+	 * @return The chunk z position.
+	 */
+	public static int getChunkZ(long key) {
+		return (int) key;
+	}
+
+	private void deleteSlot(int slot) {
+		int mask = keys.length - 1;
+		int hole = slot;
+
+		// Shift back every following entry that would otherwise become unreachable
+		for (int next = (hole + 1) & mask; values[next] != NO_VALUE; next = (next + 1) & mask) {
+			int ideal = hash(keys[next]) & mask;
+
+			if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				stamps[hole] = stamps[next];
+				hole = next;
+			}
+		}
+		values[hole] = NO_VALUE;
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		int[] oldStamps = stamps;
+		allocate(capacity);
+
+		int mask = capacity - 1;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != NO_VALUE) {
+				int slot = hash(oldKeys[i]) & mask;
+
+				while (values[slot] != NO_VALUE) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+				stamps[slot] = oldStamps[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		stamps = new int[capacity];
+	}
+
+	private static int hash(long key) {
+		// Mix the bits, so neighbouring chunks are spread out
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -48,14 +48,13 @@ public class ChunkSegmentLookup implements SegmentLookup, Serializable {
 	private ChunkSegmentLookup(ChunkSegmentLookup other) {
 		this.baseLookup = new LazyCopyLookup(other.baseLookup);
 		this.segments = new ConversionLookup[other.segmentCount];
-		this.lazyCopies = new LazyCopyLookup[other.segmentCount];
 		this.segmentCount = other.segmentCount;
 		this.baseUseCount = other.baseUseCount;
 
-		// Lazy copy of every segment
+		// Lazy copy of every segment - stored as a segment so it is also updated by the setters of the whole chunk
 		for (int y = 0; y < segmentCount; y++) {
 			if (other.segments[y] != null) {
-				this.lazyCopies[y] = new LazyCopyLookup(other.segments[y]);
+				this.segments[y] = new LazyCopyLookup(other.segments[y]);
 			}
 		}
 	}
@@ -101,6 +100,36 @@ public class ChunkSegmentLookup implements SegmentLookup, Serializable {
 		return lookup;
 	}
 
+	/**
+	 * Retrieve the lookup table that currently backs the given segment, without creating a lazy copy.
+	 * <p>
+	 * The result must only be read from.
+	 * 
+	 * @param chunkY - the y position of the specified segment.
+	 * @return The underlying lookup table.
+	 */
+	ConversionLookup getSegmentDelegate(int chunkY) {
+		if (segments[chunkY] != null)
+			return segments[chunkY];
+		if (lazyCopies != null && lazyCopies[chunkY] != null)
+			return lazyCopies[chunkY];
+		return baseLookup;
+	}
+
+	/**
+	 * Retrieve the lookup table that is used most, without creating a lazy copy.
+	 * <p>
+	 * The result must only be read from.
+	 * 
+	 * @return Most used lookup table.
+	 */
+	ConversionLookup getCommonDelegate() {
+		if (baseUseCount > 1)
+			return baseLookup;
+		else
+			return getSegmentDelegate(0);
+	}
+
 	/**
 	 * Retrieve the lookup table that is used most.
 	 * 
@@ -192,17 +221,41 @@ public class ChunkSegmentLookup implements SegmentLookup, Serializable {
 		if (other == null)
 			return false;
 
-		// Check the actual content
+		// Check the actual content - segments of a clone may still be lazy copies
 		if (other instanceof ChunkSegmentLookup) {
 			final ChunkSegmentLookup segmentLookup = (ChunkSegmentLookup) other;
-			return Arrays.deepEquals(segments, segmentLookup.segments) && Objects.equal(baseLookup, segmentLookup.baseLookup);
+
+			if (segmentCount != segmentLookup.segmentCount)
+				return false;
+			for (int y = 0; y < segmentCount; y++) {
+				if (!Objects.equal(getSegmentDelegate(y), segmentLookup.getSegmentDelegate(y)))
+					return false;
+			}
+			return true;
 		}
 		return false;
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hashCode(Arrays.hashCode(segments), baseLookup);
+		int[] hashes = new int[segmentCount];
+		ConversionLookup previous = null;
+
+		for (int y = 0; y < segmentCount; y++) {
+			ConversionLookup current = getSegmentDelegate(y);
+
+			while (current instanceof LazyCopyLookup) {
+				current = ((LazyCopyLookup) current).delegate;
+			}
+
+			// Most segments share the same lookup table
+			if (y > 0 && current == previous)
+				hashes[y] = hashes[y - 1];
+			else
+				hashes[y] = current.hashCode();
+			previous = current;
+		}
+		return Arrays.hashCode(hashes);
 	}
 
 	@Override
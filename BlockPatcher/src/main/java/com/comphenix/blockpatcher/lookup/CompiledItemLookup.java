@@ -0,0 +1,182 @@
+package com.comphenix.blockpatcher.lookup;
+
+import java.util.Arrays;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Represents a read-only snapshot of item conversions, flattened into tables indexed by item ID and durability.
+ * <p>
+ * The conversions may be derived from a compiled block lookup, in which case every block item is converted like the
+ * block itself, and the data value is converted as a durability. Explicit item conversions take precedence.
+ * <p>
+ * This class is immutable and thus thread safe, though it modifies the given item stacks.
+ */
+public final class CompiledItemLookup {
+	// Marks an unconverted durability
+	private static final int NO_VARIANT = -1;
+
+	private final char[] ids;
+	private final int[][] durabilities;
+	private final boolean[] dynamic;
+	private final boolean anyDynamic;
+	private final boolean identity;
+
+	private CompiledItemLookup(char[] ids, int[][] durabilities, boolean[] dynamic, boolean anyDynamic) {
+		this.ids = ids;
+		this.durabilities = durabilities;
+		this.dynamic = dynamic;
+		this.anyDynamic = anyDynamic;
+		this.identity = isIdentity(ids, durabilities);
+	}
+
+	/**
+	 * Compile the given item conversions.
+	 * <p>
+	 * Later changes to the item or block lookup are not reflected in the result.
+	 *
+	 * @param items - the item conversions.
+	 * @param blocks - the block conversions to derive item conversions from, or NULL.
+	 * @return The compiled lookup.
+	 */
+	public static CompiledItemLookup compile(ItemLookup items, CompiledLookup blocks) {
+		if (items == null)
+			throw new IllegalArgumentException("Items cannot be NULL.");
+
+		char[] ids = new char[ItemLookup.MAX_ITEM_ID];
+		int[][] durabilities = new int[ItemLookup.MAX_ITEM_ID][];
+		boolean[] dynamic = new boolean[ItemLookup.MAX_ITEM_ID];
+
+		for (int id = 0; id < ids.length; id++) {
+			ids[id] = (char) id;
+		}
+		if (blocks != null) {
+			copyBlocks(blocks, ids, durabilities);
+		}
+		boolean anyDynamic = items.copyTo(ids, durabilities, dynamic);
+		return new CompiledItemLookup(ids, durabilities, dynamic, anyDynamic);
+	}
+
+	private static void copyBlocks(CompiledLookup blocks, char[] ids, int[][] durabilities) {
+		int blockCount = CompiledLookup.TABLE_SIZE >> 4;
+
+		// Air is never an item
+		for (int blockID = 1; blockID < blockCount; blockID++) {
+			for (int data = 0; data < 16; data++) {
+				int translated = getGlobalTranslation(blocks, (blockID << 4) | data);
+				int newBlockID = translated >> 4;
+
+				// Skip blocks that are translated differently per segment, or that would disappear
+				if (translated < 0 || newBlockID == 0)
+					continue;
+				if (data == 0)
+					ids[blockID] = (char) newBlockID;
+				if (newBlockID != ids[blockID] || (translated & 0xF) != data)
+					setVariant(durabilities, blockID, data, ItemLookup.getKey(newBlockID, translated & 0xF));
+			}
+		}
+	}
+
+	private static int getGlobalTranslation(CompiledLookup blocks, int protocolID) {
+		int translated = blocks.translate(protocolID, 0);
+
+		for (int y = 1; y < blocks.getSegmentCount(); y++) {
+			if (blocks.translate(protocolID, y) != translated)
+				return -1;
+		}
+		return translated;
+	}
+
+	static void setVariant(int[][] durabilities, int itemID, int durability, int variant) {
+		int[] table = durabilities[itemID];
+
+		if (table == null || table.length <= durability) {
+			int oldLength = table != null ? table.length : 0;
+
+			table = table != null ? Arrays.copyOf(table, durability + 1) : new int[durability + 1];
+			Arrays.fill(table, oldLength, table.length, NO_VARIANT);
+			durabilities[itemID] = table;
+		}
+		table[durability] = variant;
+	}
+
+	private static boolean isIdentity(char[] ids, int[][] durabilities) {
+		for (int id = 0; id < ids.length; id++) {
+			if (ids[id] != id)
+				return false;
+
+			int[] table = durabilities[id];
+
+			if (table != null) {
+				for (int durability = 0; durability < table.length; durability++) {
+					if (table[durability] != NO_VARIANT && table[durability] != ItemLookup.getKey(id, durability))
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Convert the given item stack.
+	 *
+	 * @param stack - the item stack to convert, or NULL.
+	 * @return TRUE if the item stack was changed, FALSE otherwise.
+	 */
+	@SuppressWarnings("deprecation")
+	public boolean translate(ItemStack stack) {
+		if (identity || stack == null)
+			return false;
+
+		int itemID = stack.getTypeId();
+
+		if (itemID < 0 || itemID >= ids.length)
+			return false;
+
+		short durability = stack.getDurability();
+		int[] table = durabilities[itemID];
+		int variant = table != null && durability >= 0 && durability < table.length ? table[durability] : NO_VARIANT;
+
+		if (variant != NO_VARIANT) {
+			int newItemID = variant >>> 16;
+			short newDurability = (short) (variant & 0xFFFF);
+
+			if (newItemID != itemID)
+				stack.setTypeId(newItemID);
+			if (newDurability != durability)
+				stack.setDurability(newDurability);
+			return newItemID != itemID || newDurability != durability;
+
+		} else if (ids[itemID] != itemID) {
+			stack.setTypeId(ids[itemID]);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Determine if the ItemConvertingEvent should be invoked for the given item stack.
+	 *
+	 * @param stack - the item stack before it is converted, or NULL.
+	 * @return TRUE if it should, FALSE otherwise.
+	 */
+	@SuppressWarnings("deprecation")
+	public boolean isDynamic(ItemStack stack) {
+		if (stack == null)
+			return false;
+		if (!anyDynamic)
+			return true;
+
+		int itemID = stack.getTypeId();
+		return itemID >= 0 && itemID < dynamic.length && dynamic[itemID];
+	}
+
+	/**
+	 * Determine if this lookup never changes any item.
+	 *
+	 * @return TRUE if it does, FALSE otherwise.
+	 */
+	public boolean isIdentity() {
+		return identity;
+	}
+}
@@ -0,0 +1,241 @@
+package com.comphenix.blockpatcher.lookup;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Represents a read-only snapshot of a segment lookup, flattened into one table per segment.
+ * <p>
+ * Each table maps a protocol block ID (block ID shifted left by four, OR'ed with the data value) directly to
+ * the translated protocol block ID. Segments that share the same underlying lookup table also share the same
+ * compiled table, and every compiled table carries a fingerprint of its content.
+ * <p>
+ * This class is immutable and thus thread safe.
+ */
+public final class CompiledLookup {
+	/**
+	 * Number of entries in a compiled table - one for every block ID and data value.
+	 */
+	public static final int TABLE_SIZE = 256 * 16;
+
+	/**
+	 * The table that doesn't change anything. Shared by every identity segment.
+	 */
+	private static final char[] IDENTITY_TABLE = createIdentity();
+	private static final int IDENTITY_FINGERPRINT = Arrays.hashCode(IDENTITY_TABLE);
+
+	private final char[][] tables;
+	private final int[] fingerprints;
+
+	private CompiledLookup(char[][] tables, int[] fingerprints) {
+		this.tables = tables;
+		this.fingerprints = fingerprints;
+	}
+
+	/**
+	 * Compile the given segment lookup.
+	 * <p>
+	 * Later changes to the segment lookup are not reflected in the result.
+	 *
+	 * @param lookup - the lookup to compile.
+	 * @return The compiled lookup.
+	 */
+	public static CompiledLookup compile(SegmentLookup lookup) {
+		if (lookup == null)
+			throw new IllegalArgumentException("Lookup cannot be NULL.");
+
+		int segmentCount = lookup.getSegmentCount();
+		char[][] tables = new char[segmentCount][];
+		int[] fingerprints = new int[segmentCount];
+
+		// Segments usually share the same lookup table, so we only compile each one once
+		Map<ConversionLookup, Integer> compiled = new IdentityHashMap<ConversionLookup, Integer>();
+
+		for (int y = 0; y < segmentCount; y++) {
+			ConversionLookup segment = unwrap(getSegment(lookup, y));
+			Integer previous = compiled.get(segment);
+
+			if (previous != null) {
+				tables[y] = tables[previous];
+				fingerprints[y] = fingerprints[previous];
+			} else {
+				char[] table = compileTable(segment);
+				int fingerprint = Arrays.hashCode(table);
+
+				// Share the identity table whenever possible
+				if (fingerprint == IDENTITY_FINGERPRINT && Arrays.equals(table, IDENTITY_TABLE)) {
+					table = IDENTITY_TABLE;
+				}
+				tables[y] = table;
+				fingerprints[y] = fingerprint;
+				compiled.put(segment, y);
+			}
+		}
+		return new CompiledLookup(tables, fingerprints);
+	}
+
+	/**
+	 * Retrieve the number of segments in this lookup.
+	 *
+	 * @return Number of segments.
+	 */
+	public int getSegmentCount() {
+		return tables.length;
+	}
+
+	/**
+	 * Translate the given protocol block ID in the given segment.
+	 *
+	 * @param protocolID - the block ID shifted left by four, OR'ed with the data value.
+	 * @param chunkY - the y position of the specified segment.
+	 * @return The translated protocol block ID.
+	 */
+	public int translate(int protocolID, int chunkY) {
+		// We intentially skip range checking for performance reasons
+		return tables[chunkY][protocolID];
+	}
+
+	/**
+	 * Translate the given block ID and data value in the given segment.
+	 *
+	 * @param blockID - the old block ID.
+	 * @param dataValue - the old data value.
+	 * @param chunkY - the y position of the specified segment.
+	 * @return The translated block ID shifted left by four, OR'ed with the translated data value.
+	 */
+	public int translate(int blockID, int dataValue, int chunkY) {
+		return tables[chunkY][(blockID << 4) | dataValue];
+	}
+
+	/**
+	 * Retrieve a fingerprint of the compiled table in the given segment.
+	 * <p>
+	 * Segments with different fingerprints are guaranteed to be different. Equal fingerprints are not proof of equality.
+	 *
+	 * @param chunkY - the y position of the specified segment.
+	 * @return The fingerprint.
+	 */
+	public int getFingerprint(int chunkY) {
+		return fingerprints[chunkY];
+	}
+
+	/**
+	 * Determine if the given segment translates every block to itself.
+	 *
+	 * @param chunkY - the y position of the specified segment.
+	 * @return TRUE if it does, FALSE otherwise.
+	 */
+	public boolean isIdentity(int chunkY) {
+		return tables[chunkY] == IDENTITY_TABLE;
+	}
+
+	/**
+	 * Determine if every segment translates every block to itself.
+	 *
+	 * @return TRUE if they do, FALSE otherwise.
+	 */
+	public boolean isIdentity() {
+		for (char[] table : tables) {
+			if (table != IDENTITY_TABLE)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Determine if the two segments contain the same translation table.
+	 *
+	 * @param other - the other compiled lookup.
+	 * @param chunkY - the y position of the segment in both lookups.
+	 * @return TRUE if they are equal, FALSE otherwise.
+	 */
+	public boolean segmentEquals(CompiledLookup other, int chunkY) {
+		char[] table = tables[chunkY];
+		char[] otherTable = other.tables[chunkY];
+
+		if (table == otherTable)
+			return true;
+		if (fingerprints[chunkY] != other.fingerprints[chunkY])
+			return false;
+		return Arrays.equals(table, otherTable);
+	}
+
+	/**
+	 * Retrieve the compiled table of the given segment. The table must never be modified.
+	 *
+	 * @param chunkY - the y position of the specified segment.
+	 * @return The compiled table.
+	 */
+	public char[] getTable(int chunkY) {
+		return tables[chunkY];
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other == this)
+			return true;
+		if (!(other instanceof CompiledLookup))
+			return false;
+
+		CompiledLookup compiled = (CompiledLookup) other;
+
+		if (compiled.tables.length != tables.length)
+			return false;
+		for (int y = 0; y < tables.length; y++) {
+			if (!segmentEquals(compiled, y))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(fingerprints);
+	}
+
+	static ConversionLookup getSegment(SegmentLookup lookup, int chunkY) {
+		// Avoid creating lazy copies for every segment
+		if (lookup instanceof ChunkSegmentLookup)
+			return ((ChunkSegmentLookup) lookup).getSegmentDelegate(chunkY);
+		return lookup.getSegmentView(chunkY);
+	}
+
+	static ConversionLookup unwrap(ConversionLookup lookup) {
+		while (lookup instanceof LazyCopyLookup) {
+			lookup = ((LazyCopyLookup) lookup).delegate;
+		}
+		return lookup;
+	}
+
+	private static char[] compileTable(ConversionLookup lookup) {
+		byte[] blockLookup;
+		byte[] dataLookup;
+
+		// Read the tables directly instead of cloning them
+		if (lookup instanceof ChunkLookup) {
+			blockLookup = ((ChunkLookup) lookup).blockLookup;
+			dataLookup = ((ChunkLookup) lookup).dataLookup;
+		} else {
+			blockLookup = lookup.getBlockLookup();
+			dataLookup = lookup.getDataLookup();
+		}
+
+		char[] table = new char[TABLE_SIZE];
+
+		for (int id = 0; id < TABLE_SIZE; id++) {
+			int blockID = id >> 4;
+			table[id] = (char) (((blockLookup[blockID] & 0xFF) << 4) | (dataLookup[id] & 0xF));
+		}
+		return table;
+	}
+
+	private static char[] createIdentity() {
+		char[] table = new char[TABLE_SIZE];
+
+		for (int id = 0; id < TABLE_SIZE; id++) {
+			table[id] = (char) id;
+		}
+		return table;
+	}
+}
@@ -0,0 +1,142 @@
+package com.comphenix.blockpatcher.lookup;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Represents a set of item conversions that apply to every item sent to a client.
+ * <p>
+ * An item can either be converted regardless of its durability, or only when it has a specific durability. The latter
+ * takes precedence. Items may also be marked as dynamic, in which case the ItemConvertingEvent is invoked for them.
+ * <p>
+ * This class is thread safe. Conversions are applied through a {@link CompiledItemLookup}.
+ */
+public class ItemLookup {
+	/**
+	 * The largest item ID that can be converted, exclusive.
+	 */
+	public static final int MAX_ITEM_ID = 4096;
+
+	/**
+	 * The largest durability that can be converted, inclusive.
+	 */
+	public static final int MAX_DURABILITY = Short.MAX_VALUE;
+
+	// Item ID, new item ID
+	private final Map<Integer, Integer> items = new HashMap<Integer, Integer>();
+
+	// Item ID and durability, new item ID and durability
+	private final Map<Integer, Integer> variants = new HashMap<Integer, Integer>();
+
+	// Items that are converted by event handlers
+	private final Set<Integer> dynamicItems = new HashSet<Integer>();
+
+	// Incremented whenever this lookup is changed
+	private volatile int modificationCount;
+
+	/**
+	 * Convert every item of the given ID to a different item ID, keeping the durability.
+	 *
+	 * @param itemID - the item ID.
+	 * @param newItemID - the new item ID.
+	 */
+	public synchronized void setItem(int itemID, int newItemID) {
+		checkItem(itemID, "itemID");
+		checkItem(newItemID, "newItemID");
+
+		items.put(itemID, newItemID);
+		modificationCount++;
+	}
+
+	/**
+	 * Convert every item of the given ID and durability to a different item ID and durability.
+	 *
+	 * @param itemID - the item ID.
+	 * @param durability - the durability.
+	 * @param newItemID - the new item ID.
+	 * @param newDurability - the new durability.
+	 */
+	public synchronized void setItem(int itemID, int durability, int newItemID, int newDurability) {
+		checkItem(itemID, "itemID");
+		checkItem(newItemID, "newItemID");
+		checkDurability(durability, "durability");
+		checkDurability(newDurability, "newDurability");
+
+		variants.put(getKey(itemID, durability), getKey(newItemID, newDurability));
+		modificationCount++;
+	}
+
+	/**
+	 * Set whether or not the ItemConvertingEvent should be invoked for items of the given ID.
+	 * <p>
+	 * The event is invoked for every item as long as no item has been marked as dynamic.
+	 *
+	 * @param itemID - the item ID.
+	 * @param dynamic - TRUE if the event should be invoked, FALSE otherwise.
+	 */
+	public synchronized void setDynamic(int itemID, boolean dynamic) {
+		checkItem(itemID, "itemID");
+
+		if (dynamic ? dynamicItems.add(itemID) : dynamicItems.remove(itemID)) {
+			modificationCount++;
+		}
+	}
+
+	/**
+	 * Remove every conversion and dynamic item.
+	 */
+	public synchronized void clear() {
+		items.clear();
+		variants.clear();
+		dynamicItems.clear();
+		modificationCount++;
+	}
+
+	/**
+	 * Retrieve the number of times this lookup has been modified.
+	 *
+	 * @return The modification count.
+	 */
+	public int getModificationCount() {
+		return modificationCount;
+	}
+
+	/**
+	 * Copy every conversion into the given compiled tables.
+	 *
+	 * @param ids - new item ID by item ID.
+	 * @param durabilities - new item ID and durability by item ID and durability, or -1 if unchanged.
+	 * @param dynamic - whether or not an item is dynamic by item ID.
+	 * @return TRUE if any item is dynamic, FALSE otherwise.
+	 */
+	synchronized boolean copyTo(char[] ids, int[][] durabilities, boolean[] dynamic) {
+		for (Entry<Integer, Integer> entry : items.entrySet()) {
+			ids[entry.getKey()] = (char) (int) entry.getValue();
+		}
+		for (Entry<Integer, Integer> entry : variants.entrySet()) {
+			int key = entry.getKey();
+			CompiledItemLookup.setVariant(durabilities, key >>> 16, key & 0xFFFF, entry.getValue());
+		}
+		for (Integer itemID : dynamicItems) {
+			dynamic[itemID] = true;
+		}
+		return !dynamicItems.isEmpty();
+	}
+
+	static int getKey(int itemID, int durability) {
+		return (itemID << 16) | durability;
+	}
+
+	private static void checkItem(int itemID, String name) {
+		if (itemID < 0 || itemID >= MAX_ITEM_ID)
+			throw new IllegalArgumentException(name + " must be between 0 and " + (MAX_ITEM_ID - 1));
+	}
+
+	private static void checkDurability(int durability, String name) {
+		if (durability < 0 || durability > MAX_DURABILITY)
+			throw new IllegalArgumentException(name + " must be between 0 and " + MAX_DURABILITY);
+	}
+}
@@ -0,0 +1,226 @@
+package com.comphenix.blockpatcher.lookup;
+
+/**
+ * Represents a segment lookup that uses a read-only segment lookup as a basis for all of its operations.
+ * <p>
+ * The underlying segment lookup is only cloned when a caller attempts to modify it, including through a segment view.
+ * Reading never modifies the underlying segment lookup, so it may be shared by multiple threads.
+ * <p>
+ * Note that this class is not thread safe.
+ */
+public class LazyCopySegmentLookup implements SegmentLookup {
+	private SegmentLookup source;
+	private SegmentLookup copy;
+
+	/**
+	 * A segment view that redirects modifications to the clone.
+	 */
+	private class SegmentView implements ConversionLookup {
+		private final int chunkY;
+
+		public SegmentView(int chunkY) {
+			this.chunkY = chunkY;
+		}
+
+		private ConversionLookup getReadView() {
+			return copy != null ? copy.getSegmentView(chunkY) : CompiledLookup.getSegment(source, chunkY);
+		}
+
+		@Override
+		public byte[] getDataLookup() {
+			return getReadView().getDataLookup();
+		}
+
+		@Override
+		public byte[] getBlockLookup() {
+			return getReadView().getBlockLookup();
+		}
+
+		@Override
+		public void setBlockLookup(int blockID, int newBlockID) {
+			getWritable().setBlockLookup(blockID, newBlockID, chunkY);
+		}
+
+		@Override
+		public int getBlockLookup(int blockID) {
+			return getReadView().getBlockLookup(blockID);
+		}
+
+		@Override
+		public void setDataLookup(int blockID, int originalDataValue, int newDataValue) {
+			getWritable().setDataLookup(blockID, originalDataValue, newDataValue, chunkY);
+		}
+
+		@Override
+		public int getDataLookup(int blockID, int dataValue) {
+			return getReadView().getDataLookup(blockID, dataValue);
+		}
+
+		@Override
+		public ConversionLookup deepClone() {
+			return getReadView().deepClone();
+		}
+	}
+
+	/**
+	 * Construct a lazy copy of the given segment lookup.
+	 * 
+	 * @param source - the segment lookup to copy. It will never be modified.
+	 */
+	public LazyCopySegmentLookup(SegmentLookup source) {
+		reset(source);
+	}
+
+	/**
+	 * Reuse this lazy copy for a different segment lookup, discarding any modifications.
+	 * <p>
+	 * Segment views retrieved before the reset will read from the new segment lookup.
+	 * 
+	 * @param source - the segment lookup to copy. It will never be modified.
+	 */
+	public void reset(SegmentLookup source) {
+		if (source == null)
+			throw new IllegalArgumentException("The lookup table cannot be NULL. Use an identity table instead.");
+		this.source = unwrap(source);
+		this.copy = null;
+	}
+
+	/**
+	 * Retrieve the underlying segment lookup of a lazy copy, or the given lookup if it is not a lazy copy.
+	 * <p>
+	 * The result is the original segment lookup if the lazy copy has not been modified.
+	 * 
+	 * @param lookup - the lookup to unwrap.
+	 * @return The underlying segment lookup.
+	 */
+	public static SegmentLookup unwrap(SegmentLookup lookup) {
+		if (lookup instanceof LazyCopySegmentLookup) {
+			return ((LazyCopySegmentLookup) lookup).getDelegate();
+		}
+		return lookup;
+	}
+
+	/**
+	 * Retrieve the current underlying segment lookup.
+	 * 
+	 * @return The original segment lookup, or its clone if it has been modified.
+	 */
+	public SegmentLookup getDelegate() {
+		return copy != null ? copy : source;
+	}
+
+	/**
+	 * Whether or not the lookup table has been modified since the lazy copy was created.
+	 * 
+	 * @return TRUE if it has, FALSE otherwise.
+	 */
+	public boolean isModified() {
+		return copy != null;
+	}
+
+	private SegmentLookup getWritable() {
+		if (copy == null) {
+			copy = (SegmentLookup) source.deepClone();
+		}
+		return copy;
+	}
+
+	private ConversionLookup getCommonReadView() {
+		if (copy != null)
+			return copy;
+		// Avoid creating lazy copies in the shared lookup
+		if (source instanceof ChunkSegmentLookup)
+			return ((ChunkSegmentLookup) source).getCommonDelegate();
+		return source;
+	}
+
+	@Override
+	public ConversionLookup getSegmentView(int chunkY) {
+		if (chunkY < 0 || chunkY >= getSegmentCount())
+			throw new IllegalArgumentException("y (" + chunkY + ") must be in the range 0 - " + (getSegmentCount() - 1));
+		if (copy != null)
+			return copy.getSegmentView(chunkY);
+		return new SegmentView(chunkY);
+	}
+
+	@Override
+	public void setBlockLookup(int blockID, int newBlockID, int chunkY) {
+		getWritable().setBlockLookup(blockID, newBlockID, chunkY);
+	}
+
+	@Override
+	public int getBlockLookup(int blockID, int chunkY) {
+		if (copy != null)
+			return copy.getBlockLookup(blockID, chunkY);
+		return CompiledLookup.getSegment(source, chunkY).getBlockLookup(blockID);
+	}
+
+	@Override
+	public void setDataLookup(int blockID, int originalDataValue, int newDataValue, int chunkY) {
+		getWritable().setDataLookup(blockID, originalDataValue, newDataValue, chunkY);
+	}
+
+	@Override
+	public int getDataLookup(int blockID, int dataValue, int chunkY) {
+		if (copy != null)
+			return copy.getDataLookup(blockID, dataValue, chunkY);
+		return CompiledLookup.getSegment(source, chunkY).getDataLookup(blockID, dataValue);
+	}
+
+	@Override
+	public int getSegmentCount() {
+		return source.getSegmentCount();
+	}
+
+	@Override
+	public byte[] getDataLookup() {
+		return getCommonReadView().getDataLookup();
+	}
+
+	@Override
+	public byte[] getBlockLookup() {
+		return getCommonReadView().getBlockLookup();
+	}
+
+	@Override
+	public void setBlockLookup(int blockID, int newBlockID) {
+		getWritable().setBlockLookup(blockID, newBlockID);
+	}
+
+	@Override
+	public int getBlockLookup(int blockID) {
+		return getCommonReadView().getBlockLookup(blockID);
+	}
+
+	@Override
+	public void setDataLookup(int blockID, int originalDataValue, int newDataValue) {
+		getWritable().setDataLookup(blockID, originalDataValue, newDataValue);
+	}
+
+	@Override
+	public int getDataLookup(int blockID, int dataValue) {
+		return getCommonReadView().getDataLookup(blockID, dataValue);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other == this)
+			return true;
+		if (other instanceof SegmentLookup)
+			return getDelegate().equals(unwrap((SegmentLookup) other));
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return getDelegate().hashCode();
+	}
+
+	@Override
+	public ConversionLookup deepClone() {
+		// The clone must not see later modifications to this lookup
+		if (copy != null)
+			return copy.deepClone();
+		return new LazyCopySegmentLookup(source);
+	}
+}
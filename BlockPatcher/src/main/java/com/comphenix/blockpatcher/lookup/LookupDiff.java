@@ -0,0 +1,155 @@
+package com.comphenix.blockpatcher.lookup;
+
+import java.util.BitSet;
+
+/**
+ * Represents every block ID, data value and segment that is translated differently by two lookups.
+ * <p>
+ * Changes are stored as a set of protocol block IDs (block ID shifted left by four, OR'ed with the data value)
+ * for each segment. Segments without any changes don't store anything.
+ * <p>
+ * This class is immutable and thus thread safe.
+ */
+public final class LookupDiff {
+	private final BitSet[] changes;
+	private final int changedSegments;
+
+	private LookupDiff(BitSet[] changes, int changedSegments) {
+		this.changes = changes;
+		this.changedSegments = changedSegments;
+	}
+
+	/**
+	 * Compute the difference between two segment lookups.
+	 *
+	 * @param a - the first lookup.
+	 * @param b - the second lookup.
+	 * @return The difference between the two lookups.
+	 */
+	public static LookupDiff diff(SegmentLookup a, SegmentLookup b) {
+		if (a == null || b == null)
+			throw new IllegalArgumentException("Lookups cannot be NULL.");
+		return diff(CompiledLookup.compile(a), CompiledLookup.compile(b));
+	}
+
+	/**
+	 * Compute the difference between two compiled lookups.
+	 *
+	 * @param a - the first lookup.
+	 * @param b - the second lookup.
+	 * @return The difference between the two lookups.
+	 */
+	public static LookupDiff diff(CompiledLookup a, CompiledLookup b) {
+		if (a == null || b == null)
+			throw new IllegalArgumentException("Lookups cannot be NULL.");
+		if (a.getSegmentCount() != b.getSegmentCount())
+			throw new IllegalArgumentException("Lookups must have the same number of segments.");
+
+		int segmentCount = a.getSegmentCount();
+		BitSet[] changes = new BitSet[segmentCount];
+		int changedSegments = 0;
+
+		for (int y = 0; y < segmentCount; y++) {
+			// Skips shared and identical tables
+			if (a.segmentEquals(b, y))
+				continue;
+
+			// Reuse the result of an earlier segment with the same tables
+			BitSet previous = findPrevious(a, b, changes, y);
+
+			if (previous == null) {
+				char[] tableA = a.getTable(y);
+				char[] tableB = b.getTable(y);
+				previous = new BitSet(CompiledLookup.TABLE_SIZE);
+
+				for (int id = 0; id < tableA.length; id++) {
+					if (tableA[id] != tableB[id])
+						previous.set(id);
+				}
+			}
+			changes[y] = previous;
+			changedSegments |= 1 << y;
+		}
+		return new LookupDiff(changes, changedSegments);
+	}
+
+	private static BitSet findPrevious(CompiledLookup a, CompiledLookup b, BitSet[] changes, int chunkY) {
+		for (int y = 0; y < chunkY; y++) {
+			if (changes[y] != null && a.getTable(y) == a.getTable(chunkY) && b.getTable(y) == b.getTable(chunkY))
+				return changes[y];
+		}
+		return null;
+	}
+
+	/**
+	 * Determine if the two lookups translate every block identically.
+	 *
+	 * @return TRUE if they do, FALSE otherwise.
+	 */
+	public boolean isEmpty() {
+		return changedSegments == 0;
+	}
+
+	/**
+	 * Retrieve a bit mask of every changed segment, where the lowest bit is the lowest segment.
+	 *
+	 * @return Bit mask of changed segments.
+	 */
+	public int getChangedSegmentMask() {
+		return changedSegments;
+	}
+
+	/**
+	 * Retrieve the number of segments that were compared.
+	 *
+	 * @return Number of segments.
+	 */
+	public int getSegmentCount() {
+		return changes.length;
+	}
+
+	/**
+	 * Determine if any block in the given segment is translated differently.
+	 *
+	 * @param chunkY - the y position of the specified segment.
+	 * @return TRUE if it is, FALSE otherwise.
+	 */
+	public boolean isChanged(int chunkY) {
+		return changes[chunkY] != null;
+	}
+
+	/**
+	 * Determine if the given protocol block ID is translated differently in the given segment.
+	 *
+	 * @param protocolID - the block ID shifted left by four, OR'ed with the data value.
+	 * @param chunkY - the y position of the specified segment.
+	 * @return TRUE if it is, FALSE otherwise.
+	 */
+	public boolean isChanged(int protocolID, int chunkY) {
+		BitSet segment = changes[chunkY];
+		return segment != null && segment.get(protocolID);
+	}
+
+	/**
+	 * Determine if the given block ID and data value is translated differently in the given segment.
+	 *
+	 * @param blockID - the block ID.
+	 * @param dataValue - the data value.
+	 * @param chunkY - the y position of the specified segment.
+	 * @return TRUE if it is, FALSE otherwise.
+	 */
+	public boolean isChanged(int blockID, int dataValue, int chunkY) {
+		return isChanged((blockID << 4) | dataValue, chunkY);
+	}
+
+	/**
+	 * Retrieve every protocol block ID that is translated differently in the given segment.
+	 *
+	 * @param chunkY - the y position of the specified segment.
+	 * @return A copy of the changed protocol block IDs.
+	 */
+	public BitSet getChanges(int chunkY) {
+		BitSet segment = changes[chunkY];
+		return segment != null ? (BitSet) segment.clone() : new BitSet();
+	}
+}
@@ -0,0 +1,53 @@
+package com.comphenix.blockpatcher.lookup;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Estimates the heap used by lookup tables.
+ * <p>
+ * The estimates assume a 64-bit JVM with compressed pointers, and are only meant for enforcing memory limits.
+ */
+public final class LookupMemory {
+	/**
+	 * The approximate size of a single conversion lookup - a block table and a data table.
+	 */
+	public static final int CONVERSION_LOOKUP_SIZE = 16 + (16 + 256) + (16 + 256 * 16);
+
+	/**
+	 * The approximate size of a segment lookup, excluding the conversion lookups it refers to.
+	 */
+	public static final int SEGMENT_LOOKUP_SIZE = 32 + 2 * (16 + 4 * SegmentLookup.MINECRAFT_SEGMENT_COUNT) + 24;
+
+	private LookupMemory() {
+		// Sealed
+	}
+
+	/**
+	 * Estimate the number of bytes used by the given lookup, excluding any tables it shares with another lookup.
+	 * <p>
+	 * Lookups cloned from the shared lookup only own the segments that have been modified since.
+	 *
+	 * @param lookup - the lookup to measure.
+	 * @param shared - a lookup whose tables are not counted, or NULL.
+	 * @return The estimated number of bytes.
+	 */
+	public static long estimateSize(SegmentLookup lookup, SegmentLookup shared) {
+		Set<ConversionLookup> counted = Collections.newSetFromMap(new IdentityHashMap<ConversionLookup, Boolean>());
+		long size = SEGMENT_LOOKUP_SIZE;
+
+		// Tables that are owned by someone else
+		if (shared != null) {
+			for (int y = 0; y < shared.getSegmentCount(); y++) {
+				counted.add(CompiledLookup.unwrap(CompiledLookup.getSegment(shared, y)));
+			}
+		}
+		for (int y = 0; y < lookup.getSegmentCount(); y++) {
+			if (counted.add(CompiledLookup.unwrap(CompiledLookup.getSegment(lookup, y)))) {
+				size += CONVERSION_LOOKUP_SIZE;
+			}
+		}
+		return size;
+	}
+}
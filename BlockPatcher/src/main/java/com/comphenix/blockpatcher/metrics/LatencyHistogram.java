@@ -0,0 +1,149 @@
+package com.comphenix.blockpatcher.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Represents a histogram of latencies in nanoseconds, with a bounded relative error.
+ * <p>
+ * Like an HDR histogram, every power of two is divided into a fixed number of linear buckets. Latencies below 64
+ * nanoseconds are counted exactly, while longer latencies are counted with a relative error of at most 1/32. Latencies
+ * above one hour are counted as one hour.
+ * <p>
+ * Recording is lock free and thread safe. Percentiles are computed from the current counts, which may change while
+ * they are read.
+ */
+public final class LatencyHistogram {
+	/**
+	 * The number of linear buckets in each power of two, as a power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The highest value that can be recorded.
+	 */
+	public static final long MAX_VALUE = TimeUnit.HOURS.toNanos(1);
+
+	private static final int BUCKET_COUNT = getIndex(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalValue = new AtomicLong();
+	private final AtomicLong maxValue = new AtomicLong();
+
+	private static int getIndex(long value) {
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	private static long getHighestValue(int index) {
+		if (index < 2 * SUB_BUCKETS)
+			return index;
+
+		// Every bucket from here on starts with a sub-bucket of at least SUB_BUCKETS
+		int shift = (index >> SUB_BUCKET_BITS) - 1;
+		long mantissa = index - (shift << SUB_BUCKET_BITS);
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	/**
+	 * Record a single latency.
+	 *
+	 * @param nanoseconds - the latency in nanoseconds. Negative values are counted as zero.
+	 */
+	public void record(long nanoseconds) {
+		long value = Math.max(0, Math.min(nanoseconds, MAX_VALUE));
+		long max;
+
+		counts.incrementAndGet(getIndex(value));
+		totalCount.incrementAndGet();
+		totalValue.addAndGet(value);
+
+		while (value > (max = maxValue.get())) {
+			if (maxValue.compareAndSet(max, value))
+				break;
+		}
+	}
+
+	/**
+	 * Retrieve the number of recorded latencies.
+	 *
+	 * @return The number of latencies.
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Retrieve the mean of every recorded latency.
+	 *
+	 * @return The mean in nanoseconds, or zero if nothing has been recorded.
+	 */
+	public double getMean() {
+		long count = totalCount.get();
+		return count > 0 ? totalValue.get() / (double) count : 0;
+	}
+
+	/**
+	 * Retrieve the highest recorded latency.
+	 *
+	 * @return The highest latency in nanoseconds.
+	 */
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	/**
+	 * Retrieve the latency that is higher than or equal to the given fraction of every recorded latency.
+	 *
+	 * @param percentile - the fraction, from 0 to 1.
+	 * @return The latency in nanoseconds, or zero if nothing has been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long[] snapshot = new long[BUCKET_COUNT];
+		long count = 0;
+
+		for (int i = 0; i < snapshot.length; i++) {
+			count += snapshot[i] = counts.get(i);
+		}
+		long target = Math.max(1, (long) Math.ceil(percentile * count));
+		long seen = 0;
+
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+
+			if (seen >= target)
+				return Math.min(getHighestValue(i), getMax());
+		}
+		return 0;
+	}
+
+	/**
+	 * Retrieve a summary of the recorded latencies.
+	 *
+	 * @return The summary.
+	 */
+	public LatencySummary getSummary() {
+		return new LatencySummary(getCount(), toMicroseconds(getMean()),
+				toMicroseconds(getPercentile(0.5)), toMicroseconds(getPercentile(0.9)),
+				toMicroseconds(getPercentile(0.99)), toMicroseconds(getPercentile(0.999)), toMicroseconds(getMax()));
+	}
+
+	private static double toMicroseconds(double nanoseconds) {
+		return nanoseconds / 1000.0;
+	}
+
+	/**
+	 * Discard every recorded latency. Latencies that are recorded concurrently may be partially discarded.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalValue.set(0);
+		maxValue.set(0);
+	}
+}
@@ -0,0 +1,97 @@
+package com.comphenix.blockpatcher.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Represents the count and percentiles of a latency histogram at a certain point in time.
+ * <p>
+ * Every latency is in microseconds.
+ */
+public final class LatencySummary {
+	private final long count;
+	private final double mean;
+	private final double p50;
+	private final double p90;
+	private final double p99;
+	private final double p999;
+	private final double max;
+
+	@ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "p999", "max" })
+	public LatencySummary(long count, double mean, double p50, double p90, double p99, double p999, double max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	/**
+	 * Retrieve the number of recorded latencies.
+	 *
+	 * @return The number of latencies.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Retrieve the mean latency.
+	 *
+	 * @return The mean latency.
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Retrieve the median latency.
+	 *
+	 * @return The 50th percentile.
+	 */
+	public double getP50() {
+		return p50;
+	}
+
+	/**
+	 * Retrieve the 90th percentile latency.
+	 *
+	 * @return The 90th percentile.
+	 */
+	public double getP90() {
+		return p90;
+	}
+
+	/**
+	 * Retrieve the 99th percentile latency.
+	 *
+	 * @return The 99th percentile.
+	 */
+	public double getP99() {
+		return p99;
+	}
+
+	/**
+	 * Retrieve the 99.9th percentile latency.
+	 *
+	 * @return The 99.9th percentile.
+	 */
+	public double getP999() {
+		return p999;
+	}
+
+	/**
+	 * Retrieve the highest latency.
+	 *
+	 * @return The highest latency.
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d, mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f", count, mean, p50, p90, p99, p999, max);
+	}
+}
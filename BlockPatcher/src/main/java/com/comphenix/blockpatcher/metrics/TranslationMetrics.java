@@ -0,0 +1,267 @@
+package com.comphenix.blockpatcher.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.comphenix.protocol.PacketType;
+
+/**
+ * Records the time spent translating each packet type, along with the amount of chunk data and the shared cache hits.
+ * <p>
+ * A disabled instance never reads the clock, so it can be called unconditionally from every translation:
+ * <pre>
+ * long start = metrics.start();
+ * // Translate the packet
+ * metrics.record(type, Stage.TOTAL, start);
+ * </pre>
+ */
+public class TranslationMetrics implements TranslationMetricsMXBean {
+	/**
+	 * The name this instance is registered with over JMX.
+	 */
+	public static final String OBJECT_NAME = "com.comphenix.blockpatcher:type=TranslationMetrics";
+
+	/**
+	 * The stages of a translation.
+	 */
+	public enum Stage {
+		/**
+		 * The entire translation of a packet, excluding the queue.
+		 */
+		TOTAL,
+
+		/**
+		 * Time spent in the translation queue before a worker started the translation.
+		 */
+		QUEUE,
+
+		/**
+		 * Invoking the chunk conversion providers and ChunkPostProcessingEvent.
+		 */
+		EVENT,
+
+		/**
+		 * Reading the chunk data.
+		 */
+		PARSE,
+
+		/**
+		 * Converting the blocks of a chunk.
+		 */
+		REMAP,
+
+		/**
+		 * Writing the chunk data.
+		 */
+		ENCODE
+	}
+
+	private static final Stage[] STAGES = Stage.values();
+
+	private final boolean enabled;
+
+	// Histograms by packet type, indexed by stage
+	private final ConcurrentMap<PacketType, LatencyHistogram[]> histograms = new ConcurrentHashMap<PacketType, LatencyHistogram[]>();
+
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
+
+	private ObjectName registeredName;
+
+	/**
+	 * Construct a new set of metrics.
+	 *
+	 * @param enabled - whether or not to record anything.
+	 */
+	public TranslationMetrics(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Retrieve the start time of a stage.
+	 *
+	 * @return The current time in nanoseconds, or zero if disabled.
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record the time elapsed since the given start time.
+	 *
+	 * @param type - the packet type.
+	 * @param stage - the stage.
+	 * @param start - the start time, as returned by {@link #start()}.
+	 */
+	public void record(PacketType type, Stage stage, long start) {
+		if (enabled) {
+			getHistograms(type)[stage.ordinal()].record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Record the size of a chunk before and after translation.
+	 *
+	 * @param received - the number of bytes received from the server.
+	 * @param sent - the number of bytes sent to the client.
+	 */
+	public void recordBytes(int received, int sent) {
+		if (enabled) {
+			bytesIn.addAndGet(received);
+			bytesOut.addAndGet(sent);
+		}
+	}
+
+	/**
+	 * Record whether or not a chunk could reuse a lookup table computed for another player.
+	 *
+	 * @param hit - TRUE if it could, FALSE otherwise.
+	 */
+	public void recordCacheLookup(boolean hit) {
+		if (enabled) {
+			(hit ? cacheHits : cacheMisses).incrementAndGet();
+		}
+	}
+
+	private LatencyHistogram[] getHistograms(PacketType type) {
+		LatencyHistogram[] result = histograms.get(type);
+
+		if (result == null) {
+			result = new LatencyHistogram[STAGES.length];
+
+			for (int i = 0; i < result.length; i++) {
+				result[i] = new LatencyHistogram();
+			}
+			LatencyHistogram[] previous = histograms.putIfAbsent(type, result);
+
+			if (previous != null)
+				result = previous;
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieve the histogram of the given packet type and stage.
+	 *
+	 * @param type - the packet type.
+	 * @param stage - the stage.
+	 * @return The histogram, or NULL if nothing has been recorded for this packet type.
+	 */
+	public LatencyHistogram getHistogram(PacketType type, Stage stage) {
+		LatencyHistogram[] result = histograms.get(type);
+		return result != null ? result[stage.ordinal()] : null;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public Map<String, LatencySummary> getLatencies() {
+		Map<String, LatencySummary> result = new TreeMap<String, LatencySummary>();
+
+		for (Entry<PacketType, LatencyHistogram[]> entry : histograms.entrySet()) {
+			for (Stage stage : STAGES) {
+				LatencyHistogram histogram = entry.getValue()[stage.ordinal()];
+
+				if (histogram.getCount() > 0) {
+					result.put(entry.getKey().name() + "." + stage.name().toLowerCase(Locale.ENGLISH), histogram.getSummary());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieve every packet type that has been recorded.
+	 *
+	 * @return The packet types.
+	 */
+	public Iterable<PacketType> getPacketTypes() {
+		return histograms.keySet();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+	@Override
+	public void reset() {
+		for (LatencyHistogram[] stages : histograms.values()) {
+			for (LatencyHistogram histogram : stages) {
+				histogram.reset();
+			}
+		}
+		bytesIn.set(0);
+		bytesOut.set(0);
+		cacheHits.set(0);
+		cacheMisses.set(0);
+	}
+
+	/**
+	 * Expose these metrics over JMX.
+	 *
+	 * @throws IllegalStateException If the metrics could not be registered.
+	 */
+	public synchronized void register() {
+		if (registeredName != null)
+			return;
+
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+			// Left behind by a previous instance that was not unregistered
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+			registeredName = name;
+		} catch (JMException e) {
+			throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+		}
+	}
+
+	/**
+	 * Stop exposing these metrics over JMX.
+	 */
+	public synchronized void unregister() {
+		if (registeredName == null)
+			return;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+		} catch (JMException e) {
+			// Already unregistered
+		}
+		registeredName = null;
+	}
+}
@@ -0,0 +1,55 @@
+package com.comphenix.blockpatcher.metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link TranslationMetrics}, as exposed over JMX.
+ */
+public interface TranslationMetricsMXBean {
+	/**
+	 * Determine if metrics are being recorded.
+	 *
+	 * @return TRUE if they are, FALSE otherwise.
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Retrieve the latencies of every packet type and stage, in microseconds.
+	 *
+	 * @return Latency summaries by packet type and stage, such as "MAP_CHUNK.parse".
+	 */
+	Map<String, LatencySummary> getLatencies();
+
+	/**
+	 * Retrieve the number of chunk data bytes received from the server.
+	 *
+	 * @return Number of bytes.
+	 */
+	long getBytesIn();
+
+	/**
+	 * Retrieve the number of chunk data bytes sent to clients after translation.
+	 *
+	 * @return Number of bytes.
+	 */
+	long getBytesOut();
+
+	/**
+	 * Retrieve the number of chunks that reused a lookup table computed for another player.
+	 *
+	 * @return Number of chunks.
+	 */
+	long getCacheHits();
+
+	/**
+	 * Retrieve the number of chunks whose lookup table had to be computed.
+	 *
+	 * @return Number of chunks.
+	 */
+	long getCacheMisses();
+
+	/**
+	 * Discard every recorded latency and counter.
+	 */
+	void reset();
+}
@@ -0,0 +1,237 @@
+package com.comphenix.blockpatcher.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.comphenix.blockpatcher.lookup.SegmentLookup;
+import com.google.common.base.Preconditions;
+
+/**
+ * Represents a set of block conversions that only apply to a box of chunks and segments in a given world.
+ * <p>
+ * A rule can be modified until it is first registered. After that it is frozen, even once it has been unregistered, as
+ * chunks may still be converted with it. It can be registered again unchanged, but must be replaced to change its
+ * conversions.
+ */
+public class ConversionRule {
+
+	private final String worldName;
+	private final int minChunkX;
+	private final int minChunkZ;
+	private final int maxChunkX;
+	private final int maxChunkZ;
+	private final int minChunkY;
+	private final int maxChunkY;
+
+	// Block ID, new block ID
+	private final List<int[]> blockConversions = new ArrayList<int[]>();
+
+	// Block ID, original data value, new data value
+	private final List<int[]> dataConversions = new ArrayList<int[]>();
+
+	// Whether or not this rule has ever been registered
+	private volatile boolean frozen;
+
+	// Registration order
+	private long sequenceNumber;
+
+	/**
+	 * Construct a rule that applies to every segment in the given chunks.
+	 *
+	 * @param worldName - the name of the world.
+	 * @param minChunkX - the lowest chunk x position (inclusive).
+	 * @param minChunkZ - the lowest chunk z position (inclusive).
+	 * @param maxChunkX - the highest chunk x position (inclusive).
+	 * @param maxChunkZ - the highest chunk z position (inclusive).
+	 */
+	public ConversionRule(String worldName, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+		this(worldName, minChunkX, minChunkZ, maxChunkX, maxChunkZ, 0, SegmentLookup.MINECRAFT_SEGMENT_COUNT - 1);
+	}
+
+	/**
+	 * Construct a rule that applies to the given segments in the given chunks.
+	 *
+	 * @param worldName - the name of the world.
+	 * @param minChunkX - the lowest chunk x position (inclusive).
+	 * @param minChunkZ - the lowest chunk z position (inclusive).
+	 * @param maxChunkX - the highest chunk x position (inclusive).
+	 * @param maxChunkZ - the highest chunk z position (inclusive).
+	 * @param minChunkY - the lowest segment (inclusive).
+	 * @param maxChunkY - the highest segment (inclusive).
+	 */
+	public ConversionRule(String worldName, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ, int minChunkY, int maxChunkY) {
+		if (worldName == null)
+			throw new IllegalArgumentException("World name cannot be NULL.");
+		if (minChunkX > maxChunkX || minChunkZ > maxChunkZ)
+			throw new IllegalArgumentException("Minimum chunk position cannot be greater than the maximum.");
+		if (minChunkY < 0 || maxChunkY >= SegmentLookup.MINECRAFT_SEGMENT_COUNT || minChunkY > maxChunkY)
+			throw new IllegalArgumentException("Segments must be in the range 0 - " + (SegmentLookup.MINECRAFT_SEGMENT_COUNT - 1));
+
+		this.worldName = worldName;
+		this.minChunkX = minChunkX;
+		this.minChunkZ = minChunkZ;
+		this.maxChunkX = maxChunkX;
+		this.maxChunkZ = maxChunkZ;
+		this.minChunkY = minChunkY;
+		this.maxChunkY = maxChunkY;
+	}
+
+	/**
+	 * Convert the given block type into another block type.
+	 *
+	 * @param blockID - the given block type.
+	 * @param newBlockID - the new block type.
+	 * @return This rule, for chaining.
+	 */
+	public ConversionRule setBlockLookup(int blockID, int newBlockID) {
+		Preconditions.checkPositionIndex(blockID, 256, "Block ID must be in the range 0 - 256");
+		Preconditions.checkPositionIndex(newBlockID, 256, "New block ID must be in the range 0 - 256");
+		checkFrozen();
+
+		blockConversions.add(new int[] { blockID, newBlockID });
+		return this;
+	}
+
+	/**
+	 * Converts data values of the given value into the new value.
+	 *
+	 * @param blockID - block to match.
+	 * @param originalDataValue - data value to match.
+	 * @param newDataValue - replaced data value.
+	 * @return This rule, for chaining.
+	 */
+	public ConversionRule setDataLookup(int blockID, int originalDataValue, int newDataValue) {
+		Preconditions.checkPositionIndex(blockID, 256, "Block ID must be in the range 0 - 256");
+		Preconditions.checkPositionIndex(originalDataValue, 16, "Original data value must be in the range 0 - 15");
+		Preconditions.checkPositionIndex(newDataValue, 16, "New data value must be in the range 0 - 15");
+		checkFrozen();
+
+		dataConversions.add(new int[] { blockID, originalDataValue, newDataValue });
+		return this;
+	}
+
+	/**
+	 * Determine if this rule applies to the given chunk.
+	 *
+	 * @param chunkX - the chunk x position.
+	 * @param chunkZ - the chunk z position.
+	 * @return TRUE if it does, FALSE otherwise.
+	 */
+	public boolean contains(int chunkX, int chunkZ) {
+		return chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ;
+	}
+
+	/**
+	 * Apply the conversions of this rule to the given lookup.
+	 *
+	 * @param lookup - the lookup to modify.
+	 */
+	public void apply(SegmentLookup lookup) {
+		for (int y = minChunkY; y <= maxChunkY; y++) {
+			for (int[] conversion : blockConversions) {
+				lookup.setBlockLookup(conversion[0], conversion[1], y);
+			}
+			for (int[] conversion : dataConversions) {
+				lookup.setDataLookup(conversion[0], conversion[1], conversion[2], y);
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the name of the world this rule applies to.
+	 *
+	 * @return The world name.
+	 */
+	public String getWorldName() {
+		return worldName;
+	}
+
+	/**
+	 * Retrieve the lowest chunk x position (inclusive).
+	 *
+	 * @return The lowest chunk x position.
+	 */
+	public int getMinChunkX() {
+		return minChunkX;
+	}
+
+	/**
+	 * Retrieve the lowest chunk z position (inclusive).
+	 *
+	 * @return The lowest chunk z position.
+	 */
+	public int getMinChunkZ() {
+		return minChunkZ;
+	}
+
+	/**
+	 * Retrieve the highest chunk x position (inclusive).
+	 *
+	 * @return The highest chunk x position.
+	 */
+	public int getMaxChunkX() {
+		return maxChunkX;
+	}
+
+	/**
+	 * Retrieve the highest chunk z position (inclusive).
+	 *
+	 * @return The highest chunk z position.
+	 */
+	public int getMaxChunkZ() {
+		return maxChunkZ;
+	}
+
+	/**
+	 * Retrieve the lowest segment (inclusive).
+	 *
+	 * @return The lowest segment.
+	 */
+	public int getMinChunkY() {
+		return minChunkY;
+	}
+
+	/**
+	 * Retrieve the highest segment (inclusive).
+	 *
+	 * @return The highest segment.
+	 */
+	public int getMaxChunkY() {
+		return maxChunkY;
+	}
+
+	/**
+	 * Determine if this rule has ever been registered, and can no longer be modified.
+	 *
+	 * @return TRUE if it has, FALSE otherwise.
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Prevent further modifications to this rule.
+	 */
+	void freeze() {
+		frozen = true;
+	}
+
+	long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	void setSequenceNumber(long sequenceNumber) {
+		this.sequenceNumber = sequenceNumber;
+	}
+
+	private void checkFrozen() {
+		if (frozen)
+			throw new IllegalStateException("Cannot modify a registered rule.");
+	}
+
+	@Override
+	public String toString() {
+		return "ConversionRule[world=" + worldName + ", x=" + minChunkX + ".." + maxChunkX + ", z=" + minChunkZ + ".." + maxChunkZ
+				+ ", y=" + minChunkY + ".." + maxChunkY + "]";
+	}
+}
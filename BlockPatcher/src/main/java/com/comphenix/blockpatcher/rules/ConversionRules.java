@@ -0,0 +1,330 @@
+package com.comphenix.blockpatcher.rules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.bukkit.World;
+
+import com.comphenix.blockpatcher.PatcherAPI;
+import com.comphenix.blockpatcher.lookup.SegmentLookup;
+
+/**
+ * Represents every registered conversion rule, indexed by world and chunk position.
+ * <p>
+ * The rules that apply to a chunk are compiled into a single segment lookup on top of the global lookup table.
+ * Chunks that share the same set of rules share the same compiled lookup.
+ * <p>
+ * Rules are usually registered from the main thread, while lookups are compiled from the asynchronous
+ * chunk processing threads.
+ */
+public class ConversionRules {
+	/**
+	 * Each grid cell covers 16x16 chunks.
+	 */
+	private static final int CELL_SHIFT = 4;
+
+	/**
+	 * Rules that cover more cells than this are not stored in the grid.
+	 */
+	private static final int MAX_INDEXED_CELLS = 1024;
+
+	/**
+	 * The maximum number of compiled lookups before the cache is cleared.
+	 */
+	private static final int MAX_COMPILED_LOOKUPS = 4096;
+
+	// Rules in registration order
+	private static final Comparator<ConversionRule> REGISTRATION_ORDER = new Comparator<ConversionRule>() {
+		@Override
+		public int compare(ConversionRule a, ConversionRule b) {
+			return a == b ? 0 : (a.getSequenceNumber() < b.getSequenceNumber() ? -1 : 1);
+		}
+	};
+
+	// Indexed rules by world
+	private final Map<String, WorldIndex> worlds = new HashMap<String, WorldIndex>();
+	private final List<ConversionRule> rules = new ArrayList<ConversionRule>();
+	private long nextSequenceNumber;
+
+	// Reading and writing to the index
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Compiled lookups by the set of rules that apply - replaced whenever it is invalidated
+	private volatile CompiledCache compiled = new CompiledCache(0);
+
+	// Incremented whenever the compiled lookups are invalidated
+	private final AtomicInteger modificationCount = new AtomicInteger();
+
+	// The global lookup table
+	private final PatcherAPI api;
+
+	/**
+	 * Rules in a single world.
+	 */
+	private static class WorldIndex {
+		private final Map<Long, List<ConversionRule>> cells = new HashMap<Long, List<ConversionRule>>();
+		private final List<ConversionRule> largeRules = new ArrayList<ConversionRule>();
+
+		public boolean isEmpty() {
+			return cells.isEmpty() && largeRules.isEmpty();
+		}
+	}
+
+	/**
+	 * Compiled lookups for a given version of the global lookup table.
+	 */
+	private static class CompiledCache {
+		private final ConcurrentHashMap<List<ConversionRule>, SegmentLookup> lookups =
+				new ConcurrentHashMap<List<ConversionRule>, SegmentLookup>();
+		private final int modificationCount;
+
+		public CompiledCache(int modificationCount) {
+			this.modificationCount = modificationCount;
+		}
+	}
+
+	public ConversionRules(PatcherAPI api) {
+		this.api = api;
+	}
+
+	/**
+	 * Register a conversion rule. The rule can no longer be modified afterwards.
+	 * <p>
+	 * Rules that are registered later take precedence over earlier rules. A rule that has been unregistered may be
+	 * registered again, and then takes precedence over every rule registered before it.
+	 *
+	 * @param rule - the rule to register.
+	 */
+	public void register(ConversionRule rule) {
+		if (rule == null)
+			throw new IllegalArgumentException("Rule cannot be NULL.");
+
+		try {
+			lock.writeLock().lock();
+
+			if (rules.contains(rule))
+				throw new IllegalArgumentException("Rule " + rule + " has already been registered.");
+			rule.freeze();
+			rule.setSequenceNumber(nextSequenceNumber++);
+			rules.add(rule);
+
+			WorldIndex index = worlds.get(rule.getWorldName());
+
+			if (index == null) {
+				worlds.put(rule.getWorldName(), index = new WorldIndex());
+			}
+
+			if (getCellCount(rule) > MAX_INDEXED_CELLS) {
+				index.largeRules.add(rule);
+			} else {
+				for (int cellX = rule.getMinChunkX() >> CELL_SHIFT; cellX <= rule.getMaxChunkX() >> CELL_SHIFT; cellX++) {
+					for (int cellZ = rule.getMinChunkZ() >> CELL_SHIFT; cellZ <= rule.getMaxChunkZ() >> CELL_SHIFT; cellZ++) {
+						Long key = getCellKey(cellX, cellZ);
+						List<ConversionRule> cell = index.cells.get(key);
+
+						if (cell == null) {
+							index.cells.put(key, cell = new ArrayList<ConversionRule>(2));
+						}
+						cell.add(rule);
+					}
+				}
+			}
+			invalidate();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Unregister a conversion rule.
+	 * <p>
+	 * The rule remains frozen, as chunks may still be converted with it. It can be registered again unchanged.
+	 *
+	 * @param rule - the rule to unregister.
+	 * @return TRUE if the rule was unregistered, FALSE if it was never registered.
+	 */
+	public boolean unregister(ConversionRule rule) {
+		try {
+			lock.writeLock().lock();
+
+			if (!rules.remove(rule))
+				return false;
+
+			WorldIndex index = worlds.get(rule.getWorldName());
+
+			if (!index.largeRules.remove(rule)) {
+				for (int cellX = rule.getMinChunkX() >> CELL_SHIFT; cellX <= rule.getMaxChunkX() >> CELL_SHIFT; cellX++) {
+					for (int cellZ = rule.getMinChunkZ() >> CELL_SHIFT; cellZ <= rule.getMaxChunkZ() >> CELL_SHIFT; cellZ++) {
+						Long key = getCellKey(cellX, cellZ);
+						List<ConversionRule> cell = index.cells.get(key);
+
+						if (cell != null && cell.remove(rule) && cell.isEmpty()) {
+							index.cells.remove(key);
+						}
+					}
+				}
+			}
+			if (index.isEmpty()) {
+				worlds.remove(rule.getWorldName());
+			}
+			invalidate();
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Unregister every conversion rule.
+	 */
+	public void clear() {
+		try {
+			lock.writeLock().lock();
+			rules.clear();
+			worlds.clear();
+			invalidate();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Retrieve a copy of every registered rule, in registration order.
+	 *
+	 * @return Every registered rule.
+	 */
+	public List<ConversionRule> getRules() {
+		try {
+			lock.readLock().lock();
+			return new ArrayList<ConversionRule>(rules);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Retrieve every rule that applies to the given chunk, in registration order.
+	 *
+	 * @param worldName - the world name.
+	 * @param chunkX - the chunk x position.
+	 * @param chunkZ - the chunk z position.
+	 * @return The rules that apply, or an empty list.
+	 */
+	public List<ConversionRule> getRules(String worldName, int chunkX, int chunkZ) {
+		List<ConversionRule> result = null;
+
+		try {
+			lock.readLock().lock();
+			WorldIndex index = worlds.get(worldName);
+
+			if (index == null)
+				return Collections.emptyList();
+
+			List<ConversionRule> cell = index.cells.get(getCellKey(chunkX >> CELL_SHIFT, chunkZ >> CELL_SHIFT));
+
+			if (cell != null) {
+				result = addMatching(result, cell, chunkX, chunkZ);
+			}
+			if (!index.largeRules.isEmpty()) {
+				result = addMatching(result, index.largeRules, chunkX, chunkZ);
+
+				// Merge the two lists
+				if (cell != null && result != null) {
+					Collections.sort(result, REGISTRATION_ORDER);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result != null ? result : Collections.<ConversionRule>emptyList();
+	}
+
+	/**
+	 * Retrieve the compiled lookup table for the given chunk.
+	 * <p>
+	 * The result is shared by every chunk with the same set of rules, and must never be modified.
+	 *
+	 * @param world - the world.
+	 * @param chunkX - the chunk x position.
+	 * @param chunkZ - the chunk z position.
+	 * @return The compiled lookup table, or NULL if no rules apply to this chunk.
+	 */
+	public SegmentLookup getLookup(World world, int chunkX, int chunkZ) {
+		List<ConversionRule> matching = getRules(world.getName(), chunkX, chunkZ);
+
+		if (matching.isEmpty())
+			return null;
+
+		// Recompile everything if the global lookup table has changed
+		CompiledCache cache = compiled;
+		int modificationCount = api.getModificationCount();
+
+		if (cache.modificationCount != modificationCount || cache.lookups.size() > MAX_COMPILED_LOOKUPS) {
+			compiled = cache = new CompiledCache(modificationCount);
+		}
+
+		SegmentLookup lookup = cache.lookups.get(matching);
+
+		if (lookup == null) {
+			lookup = (SegmentLookup) api.deepClone();
+
+			for (ConversionRule rule : matching) {
+				rule.apply(lookup);
+			}
+			SegmentLookup previous = cache.lookups.putIfAbsent(matching, lookup);
+
+			if (previous != null)
+				lookup = previous;
+		}
+		return lookup;
+	}
+
+	/**
+	 * Discard every compiled lookup table.
+	 * <p>
+	 * This is done automatically when rules are registered or the global lookup table is modified through the API.
+	 */
+	public void invalidate() {
+		compiled = new CompiledCache(api.getModificationCount());
+		modificationCount.incrementAndGet();
+	}
+
+	/**
+	 * Retrieve a version number that changes whenever the rules or the global lookup table are modified.
+	 * <p>
+	 * Lookups computed from an earlier version may be out of date.
+	 *
+	 * @return The current version.
+	 */
+	public int getVersion() {
+		return 31 * api.getModificationCount() + modificationCount.get();
+	}
+
+	private List<ConversionRule> addMatching(List<ConversionRule> result, List<ConversionRule> candidates, int chunkX, int chunkZ) {
+		for (ConversionRule rule : candidates) {
+			if (rule.contains(chunkX, chunkZ)) {
+				if (result == null)
+					result = new ArrayList<ConversionRule>(2);
+				result.add(rule);
+			}
+		}
+		return result;
+	}
+
+	private long getCellCount(ConversionRule rule) {
+		long width = (rule.getMaxChunkX() >> CELL_SHIFT) - (rule.getMinChunkX() >> CELL_SHIFT) + 1L;
+		long height = (rule.getMaxChunkZ() >> CELL_SHIFT) - (rule.getMinChunkZ() >> CELL_SHIFT) + 1L;
+		return width * height;
+	}
+
+	private static Long getCellKey(int cellX, int cellZ) {
+		return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+	}
+}